@@ -0,0 +1,119 @@
+package com.troy.chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.troy.chess.engine.GameCallbacks;
+
+/**
+ * Measures the Java half of every upcall rust makes: routing by game ID,
+ * cancellation checks and queueing the event for the FX thread, plus a full
+ * human move handoff through get_human_move.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BridgeBenchmark {
+
+    private static final int GAME_ID = 1;
+
+    private final EventChannel channel = new EventChannel(1 << 14);
+
+    private final EventChannel.Handler discard = new EventChannel.Handler() {
+        @Override
+        public void displayMove(int srcSquare, int destSquare) {
+        }
+
+        @Override
+        public void setSquare(int square, int piece, int color) {
+        }
+
+        @Override
+        public void setBoardSize(int boardWidth) {
+        }
+    };
+
+    private int pending;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Natives.initBackend();
+        // Same shape as the UI callbacks, minus the JavaFX dependency
+        Natives.registerGame(GAME_ID, new GameCallbacks() {
+            @Override
+            public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+                BridgeBenchmark.this.channel.pushDisplayMove(srcSquare, destSquare);
+                return true;
+            }
+
+            @Override
+            public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+                BridgeBenchmark.this.channel.pushSetSquare(square, pieceKind, color);
+                return true;
+            }
+
+            @Override
+            public boolean setBoardSize(int gameID, int size) {
+                BridgeBenchmark.this.channel.pushSetBoardSize(size);
+                return true;
+            }
+
+            @Override
+            public long getHumanMove(int gameID, int side) {
+                return Natives.waitForHumanMove(gameID);
+            }
+        });
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Natives.unregisterGame(GAME_ID);
+    }
+
+    /**
+     * Drains in batches the way the FX thread does once per pulse, so the buffer
+     * never fills up
+     */
+    private void drainEvery(int batch) {
+        if (++this.pending == batch) {
+            this.channel.drain(this.discard);
+            this.pending = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean displayMove() {
+        boolean running = Natives.display_move(GAME_ID, 12, 28);
+        drainEvery(1024);
+        return running;
+    }
+
+    @Benchmark
+    public boolean setSquare() {
+        boolean running = Natives.set_square(GAME_ID, 12, 6, 0);
+        drainEvery(1024);
+        return running;
+    }
+
+    @Benchmark
+    public long humanMoveRoundTrip() {
+        Natives.giveMove(GAME_ID, 12, 28);
+        return Natives.get_human_move(0);
+    }
+
+}
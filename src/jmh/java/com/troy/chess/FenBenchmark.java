@@ -0,0 +1,65 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.troy.chess.engine.FenReader;
+import com.troy.chess.engine.FenRecord;
+import com.troy.chess.engine.Position;
+
+/**
+ * FEN parsing of the example assets, both the raw decode that Import Game does
+ * and loading the result into an engine Position.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FenBenchmark {
+
+    @Param({ "sicilian.fen", "fajarowicz_gambit.fen" })
+    public String file;
+
+    private byte[] bytes;
+    private String fen;
+
+    private final FenRecord record = new FenRecord();
+    private final Position position = new Position(Position.CHESS_START);
+
+    @Setup
+    public void setup() throws IOException {
+        this.bytes = Files.readAllBytes(Paths.get("example-assets", this.file));
+        this.fen = new String(this.bytes, StandardCharsets.US_ASCII);
+    }
+
+    @Benchmark
+    public FenRecord decode() throws IOException {
+        new FenReader(ByteBuffer.wrap(this.bytes)).next(this.record);
+        return this.record;
+    }
+
+    @Benchmark
+    public Position setFen() {
+        this.position.setFen(this.fen);
+        return this.position;
+    }
+
+}
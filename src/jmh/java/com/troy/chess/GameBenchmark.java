@@ -0,0 +1,68 @@
+package com.troy.chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.troy.chess.engine.GameCallbacks;
+
+/**
+ * Plays whole random_ai games through Natives.playGame, which is a start_game
+ * downcall plus every upcall it makes when the native backend is loaded.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameBenchmark {
+
+    @Param({ "0", "1" })
+    public int gameType;
+
+    private int gameID = 1;
+
+    private final GameCallbacks ignore = new GameCallbacks() {
+        @Override
+        public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+            return true;
+        }
+
+        @Override
+        public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+            return true;
+        }
+
+        @Override
+        public boolean setBoardSize(int gameID, int size) {
+            return true;
+        }
+
+        @Override
+        public long getHumanMove(int gameID, int side) {
+            throw new IllegalStateException();
+        }
+    };
+
+    @Setup
+    public void setup() {
+        Natives.initBackend();
+    }
+
+    @Benchmark
+    public int randomGame() {
+        return Natives.playGame("random_ai", "random_ai", this.gameType, this.gameID++, this.ignore);
+    }
+
+}
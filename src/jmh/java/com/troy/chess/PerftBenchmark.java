@@ -0,0 +1,49 @@
+package com.troy.chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.troy.chess.engine.Perft;
+import com.troy.chess.engine.Position;
+
+/**
+ * Single threaded perft of the Java MoveGenerator from both start positions,
+ * to depth 4 on 8x8 (197281 nodes) and depth 3 on 10x10 (33910 nodes).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PerftBenchmark {
+
+    @Param({ "0", "1" })
+    public int gameType;
+
+    private Position position;
+    private int depth;
+
+    @Setup
+    public void setup() {
+        this.position = new Position(Natives.GameType.values()[this.gameType]);
+        this.depth = this.gameType == 0 ? 4 : 3;
+    }
+
+    @Benchmark
+    public long perft() {
+        return Perft.count(this.position, this.depth);
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.troy.chess;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.troy.chess.engine.Piece;
+
+import javafx.application.Platform;
+import javafx.scene.image.Image;
+
+/**
+ * The UI code that runs at startup or on every move. The board is built but
+ * never shown, so nothing here waits on rendering.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UiBenchmark {
+
+    private Main main;
+    private Image dragon;
+    private int square = 0;
+    private int size = 50;
+    private final MoveHistory history = new MoveHistory();
+    private final int[] board = new int[100];
+    private int ply;
+
+    @Setup
+    public void setup() {
+        try {
+            // Images cannot be decoded until the toolkit is running
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException e) {
+            // Already started
+        }
+        this.main = new Main();
+        this.main.getStartup().join();
+        this.main.setBoardSize(10);
+        this.main.setSquare(0, Piece.KING, Piece.WHITE);
+        this.main.refreshBoard();
+        this.main.resizeWindow(50.0);
+        this.dragon = new Image(Main.class.getResourceAsStream("/contrasting_chess/dragon.png"));
+
+        // A long game of two kings walking around
+        this.history.reset(10);
+        this.history.set(0, Piece.code(Piece.KING, Piece.WHITE));
+        this.history.set(99, Piece.code(Piece.KING, Piece.BLACK));
+        int white = 0;
+        int black = 99;
+        for (int i = 0; i < 5000; i++) {
+            int next = white ^ 1;
+            this.history.move(white, next);
+            white = next;
+            next = black ^ 1;
+            this.history.move(black, next);
+            black = next;
+        }
+    }
+
+    @Benchmark
+    public String makePrettyAlgorithmName() {
+        return Main.makePrettyAlgorithmName("random_ai");
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public Image makeBlackPiece() {
+        return SpriteAtlas.makeBlackPiece(this.dragon);
+    }
+
+    /**
+     * One displayed move followed by the board refresh the FX thread does after
+     * draining a batch of upcalls
+     */
+    @Benchmark
+    public void refreshAfterMove() {
+        int next = this.square ^ 1;
+        this.main.displayMove(this.square, next);
+        this.main.refreshBoard();
+        this.square = next;
+    }
+
+    /**
+     * Rebuilding the board at a ply of a 10000 ply game, as dragging the scrubber
+     * does
+     */
+    @Benchmark
+    public int[] jumpToPly() {
+        this.ply = (this.ply + 7919) % (this.history.getPlyCount() + 1);
+        this.history.boardAt(this.ply, this.board);
+        return this.board;
+    }
+
+    /**
+     * A window edge being dragged back and forth over a few sizes, which reuses
+     * the cached sprites rather than scaling the piece images again
+     */
+    @Benchmark
+    public void dragResize() {
+        this.size = this.size == 53 ? 50 : this.size + 1;
+        this.main.resizeWindow(this.size);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.troy.chess;
+
+import com.troy.chess.engine.Zobrist;
+
+/**
+ * A board from the UI's game and its Zobrist hash, updated as squares change
+ * rather than recomputed, so the position can be compared and counted in O(1).
+ * MoveHistory keeps the latest board of the game in one.
+ *
+ * Uses the same keys as the engine's Position for every piece kind and color
+ * in Main.IMAGE_NAMES and every board size. The UI does not know the side to
+ * move, castling rights or en passant square, so only the pieces and board
+ * size are hashed.
+ */
+public class BoardHash {
+
+    private int boardSize;
+
+    /**
+     * The code of the piece on each square, see CanvasBoard#encode
+     */
+    private int[] squares = new int[0];
+
+    private long hash;
+
+    /**
+     * Empties the board
+     */
+    public void reset(int boardSize) {
+        this.boardSize = boardSize;
+        this.squares = new int[boardSize * boardSize];
+        this.hash = Zobrist.boardSize(boardSize);
+    }
+
+    public void set(int square, int code) {
+        this.hash ^= Zobrist.piece(this.squares[square], square) ^ Zobrist.piece(code, square);
+        this.squares[square] = code;
+    }
+
+    /**
+     * Moves whatever is on srcSquare to destSquare, replacing what was there
+     */
+    public void move(int srcSquare, int destSquare) {
+        if (srcSquare == destSquare) {
+            return;
+        }
+        set(destSquare, this.squares[srcSquare]);
+        set(srcSquare, 0);
+    }
+
+    /**
+     * @return The code of the piece on a square, 0 if it is empty
+     */
+    public int get(int square) {
+        return this.squares[square];
+    }
+
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @return A copy of every square's code
+     */
+    public int[] copySquares() {
+        return this.squares.clone();
+    }
+
+    /**
+     * Copies every square's code into out
+     */
+    public void copySquares(int[] out) {
+        System.arraycopy(this.squares, 0, out, 0, this.squares.length);
+    }
+
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+}
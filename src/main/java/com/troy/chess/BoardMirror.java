@@ -0,0 +1,201 @@
+package com.troy.chess;
+
+import java.util.Arrays;
+
+import com.troy.chess.engine.Piece;
+
+/**
+ * The upcalls of the displayed game when it has no human player, appended by
+ * its game thread and read by the FX thread once per frame.
+ *
+ * Unlike EventChannel nothing is ever full: the game thread adds a packed int
+ * to its game's log and never waits for the UI. Each frame the FX thread passes
+ * whatever was added since the last one to the handler, which records it and
+ * then draws only the board it ends up with, skipping every state in between.
+ * The same packed ints make up MoveHistory. Each game gets a new log that only its own thread writes,
+ * published through a volatile count, so neither side takes a lock and a game
+ * that has been replaced can never write into its successor's board.
+ */
+class BoardMirror {
+
+    private static final int SET = 1 << 31;
+
+    /**
+     * One game's upcalls
+     */
+    private static class Log {
+        final int gameID;
+        final int size;
+        int[] edits = new int[1024];
+        volatile int count;
+
+        // Only used by the game thread, to find the rook half of a castling move
+        // and pace the plies
+        final int[] squares;
+        boolean castleRookPending;
+        long lastPlyNanos;
+
+        Log(int gameID, int size) {
+            this.gameID = gameID;
+            this.size = size;
+            this.squares = new int[size * size];
+            this.lastPlyNanos = System.nanoTime();
+        }
+
+        void add(int edit) {
+            int count = this.count;
+            if (count == this.edits.length) {
+                this.edits = Arrays.copyOf(this.edits, count * 2);
+            }
+            this.edits[count] = edit;
+            // Publishes the edit, and the new array if there is one
+            this.count = count + 1;
+        }
+    }
+
+    private volatile Log log;
+
+    // Only touched by the FX thread
+    private Log shown;
+    private int shownCount;
+
+    // Read by Metrics from any thread
+    private volatile long skipped;
+
+    static int packMove(int srcSquare, int destSquare) {
+        return srcSquare << 16 | destSquare;
+    }
+
+    static int packSet(int square, int code) {
+        return SET | square << 16 | code;
+    }
+
+    static boolean isSet(int edit) {
+        return (edit & SET) != 0;
+    }
+
+    /**
+     * @return The source square of a move or the square of a set
+     */
+    static int firstOf(int edit) {
+        return (edit >>> 16) & 0x7FFF;
+    }
+
+    /**
+     * @return The destination square of a move or the code of a set
+     */
+    static int secondOf(int edit) {
+        return edit & 0xFFFF;
+    }
+
+    /**
+     * Starts a new log for a new game
+     */
+    void setBoardSize(int gameID, int size) {
+        this.log = new Log(gameID, size);
+    }
+
+    /**
+     * @return The log of a game, or null if a newer game has replaced it
+     */
+    private Log logOf(int gameID) {
+        Log log = this.log;
+        return log != null && log.gameID == gameID ? log : null;
+    }
+
+    void setSquare(int gameID, int square, int piece, int color) {
+        Log log = logOf(gameID);
+        if (log != null) {
+            int code = Piece.code(piece, color & 1);
+            log.squares[square] = code;
+            log.add(packSet(square, code));
+        }
+    }
+
+    /**
+     * @return False for the rook half of a castling move, which the engines send
+     *         as its own displayMove right after the king's. Only called by the
+     *         game thread, before displayMove
+     */
+    boolean startsPly(int gameID, int srcSquare) {
+        Log log = logOf(gameID);
+        return log == null || !(log.castleRookPending && Piece.pieceOf(log.squares[srcSquare]) == Piece.ROOK);
+    }
+
+    /**
+     * @return Nanoseconds since the game's last ply started, or Long.MAX_VALUE if
+     *         a newer game has replaced it. Only called by the game thread
+     */
+    long sinceLastPly(int gameID) {
+        Log log = logOf(gameID);
+        return log == null ? Long.MAX_VALUE : System.nanoTime() - log.lastPlyNanos;
+    }
+
+    void displayMove(int gameID, int srcSquare, int destSquare) {
+        Log log = logOf(gameID);
+        if (log == null) {
+            return;
+        }
+        int code = log.squares[srcSquare];
+        if (log.castleRookPending && Piece.pieceOf(code) == Piece.ROOK) {
+            log.castleRookPending = false;
+        } else {
+            log.castleRookPending = Piece.pieceOf(code) == Piece.KING && Math.abs(destSquare - srcSquare) == 2;
+            log.lastPlyNanos = System.nanoTime();
+        }
+        log.squares[destSquare] = code;
+        log.squares[srcSquare] = 0;
+        log.add(packMove(srcSquare, destSquare));
+    }
+
+    /**
+     * Passes everything added to a game's log since the last call to the
+     * handler, starting with setBoardSize the first time a game is seen. Must
+     * only be called from the FX thread
+     *
+     * @return The number of calls made to the handler
+     */
+    int apply(int currentGameID, EventChannel.Handler handler) {
+        Log log = this.log;
+        if (log == null || log.gameID != currentGameID) {
+            return 0;
+        }
+        int calls = 0;
+        if (log != this.shown) {
+            handler.setBoardSize(log.size);
+            this.shown = log;
+            this.shownCount = 0;
+            calls++;
+        }
+        // Read the count first so the array is at least as new as the edits it counts
+        int count = log.count;
+        if (count == this.shownCount) {
+            return calls;
+        }
+        int[] edits = log.edits;
+        for (int i = this.shownCount; i < count; i++) {
+            int edit = edits[i];
+            int first = firstOf(edit);
+            int second = secondOf(edit);
+            if (isSet(edit)) {
+                handler.setSquare(first, Piece.pieceOf(second), Piece.colorOf(second));
+            } else {
+                handler.displayMove(first, second);
+            }
+        }
+        // Every state but the last of this frame is never drawn
+        this.skipped += count - this.shownCount - 1;
+        calls += count - this.shownCount;
+        this.shownCount = count;
+        return calls;
+    }
+
+    /**
+     * @return How many board states the FX thread has skipped over since startup.
+     *         May be called from any thread
+     */
+    long getSkipped() {
+        return this.skipped;
+    }
+
+}
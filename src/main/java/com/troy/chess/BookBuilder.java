@@ -0,0 +1,157 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.troy.chess.Natives.GameType;
+import com.troy.chess.engine.GameArchive;
+import com.troy.chess.engine.JavaGame;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.MoveGenerator;
+import com.troy.chess.engine.OpeningBook;
+import com.troy.chess.engine.Piece;
+import com.troy.chess.engine.Position;
+
+/**
+ * Headless entry point that turns a GameArchive of self play games into one
+ * OpeningBook per variant.
+ *
+ * Every move made in the first plies of a game from the standard start counts
+ * 2 if the side that made it went on to win, 1 for a draw and 0 for a loss.
+ * Moves seen in fewer than --min-games games are left out.
+ *
+ * Usage: BookBuilder --archive FILE [--out DIR] [--plies N] [--min-games N]
+ */
+public class BookBuilder {
+
+    private String archivePath = null;
+    private Path out = OpeningBook.DEFAULT_DIRECTORY;
+    private int plies = 16;
+    private int minGames = 2;
+
+    /**
+     * Per variant, position hash to packed move to {games, score}
+     */
+    private final List<Map<Long, Map<Short, int[]>>> counts = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        BookBuilder builder = new BookBuilder();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--archive":
+                builder.archivePath = value;
+                break;
+            case "--out":
+                builder.out = Paths.get(value);
+                break;
+            case "--plies":
+                builder.plies = Integer.parseInt(value);
+                break;
+            case "--min-games":
+                builder.minGames = Integer.parseInt(value);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        if (builder.archivePath == null) {
+            throw new IllegalArgumentException("--archive is required");
+        }
+        builder.run();
+    }
+
+    private void run() throws IOException {
+        long start = System.nanoTime();
+        Position[] positions = new Position[GameType.values().length];
+        for (GameType type : GameType.values()) {
+            positions[type.ordinal()] = new Position(type);
+            this.counts.add(new HashMap<>());
+        }
+        int[] buffer = new int[MoveGenerator.MAX_MOVES];
+        long[] games = new long[1];
+
+        try (GameArchive archive = GameArchive.open(Paths.get(this.archivePath))) {
+            archive.scan(game -> {
+                if (game.hasCustomStart() || game.getResult() == JavaGame.ABORTED) {
+                    return;
+                }
+                games[0]++;
+                Position position = positions[game.getGameType()];
+                position.setStart(GameType.values()[game.getGameType()]);
+                Map<Long, Map<Short, int[]>> book = this.counts.get(game.getGameType());
+                int end = Math.min(this.plies, game.getPlyCount());
+                for (int ply = 0; ply < end; ply++) {
+                    short packed = game.getMove(ply);
+                    int move = MoveGenerator.findLegal(position, GameArchive.moveSource(packed),
+                            GameArchive.moveDestination(packed), GameArchive.movePromotion(packed), buffer);
+                    if (move == Move.NONE) {
+                        throw new IllegalStateException(
+                                "Illegal move at ply " + ply + " of archived game " + game.getNumber());
+                    }
+                    int[] entry = book.computeIfAbsent(position.getHash(), h -> new HashMap<>())
+                            .computeIfAbsent(packed, m -> new int[2]);
+                    entry[0]++;
+                    entry[1] += score(game.getResult(), position.getSideToMove());
+                    position.makeMove(move);
+                }
+            });
+        }
+
+        Files.createDirectories(this.out);
+        for (GameType type : GameType.values()) {
+            write(type);
+        }
+        System.out.println("Built books from " + games[0] + " games in " + (System.nanoTime() - start) / 1000000
+                + " ms");
+    }
+
+    private static int score(int result, int side) {
+        if (result == JavaGame.WHITE_WINS) {
+            return side == Piece.WHITE ? 2 : 0;
+        } else if (result == JavaGame.BLACK_WINS) {
+            return side == Piece.BLACK ? 2 : 0;
+        }
+        return 1;
+    }
+
+    private void write(GameType type) throws IOException {
+        Map<Long, Map<Short, int[]>> book = this.counts.get(type.ordinal());
+        if (book.isEmpty()) {
+            return;
+        }
+        Long[] keys = book.keySet().toArray(new Long[0]);
+        Arrays.sort(keys, Long::compareUnsigned);
+
+        int capacity = 0;
+        for (Map<Short, int[]> moves : book.values()) {
+            capacity += moves.size();
+        }
+        long[] hashes = new long[capacity];
+        short[] moves = new short[capacity];
+        int[] weights = new int[capacity];
+        int count = 0;
+        for (Long hash : keys) {
+            for (Map.Entry<Short, int[]> move : book.get(hash).entrySet()) {
+                int[] entry = move.getValue();
+                if (entry[0] >= this.minGames && entry[1] > 0) {
+                    hashes[count] = hash;
+                    moves[count] = move.getKey();
+                    weights[count] = entry[1];
+                    count++;
+                }
+            }
+        }
+        Path file = this.out.resolve(OpeningBook.fileName(type));
+        OpeningBook.write(file, type.getBoardSize(), hashes, moves, weights, count);
+        System.out.println("Wrote " + count + " moves for " + keys.length + " positions to " + file);
+    }
+
+}
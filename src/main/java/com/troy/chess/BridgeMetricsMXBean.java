@@ -0,0 +1,68 @@
+package com.troy.chess;
+
+import java.util.Map;
+
+/**
+ * What {@link Metrics} exposes over JMX as com.troy.chess:type=Bridge. Times
+ * are in microseconds unless the name says otherwise.
+ */
+public interface BridgeMetricsMXBean {
+
+    long getDisplayMoveCalls();
+
+    double getDisplayMoveMeanMicros();
+
+    double getDisplayMoveMaxMicros();
+
+    long getSetSquareCalls();
+
+    double getSetSquareMeanMicros();
+
+    double getSetSquareMaxMicros();
+
+    long getHumanMoveCalls();
+
+    double getHumanMoveMeanMicros();
+
+    double getHumanMoveMaxMicros();
+
+    long getSetBoardSizeCalls();
+
+    double getSetBoardSizeMeanMicros();
+
+    double getSetBoardSizeMaxMicros();
+
+    /**
+     * @return The total time game threads have spent blocked waiting for a human
+     *         to move
+     */
+    double getHumanWaitSeconds();
+
+    /**
+     * @return UI updates queued by game threads that the FX thread has not drawn
+     *         yet
+     */
+    int getEventBacklog();
+
+    /**
+     * @return Board states of engine vs engine games the FX thread never drew
+     *         because a newer one was ready by the next frame
+     */
+    long getSkippedBoardStates();
+
+    /**
+     * @return Threads currently inside a game
+     */
+    int getLiveGameThreads();
+
+    /**
+     * @return Moves per second since each running game started, keyed by game ID
+     */
+    Map<Integer, Double> getMovesPerSecond();
+
+    /**
+     * Clears the upcall timings and the total wait time
+     */
+    void reset();
+
+}
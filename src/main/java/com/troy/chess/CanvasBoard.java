@@ -0,0 +1,168 @@
+package com.troy.chess;
+
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+
+/**
+ * Draws the whole board onto a single canvas instead of using one node per
+ * square and piece.
+ *
+ * The board is stored as one int per square (see {@link #encode}) and only the
+ * squares that changed since the last call to {@link #repaint()} are redrawn,
+ * so a move costs two square repaints no matter how large the board is.
+ */
+public class CanvasBoard {
+
+    private final Canvas canvas = new Canvas();
+
+    private final SpriteCache sprites;
+
+    private int boardSize;
+
+    /**
+     * The contents of each square in the format returned by {@link #encode}. 0 is
+     * an empty square
+     */
+    private int[] squares;
+
+    private final BitSet dirty = new BitSet();
+
+    private final BitSet highlighted = new BitSet();
+
+    private double squarePX = 10;
+
+    public CanvasBoard(SpriteCache sprites, IntConsumer clickHandler) {
+        this.sprites = sprites;
+        this.canvas.setOnMouseClicked((event) -> {
+            int square = squareAt(event.getX(), event.getY());
+            if (square != -1) {
+                clickHandler.accept(square);
+            }
+        });
+    }
+
+    public static int encode(int piece, int color) {
+        return piece == 0 ? 0 : (piece << 1) | (color & 1);
+    }
+
+    public static int pieceOf(int code) {
+        return code >>> 1;
+    }
+
+    public static int colorOf(int code) {
+        return code & 1;
+    }
+
+    public Canvas getCanvas() {
+        return this.canvas;
+    }
+
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    /**
+     * Changes the size of the board, clearing all pieces in the process
+     */
+    public void setBoardSize(int boardSize) {
+        this.boardSize = boardSize;
+        this.squares = new int[boardSize * boardSize];
+        this.highlighted.clear();
+        resize(this.squarePX);
+    }
+
+    public int getSquare(int square) {
+        return this.squares[square];
+    }
+
+    public void setSquare(int square, int piece, int color) {
+        int code = encode(piece, color);
+        if (this.squares[square] != code) {
+            this.squares[square] = code;
+            this.dirty.set(square);
+        }
+    }
+
+    /**
+     * Draws a square in Main.TARGET_SQUARE instead of its usual color
+     */
+    public void setHighlighted(int square, boolean highlighted) {
+        if (this.highlighted.get(square) != highlighted) {
+            this.highlighted.set(square, highlighted);
+            this.dirty.set(square);
+        }
+    }
+
+    public void move(int srcSquare, int destSquare) {
+        if (srcSquare == destSquare)
+            return;
+        this.squares[destSquare] = this.squares[srcSquare];
+        this.squares[srcSquare] = 0;
+        this.dirty.set(srcSquare);
+        this.dirty.set(destSquare);
+    }
+
+    /**
+     * Resizes the canvas so that each square is squarePX wide and tall, and
+     * redraws every square
+     */
+    public void resize(double squarePX) {
+        this.squarePX = squarePX;
+        this.canvas.setWidth(squarePX * this.boardSize);
+        this.canvas.setHeight(squarePX * this.boardSize);
+        this.dirty.set(0, this.squares.length);
+        repaint();
+    }
+
+    /**
+     * Redraws the squares that have changed since the last repaint
+     */
+    public void repaint() {
+        GraphicsContext g = this.canvas.getGraphicsContext2D();
+        int spritePX = SpriteCache.pixelSize(this.canvas, this.squarePX);
+        for (int i = this.dirty.nextSetBit(0); i >= 0; i = this.dirty.nextSetBit(i + 1)) {
+            int rank = i / this.boardSize;
+            int file = i % this.boardSize;
+            double x = file * this.squarePX;
+            // Rank 0 is at the bottom of the canvas
+            double y = (this.boardSize - rank - 1) * this.squarePX;
+
+            if (this.highlighted.get(i)) {
+                g.setFill(Main.TARGET_SQUARE);
+            } else {
+                g.setFill(((rank % 2 ^ file % 2) == 1) ? Main.LIGHT_SQUARE : Main.DARK_SQUARE);
+            }
+            g.fillRect(x, y, this.squarePX, this.squarePX);
+
+            int code = this.squares[i];
+            if (code != 0) {
+                Image image = this.sprites.get(pieceOf(code), colorOf(code), spritePX);
+                if (image != null) {
+                    g.drawImage(image, x, y, this.squarePX, this.squarePX);
+                }
+            }
+        }
+        this.dirty.clear();
+    }
+
+    /**
+     * @return The index of the square under the canvas coordinates x, y or -1 if
+     *         the point is outside of the board
+     */
+    public int squareAt(double x, double y) {
+        if (x < 0 || y < 0) {
+            return -1;
+        }
+        int file = (int) (x / this.squarePX);
+        int rank = this.boardSize - 1 - (int) (y / this.squarePX);
+        if (file >= this.boardSize || rank < 0) {
+            return -1;
+        }
+        return rank * this.boardSize + file;
+    }
+
+}
@@ -0,0 +1,154 @@
+package com.troy.chess;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed size ring buffer used to move UI events from the rust game threads
+ * to the JavaFX thread.
+ *
+ * Each event is packed into a single long so that pushing an event never
+ * allocates. Any number of game threads can push at once, but only one thread
+ * (the FX thread) may drain. When the buffer is full producers wait for the
+ * FX thread to catch up, which keeps a fast engine from running arbitrarily
+ * far ahead of what is displayed.
+ */
+public class EventChannel {
+
+    public static final int DISPLAY_MOVE = 1;
+    public static final int SET_SQUARE = 2;
+    public static final int SET_BOARD_SIZE = 3;
+
+    /**
+     * Receives unpacked events on the draining thread
+     */
+    public interface Handler {
+        void displayMove(int srcSquare, int destSquare);
+
+        void setSquare(int square, int piece, int color);
+
+        void setBoardSize(int boardWidth);
+    }
+
+    private final long[] events;
+
+    /**
+     * One sequence number per slot. A slot is ready to be written when its
+     * sequence equals the producer position and ready to be read when it equals
+     * the producer position + 1
+     */
+    private final AtomicLongArray sequences;
+
+    private final int mask;
+
+    private final AtomicLong head = new AtomicLong(0);
+
+    // Only written by the draining thread, read by size() from any thread
+    private final AtomicLong tail = new AtomicLong(0);
+
+    /**
+     * @param capacity The number of events the buffer can hold. Must be a power of
+     *                 two
+     */
+    public EventChannel(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two, got " + capacity);
+        }
+        this.events = new long[capacity];
+        this.sequences = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            this.sequences.set(i, i);
+        }
+        this.mask = capacity - 1;
+    }
+
+    // Layout: kind in bits 56-63, a in bits 32-55, b in bits 8-31, c in bits 0-7
+    private static long pack(int kind, int a, int b, int c) {
+        return ((long) kind) << 56 | ((long) (a & 0xFFFFFF)) << 32 | ((long) (b & 0xFFFFFF)) << 8 | (c & 0xFF);
+    }
+
+    public void pushDisplayMove(int srcSquare, int destSquare) {
+        push(pack(DISPLAY_MOVE, srcSquare, destSquare, 0));
+    }
+
+    public void pushSetSquare(int square, int piece, int color) {
+        push(pack(SET_SQUARE, square, piece, color));
+    }
+
+    public void pushSetBoardSize(int boardWidth) {
+        push(pack(SET_BOARD_SIZE, boardWidth, 0, 0));
+    }
+
+    private void push(long event) {
+        while (true) {
+            long pos = this.head.get();
+            int index = (int) (pos & this.mask);
+            long diff = this.sequences.get(index) - pos;
+            if (diff == 0) {
+                if (this.head.compareAndSet(pos, pos + 1)) {
+                    this.events[index] = event;
+                    // Publishes the event to the draining thread
+                    this.sequences.lazySet(index, pos + 1);
+                    return;
+                }
+            } else if (diff < 0) {
+                // Full. Wait for the FX thread to drain a batch
+                LockSupport.parkNanos(100_000);
+            }
+            // Otherwise another producer claimed this slot first, so try again
+        }
+    }
+
+    /**
+     * Dispatches every event that is currently in the buffer to the handler.
+     * Must only be called from one thread
+     *
+     * @return The number of events handled
+     */
+    public int drain(Handler handler) {
+        int count = 0;
+        long tail = this.tail.get();
+        while (true) {
+            int index = (int) (tail & this.mask);
+            if (this.sequences.get(index) != tail + 1) {
+                // Nothing more has been published
+                break;
+            }
+            long event = this.events[index];
+            // Hand the slot back to the producers for the next lap around the buffer
+            this.sequences.lazySet(index, tail + this.mask + 1);
+            tail++;
+            this.tail.lazySet(tail);
+            count++;
+
+            int a = (int) ((event >>> 32) & 0xFFFFFF);
+            int b = (int) ((event >>> 8) & 0xFFFFFF);
+            int c = (int) (event & 0xFF);
+            switch ((int) (event >>> 56)) {
+            case DISPLAY_MOVE:
+                handler.displayMove(a, b);
+                break;
+            case SET_SQUARE:
+                handler.setSquare(a, b, c);
+                break;
+            case SET_BOARD_SIZE:
+                handler.setBoardSize(a);
+                break;
+            default:
+                throw new RuntimeException("Unknown event kind in event " + Long.toHexString(event));
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return An estimate of how many events are waiting to be drained
+     */
+    public int size() {
+        // Tail first, so a drain racing with this can't make the count go negative
+        long tail = this.tail.get();
+        return (int) Math.max(0, this.head.get() - tail);
+    }
+
+}
@@ -0,0 +1,15 @@
+package com.troy.chess;
+
+/**
+ * Thrown on a game thread that is waiting for a move when its game is
+ * cancelled
+ */
+public class GameCancelledException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public GameCancelledException(int gameID) {
+        super("Game " + gameID + " was cancelled");
+    }
+
+}
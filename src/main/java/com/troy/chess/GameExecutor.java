@@ -0,0 +1,107 @@
+package com.troy.chess;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.troy.chess.engine.GameCallbacks;
+
+/**
+ * Runs games on a bounded pool of reusable daemon threads and lets them be
+ * cancelled by ID.
+ */
+public class GameExecutor {
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentHashMap<Integer, Future<?>> running = new ConcurrentHashMap<>();
+
+    public GameExecutor(int threads) {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        ThreadFactory factory = (runnable) -> {
+            Thread thread = new Thread(runnable, "Game Thread " + threadCount.incrementAndGet());
+            // Never keep the JVM alive just because a game is still running
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                factory);
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queues a game to be played. See Natives.playGame
+     *
+     * @return A future holding the game's outcome
+     */
+    public Future<Integer> submit(String aAlgorithmName, String bAlgorithmName, int gameType, int gameID,
+            GameCallbacks callbacks) {
+        return submit(gameID, () -> Natives.playGame(aAlgorithmName, bAlgorithmName, gameType, gameID, callbacks));
+    }
+
+    /**
+     * Queues some code that plays the game with the given ID
+     */
+    public <T> Future<T> submit(int gameID, Callable<T> game) {
+        FutureTask<T> task = new FutureTask<>(() -> {
+            try {
+                return game.call();
+            } finally {
+                this.running.remove(gameID);
+                Natives.releaseGame(gameID);
+            }
+        });
+        // Registered before it can start so a quick game cannot finish before it is
+        // tracked, and a cancel that comes before the game reaches playGame is kept
+        Natives.reserveGame(gameID);
+        this.running.put(gameID, task);
+        this.executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Stops a game. A game that has not reached playGame yet, queued or still
+     * getting ready on its thread, returns as soon as it does. A running one is
+     * told to stop at its next upcall and woken if it is waiting for a human move
+     */
+    public void cancel(int gameID) {
+        // The task is left to run so it always releases the game, which takes no time
+        // once the game is cancelled
+        this.running.remove(gameID);
+        Natives.cancelGame(gameID);
+    }
+
+    public void cancelAll() {
+        for (Integer gameID : this.running.keySet()) {
+            cancel(gameID);
+        }
+    }
+
+    /**
+     * @return The number of games queued or running
+     */
+    public int getGameCount() {
+        return this.running.size();
+    }
+
+    public void shutdown() {
+        cancelAll();
+        this.executor.shutdown();
+    }
+
+    /**
+     * Waits for games cancelled by shutdown to unwind
+     *
+     * @return True if every game thread finished in time
+     */
+    public boolean awaitTermination(long millis) throws InterruptedException {
+        return this.executor.awaitTermination(millis, TimeUnit.MILLISECONDS);
+    }
+
+}
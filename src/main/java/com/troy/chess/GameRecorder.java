@@ -0,0 +1,160 @@
+package com.troy.chess;
+
+import java.util.Arrays;
+
+import com.troy.chess.engine.FenRecord;
+import com.troy.chess.engine.GameArchive;
+import com.troy.chess.engine.GameCallbacks;
+import com.troy.chess.engine.Piece;
+
+/**
+ * Collects the moves of one game from its upcalls, packed by
+ * GameArchive.packMove, and passes every upcall on to another set of callbacks.
+ * Tracks the pieces on the board so the rook half of a castling move is not
+ * counted as its own ply and promotions can be recorded. A recorder passed to
+ * PgnWriter.start also queues each ply there once the next one starts, since
+ * until then a promotion can still change it.
+ *
+ * Only the game's own thread may touch a recorder until the game is over.
+ * Recording is a few array writes so it costs the game nothing noticeable.
+ */
+class GameRecorder implements GameCallbacks {
+
+    private final GameCallbacks delegate;
+
+    int boardSize;
+    // Square codes, see Piece#code
+    int[] board = new int[0];
+    // The board when the first move was made
+    int[] start;
+    short[] moves = new short[256];
+    int count;
+    private boolean castleRookPending;
+
+    private PgnWriter pgn;
+    private PgnWriter.Game pgnGame;
+    // Plies already queued to pgn
+    private int streamed;
+
+    /**
+     * @param delegate Where upcalls go once recorded, or null to only record
+     */
+    GameRecorder(GameCallbacks delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+        if (this.start == null) {
+            this.start = this.board.clone();
+        }
+        int code = this.board[srcSquare];
+        int piece = Piece.pieceOf(code);
+        this.board[destSquare] = code;
+        this.board[srcSquare] = 0;
+        if (this.castleRookPending && piece == Piece.ROOK) {
+            this.castleRookPending = false;
+        } else {
+            this.castleRookPending = piece == Piece.KING && Math.abs(destSquare - srcSquare) == 2;
+            if (this.pgn != null) {
+                // The last ply can no longer change
+                stream(this.count);
+            }
+            if (this.count == this.moves.length) {
+                this.moves = Arrays.copyOf(this.moves, this.count * 2);
+            }
+            this.moves[this.count++] = GameArchive.packMove(srcSquare, destSquare, Piece.NONE);
+        }
+        return this.delegate == null || this.delegate.displayMove(gameID, srcSquare, destSquare);
+    }
+
+    @Override
+    public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+        if (this.count != 0 && Piece.pieceOf(this.board[square]) == Piece.PAWN && pieceKind != Piece.NONE
+                && GameArchive.moveDestination(this.moves[this.count - 1]) == square) {
+            // A pawn that just moved being replaced is a promotion
+            short last = this.moves[this.count - 1];
+            this.moves[this.count - 1] = GameArchive.packMove(GameArchive.moveSource(last), square, pieceKind);
+        }
+        this.board[square] = Piece.code(pieceKind, color);
+        return this.delegate == null || this.delegate.setSquare(gameID, square, pieceKind, color);
+    }
+
+    @Override
+    public boolean setBoardSize(int gameID, int size) {
+        this.boardSize = size;
+        this.board = new int[size * size];
+        this.start = null;
+        this.count = 0;
+        return this.delegate == null || this.delegate.setBoardSize(gameID, size);
+    }
+
+    @Override
+    public boolean searchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+        return this.delegate == null || this.delegate.searchProgress(gameID, depth, score, nodes, nodesPerSecond, pv);
+    }
+
+    @Override
+    public long getHumanMove(int gameID, int side) {
+        if (this.delegate == null) {
+            throw new IllegalStateException("Recorded games without a UI cannot have human players");
+        }
+        return this.delegate.getHumanMove(gameID, side);
+    }
+
+    void streamTo(PgnWriter pgn, PgnWriter.Game game) {
+        this.pgn = pgn;
+        this.pgnGame = game;
+        this.streamed = 0;
+    }
+
+    boolean isStreaming() {
+        return this.pgn != null;
+    }
+
+    /**
+     * Queues the plies that have not been streamed yet and the end of the game
+     */
+    void finishStream(int outcome) {
+        stream(this.count);
+        this.pgn.queueEnd(this.pgnGame, this.streamed == 0 ? startRecord() : null, outcome);
+        this.pgn = null;
+        this.pgnGame = null;
+    }
+
+    /**
+     * Queues plies up to but not including end, the first with the starting
+     * position
+     */
+    private void stream(int end) {
+        for (; this.streamed < end; this.streamed++) {
+            FenRecord start = this.streamed == 0 ? startRecord() : null;
+            this.pgn.queuePly(this.pgnGame, start, this.moves[this.streamed]);
+        }
+    }
+
+    private FenRecord startRecord() {
+        FenRecord record = new FenRecord();
+        getStart(record);
+        return record;
+    }
+
+    /**
+     * Fills record with the board as it was before the first move, white to move
+     * with every castling right the pieces allow
+     */
+    void getStart(FenRecord record) {
+        int[] squares = this.start != null ? this.start : this.board;
+        record.setSize(this.boardSize);
+        for (int i = 0; i < squares.length; i++) {
+            record.squares[i] = (byte) squares[i];
+        }
+        record.sideToMove = Piece.WHITE;
+        record.castling = 0xF;
+        record.epSquare = -1;
+        record.halfmoveClock = 0;
+        record.fullmoveNumber = 1;
+        record.operationsLength = 0;
+    }
+
+}
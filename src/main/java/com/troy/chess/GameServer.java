@@ -0,0 +1,470 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.troy.chess.Natives.GameType;
+import com.troy.chess.engine.GameCallbacks;
+import com.troy.chess.engine.JavaGame;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.Player;
+
+/**
+ * Hosts games of the Java backend for clients on localhost, over a line based
+ * text protocol. One command or reply per line:
+ *
+ * <pre>
+ * Client                               Server
+ * NEW chess|contrasting_chess W B      GAME id fen
+ * MOVE id e2e4                         MOVE id e2e4, for every move of every game
+ *                                      TURN id, when a human is to move
+ *                                      ILLEGAL id e2e4
+ * RESIGN id                            END id 1-0|0-1|1/2-1/2|*
+ * STATS                                STATS key=value ...
+ * QUIT                                 ERROR message
+ * </pre>
+ *
+ * W and B are human or a JavaGame algorithm name. Promotions end with the
+ * piece's letter, e.g. a9a10q.
+ *
+ * One selector thread owns every connection and every game. A game waiting for
+ * a human holds no thread at all: it sits in a map until its MOVE line arrives.
+ * AI moves are worked out on a pool of one thread per core and handed back to
+ * the selector thread through a queue, so thousands of games cost a few
+ * kilobytes each instead of a blocked thread each. Native games are not hosted
+ * since the native engine blocks its thread in getHumanMove.
+ *
+ * Usage: GameServer [--port N] [--threads N] [--report-seconds N] [--pgn FILE]
+ */
+public class GameServer {
+
+    private static final String[] VARIANTS = new String[] { "chess", "contrasting_chess" };
+    private static final String[] RESULTS = new String[] { "1-0", "0-1", "1/2-1/2", "*", "*" };
+
+    private int port = 7878;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int reportSeconds = 10;
+    private String pgnPath = null;
+    private PgnWriter pgn;
+
+    private Selector selector;
+    private ExecutorService thinkers;
+    // AI moves coming back from the thinkers, run on the selector thread
+    private final Queue<Runnable> thought = new ConcurrentLinkedQueue<>();
+    private final List<LineChannel> unflushed = new ArrayList<>();
+    private int nextGameID = 1;
+
+    // Everything below is only touched on the selector thread
+    private int connections;
+    private long accepted;
+    private int activeGames;
+    private long gamesStarted;
+    private long gamesFinished;
+    private long moves;
+    private int thinking;
+    private long windowStart;
+    private long windowMoves;
+    // From reading a command to its replies being queued
+    private final LatencyHistogram commandLatency = new LatencyHistogram();
+    // From handing a position to the thinkers to making the move they chose
+    private final LatencyHistogram aiLatency = new LatencyHistogram();
+
+    private class Connection extends LineChannel {
+
+        final Map<Integer, Game> games = new HashMap<>();
+
+        Connection(SocketChannel channel) throws IOException {
+            super(channel, GameServer.this.selector, GameServer.this.unflushed);
+        }
+
+        @Override
+        protected void onLine(String line) {
+            handle(this, line);
+        }
+
+        @Override
+        void close() {
+            if (isClosed()) {
+                return;
+            }
+            super.close();
+            for (Game game : new ArrayList<>(this.games.values())) {
+                finish(game, JavaGame.ABORTED);
+            }
+            GameServer.this.connections--;
+        }
+
+    }
+
+    private static class Game implements GameCallbacks {
+
+        final int id;
+        final int gameType;
+        final Connection owner;
+        final String[] names;
+        // Null for human sides
+        final Player[] players = new Player[2];
+        JavaGame game;
+        GameRecorder recorder;
+        boolean thinking;
+        boolean over;
+
+        Game(int id, int gameType, Connection owner, String[] names) {
+            this.id = id;
+            this.gameType = gameType;
+            this.owner = owner;
+            this.names = names;
+        }
+
+        @Override
+        public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+            return !this.over;
+        }
+
+        @Override
+        public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+            return !this.over;
+        }
+
+        @Override
+        public boolean setBoardSize(int gameID, int size) {
+            return !this.over;
+        }
+
+        @Override
+        public long getHumanMove(int gameID, int side) {
+            throw new IllegalStateException("Server games take human moves from MOVE commands");
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        GameServer server = new GameServer();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--port":
+                server.port = Integer.parseInt(value);
+                break;
+            case "--threads":
+                server.threads = Integer.parseInt(value);
+                break;
+            case "--report-seconds":
+                server.reportSeconds = Integer.parseInt(value);
+                break;
+            case "--pgn":
+                server.pgnPath = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        server.run();
+    }
+
+    public void run() throws IOException {
+        if (this.pgnPath != null) {
+            this.pgn = new PgnWriter(Paths.get(this.pgnPath));
+            Runtime.getRuntime().addShutdownHook(new Thread(this.pgn::close));
+        }
+        AtomicInteger threadCount = new AtomicInteger();
+        this.thinkers = Executors.newFixedThreadPool(this.threads, (runnable) -> {
+            Thread thread = new Thread(runnable, "Server AI " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.selector = Selector.open();
+        ServerSocketChannel server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port), 1024);
+        server.configureBlocking(false);
+        server.register(this.selector, SelectionKey.OP_ACCEPT);
+        System.out.println("Listening on " + server.getLocalAddress() + " with " + this.threads + " AI threads");
+
+        long reportNanos = this.reportSeconds * 1_000_000_000L;
+        this.windowStart = System.nanoTime();
+        while (true) {
+            long untilReport = this.windowStart + reportNanos - System.nanoTime();
+            this.selector.select(Math.max(1, untilReport / 1_000_000));
+
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                if (key.isAcceptable()) {
+                    accept(server);
+                    continue;
+                }
+                Connection connection = (Connection) key.attachment();
+                try {
+                    if (key.isReadable() && !connection.read()) {
+                        connection.close();
+                        continue;
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        connection.flush();
+                    }
+                } catch (IOException e) {
+                    connection.close();
+                }
+            }
+
+            Runnable move;
+            while ((move = this.thought.poll()) != null) {
+                move.run();
+            }
+            LineChannel.flushAll(this.unflushed);
+
+            if (System.nanoTime() - this.windowStart >= reportNanos) {
+                System.out.println(stats());
+                this.windowStart = System.nanoTime();
+                this.windowMoves = 0;
+                this.commandLatency.reset();
+                this.aiLatency.reset();
+            }
+        }
+    }
+
+    private void accept(ServerSocketChannel server) {
+        SocketChannel channel;
+        try {
+            while ((channel = server.accept()) != null) {
+                new Connection(channel);
+                this.connections++;
+                this.accepted++;
+            }
+        } catch (IOException e) {
+            // Usually out of file descriptors. The client sees its connect fail
+            System.out.println("Failed to accept a connection: " + e);
+        }
+    }
+
+    private void handle(Connection connection, String line) {
+        long start = System.nanoTime();
+        String[] parts = line.trim().split(" +");
+        try {
+            switch (parts[0]) {
+            case "NEW":
+                newGame(connection, parts);
+                break;
+            case "MOVE":
+                humanMove(connection, parts);
+                break;
+            case "RESIGN":
+                resign(connection, parts);
+                break;
+            case "STATS":
+                connection.send(stats());
+                break;
+            case "QUIT":
+                connection.close();
+                return;
+            case "":
+                return;
+            default:
+                throw new IllegalArgumentException("Unknown command " + parts[0]);
+            }
+        } catch (IllegalArgumentException e) {
+            connection.send("ERROR " + e.getMessage());
+        } catch (RuntimeException e) {
+            // A bug in one command must not take the selector loop and every other game down
+            System.out.println("Failed to handle \"" + line.trim() + "\"");
+            e.printStackTrace();
+            connection.send("ERROR Internal error " + e);
+        }
+        this.commandLatency.record(System.nanoTime() - start);
+    }
+
+    private void newGame(Connection connection, String[] parts) {
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Expected NEW variant white black");
+        }
+        int variant = Arrays.asList(VARIANTS).indexOf(parts[1]);
+        if (variant == -1) {
+            throw new IllegalArgumentException("Unknown variant " + parts[1]);
+        }
+        Game game = new Game(this.nextGameID, variant, connection, new String[] { parts[2], parts[3] });
+        GameCallbacks callbacks = game;
+        if (this.pgn != null) {
+            game.recorder = new GameRecorder(game);
+            this.pgn.start(game.recorder, game.id, variant, game.names[0], game.names[1]);
+            callbacks = game.recorder;
+        }
+        game.game = new JavaGame(GameType.values()[variant], game.id, callbacks);
+        for (int side = 0; side < 2; side++) {
+            if (!game.names[side].equals("human")) {
+                // Throws for unknown names before the game is counted. Games already run in
+                // parallel, so each search gets one thread and plays without logging
+                game.players[side] = game.game.createPlayer(game.names[side], 1, false);
+            }
+        }
+
+        this.nextGameID++;
+        this.gamesStarted++;
+        this.activeGames++;
+        connection.games.put(game.id, game);
+        connection.send("GAME " + game.id + " " + game.game.getPosition().toFen());
+        game.game.start();
+        advance(game);
+    }
+
+    /**
+     * Ends the game, asks the thinkers for a move or tells the client it is their
+     * turn. Always returns without waiting
+     */
+    private void advance(Game game) {
+        JavaGame javaGame = game.game;
+        if (javaGame.isOver()) {
+            finish(game, javaGame.getOutcome());
+            return;
+        }
+        Player player = game.players[javaGame.getPosition().getSideToMove()];
+        if (player == null) {
+            game.owner.send("TURN " + game.id);
+            return;
+        }
+
+        // The thinker has the position to itself until its move comes back
+        game.thinking = true;
+        this.thinking++;
+        long submitted = System.nanoTime();
+        this.thinkers.execute(() -> {
+            int chosen;
+            try {
+                chosen = player.chooseMove(javaGame.getPosition(), javaGame.getLegalMoves(),
+                        javaGame.getLegalMoveCount());
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                chosen = Move.NONE;
+            }
+            int move = chosen;
+            this.thought.add(() -> {
+                game.thinking = false;
+                this.thinking--;
+                this.aiLatency.record(System.nanoTime() - submitted);
+                if (game.over) {
+                    return;
+                }
+                if (move == Move.NONE) {
+                    finish(game, JavaGame.ABORTED);
+                    return;
+                }
+                play(game, move);
+                advance(game);
+            });
+            this.selector.wakeup();
+        });
+    }
+
+    private void play(Game game, int move) {
+        String text = Move.toString(move, game.game.getPosition().getBoardSize());
+        game.game.makeMove(move);
+        this.moves++;
+        this.windowMoves++;
+        game.owner.send("MOVE " + game.id + " " + text);
+    }
+
+    private void humanMove(Connection connection, String[] parts) {
+        if (parts.length != 3) {
+            throw new IllegalArgumentException("Expected MOVE id move");
+        }
+        Game game = findGame(connection, parts[1]);
+        JavaGame javaGame = game.game;
+        if (game.thinking || game.players[javaGame.getPosition().getSideToMove()] != null) {
+            throw new IllegalArgumentException("Not a human's turn in game " + game.id);
+        }
+        int size = javaGame.getPosition().getBoardSize();
+        int[] legal = javaGame.getLegalMoves();
+        for (int i = 0; i < javaGame.getLegalMoveCount(); i++) {
+            if (Move.toString(legal[i], size).equals(parts[2])) {
+                play(game, legal[i]);
+                advance(game);
+                return;
+            }
+        }
+        connection.send("ILLEGAL " + game.id + " " + parts[2]);
+    }
+
+    /**
+     * The human side loses, or the side to move when both are human. Games
+     * between two AIs are stopped without a result
+     */
+    private void resign(Connection connection, String[] parts) {
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("Expected RESIGN id");
+        }
+        Game game = findGame(connection, parts[1]);
+        int loser = game.game.getPosition().getSideToMove();
+        if (game.players[loser] != null) {
+            loser = 1 - loser;
+        }
+        int outcome = game.players[loser] != null ? JavaGame.ABORTED
+                : loser == 0 ? JavaGame.BLACK_WINS : JavaGame.WHITE_WINS;
+        finish(game, outcome);
+    }
+
+    private static Game findGame(Connection connection, String id) {
+        Game game;
+        try {
+            game = connection.games.get(Integer.parseInt(id));
+        } catch (NumberFormatException e) {
+            game = null;
+        }
+        if (game == null) {
+            throw new IllegalArgumentException("No game " + id + " on this connection");
+        }
+        return game;
+    }
+
+    private void finish(Game game, int outcome) {
+        game.over = true;
+        game.owner.games.remove(game.id);
+        game.owner.send("END " + game.id + " " + RESULTS[outcome]);
+        this.activeGames--;
+        this.gamesFinished++;
+        if (this.pgn != null) {
+            this.pgn.write(game.id, game.gameType, game.names[0], game.names[1], game.recorder, outcome);
+        }
+    }
+
+    /**
+     * @return Connection and game counts plus the move rate and latencies since
+     *         the last periodic report
+     */
+    private String stats() {
+        double seconds = (System.nanoTime() - this.windowStart) / 1e9;
+        StringBuilder sb = new StringBuilder("STATS");
+        sb.append(" connections=").append(this.connections);
+        sb.append(" accepted=").append(this.accepted);
+        sb.append(" games=").append(this.activeGames);
+        sb.append(" started=").append(this.gamesStarted);
+        sb.append(" finished=").append(this.gamesFinished);
+        sb.append(" thinking=").append(this.thinking);
+        sb.append(" moves=").append(this.moves);
+        sb.append(" moves_per_sec=").append(Math.round(this.windowMoves / Math.max(seconds, 1e-3)));
+        this.commandLatency.appendTo(sb, "command");
+        this.aiLatency.appendTo(sb, "ai");
+        return sb.toString();
+    }
+
+}
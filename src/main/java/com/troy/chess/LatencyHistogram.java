@@ -0,0 +1,98 @@
+package com.troy.chess;
+
+import java.util.Arrays;
+
+/**
+ * Counts durations in logarithmic buckets, four per power of two, so any
+ * percentile is known to within about 20% from a fixed 2KB of counters no
+ * matter how many samples are recorded.
+ *
+ * Not thread safe. GameServer and ServerLoadTest only record from their
+ * selector thread.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BUCKETS = 4;
+
+    private final long[] counts = new long[64 * SUB_BUCKETS];
+    private long count;
+    private long totalNanos;
+    private long maxNanos;
+
+    void record(long nanos) {
+        nanos = Math.max(nanos, 1);
+        this.counts[bucket(nanos)]++;
+        this.count++;
+        this.totalNanos += nanos;
+        this.maxNanos = Math.max(this.maxNanos, nanos);
+    }
+
+    private static int bucket(long nanos) {
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        if (exponent < 2) {
+            return (int) nanos;
+        }
+        // The two bits after the leading one pick the quarter of the octave
+        return exponent * SUB_BUCKETS + (int) ((nanos >>> (exponent - 2)) & 3);
+    }
+
+    /**
+     * @return The largest duration that falls in a bucket
+     */
+    private static long upperBound(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        if (exponent < 2) {
+            return bucket;
+        }
+        return ((SUB_BUCKETS + (bucket & 3) + 1L) << (exponent - 2)) - 1;
+    }
+
+    long getCount() {
+        return this.count;
+    }
+
+    long getMeanNanos() {
+        return this.count == 0 ? 0 : this.totalNanos / this.count;
+    }
+
+    long getMaxNanos() {
+        return this.maxNanos;
+    }
+
+    /**
+     * @param fraction Between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return The duration below which that fraction of samples fall, or 0 with
+     *         no samples
+     */
+    long getPercentileNanos(double fraction) {
+        long target = (long) Math.ceil(this.count * fraction);
+        long seen = 0;
+        for (int i = 0; i < this.counts.length; i++) {
+            seen += this.counts[i];
+            if (seen >= target && seen > 0) {
+                return Math.min(upperBound(i), this.maxNanos);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Appends the sample count and mean, 50th, 99th percentile and max in
+     * microseconds as key=value pairs
+     */
+    void appendTo(StringBuilder sb, String name) {
+        sb.append(' ').append(name).append("_count=").append(this.count);
+        sb.append(' ').append(name).append("_mean_us=").append(getMeanNanos() / 1000);
+        sb.append(' ').append(name).append("_p50_us=").append(getPercentileNanos(0.5) / 1000);
+        sb.append(' ').append(name).append("_p99_us=").append(getPercentileNanos(0.99) / 1000);
+        sb.append(' ').append(name).append("_max_us=").append(this.maxNanos / 1000);
+    }
+
+    void reset() {
+        Arrays.fill(this.counts, 0);
+        this.count = 0;
+        this.totalNanos = 0;
+        this.maxNanos = 0;
+    }
+
+}
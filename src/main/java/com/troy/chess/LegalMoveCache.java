@@ -0,0 +1,38 @@
+package com.troy.chess;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A least recently used cache of legal moves keyed by position hash. Positions
+ * come up again and again, every game starts from the same one and
+ * repetitions are common, so most lookups skip the engine entirely.
+ */
+public class LegalMoveCache {
+
+    private final LinkedHashMap<Long, LegalMoves> entries;
+
+    public LegalMoveCache(int capacity) {
+        // Access order so the eldest entry is always the least recently used
+        this.entries = new LinkedHashMap<Long, LegalMoves>(capacity * 4 / 3 + 1, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, LegalMoves> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * @return The moves for a position or null if they are not cached
+     */
+    public synchronized LegalMoves get(long hash) {
+        return this.entries.get(hash);
+    }
+
+    public synchronized void put(LegalMoves moves) {
+        this.entries.put(moves.getHash(), moves);
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.troy.chess;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Every legal move in one position, sorted by source square so the UI can
+ * check clicks without asking the engine. Immutable once built, so one
+ * instance can be shared through {@link LegalMoveCache} by every game that
+ * reaches the position.
+ */
+public class LegalMoves {
+
+    private final long hash;
+
+    /**
+     * Moves packed as source << 16 | destination in ascending order, so all the
+     * moves from one square are next to each other. Promotion choices repeat
+     * the same move
+     */
+    private final int[] moves;
+
+    /**
+     * @param moves Moves packed as source << 16 | destination, as written by
+     *              get_legal_moves
+     */
+    public LegalMoves(long hash, IntBuffer moves, int count) {
+        this.hash = hash;
+        this.moves = new int[count];
+        for (int i = 0; i < count; i++) {
+            this.moves[i] = moves.get(i);
+        }
+        Arrays.sort(this.moves);
+    }
+
+    public long getHash() {
+        return this.hash;
+    }
+
+    /**
+     * @return The number of moves the engine reported, counting each promotion
+     *         choice separately
+     */
+    public int getCount() {
+        return this.moves.length;
+    }
+
+    public boolean isLegal(int srcSquare, int destSquare) {
+        return Arrays.binarySearch(this.moves, srcSquare << 16 | destSquare) >= 0;
+    }
+
+    public boolean hasMovesFrom(int srcSquare) {
+        int first = firstFrom(srcSquare);
+        return first < this.moves.length && this.moves[first] >>> 16 == srcSquare;
+    }
+
+    /**
+     * Sets the bit of every square the piece on srcSquare can move to
+     */
+    public void getTargets(int srcSquare, BitSet into) {
+        into.clear();
+        for (int i = firstFrom(srcSquare); i < this.moves.length && this.moves[i] >>> 16 == srcSquare; i++) {
+            into.set(this.moves[i] & 0xFFFF);
+        }
+    }
+
+    /**
+     * @return The index of the first move from srcSquare, or where it would be
+     */
+    private int firstFrom(int srcSquare) {
+        // The key is the previous square with destination 0xFFFF, which no move has,
+        // so the search always misses and gives the insertion point
+        return -Arrays.binarySearch(this.moves, (srcSquare << 16) - 1) - 1;
+    }
+
+}
@@ -1,6 +1,15 @@
 package com.troy.chess;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -9,9 +18,24 @@ public class LibraryLoader {
     private static final List<LoadingMethod> methods = new ArrayList<>();
 
     static {
+        // Optimized builds first. A debug build is only used when nothing else exists
+        // since it makes the engine many times slower
         methods.add(new JavaLibraryPathLoadingMethod());
-        methods.add(new CargoBuildFolderLoadingMethod());
+        methods.add(new CargoBuildFolderLoadingMethod("release"));
         methods.add(new ClasspathLoadingMethod());
+        methods.add(new CargoBuildFolderLoadingMethod("debug"));
+    }
+
+    /**
+     * @return Where extracted libraries and other generated files are cached
+     *         between runs. Override with -Dcontrasting_chess.cache_dir
+     */
+    public static Path getCacheDirectory() {
+        String dir = System.getProperty("contrasting_chess.cache_dir");
+        if (dir != null) {
+            return Paths.get(dir);
+        }
+        return Paths.get(System.getProperty("user.home"), ".contrasting_chess", "cache");
     }
 
     public static void load(String libName) {
@@ -42,17 +66,18 @@ public class LibraryLoader {
      * dirs for a dynamic library then load it from there.
      *
      * - If we are in a dev environment, then cargo will generate
-     * ./target/debug/lib_name.xxx so we can craft that path and try to load it
+     * GigaChess/target/release/lib_name.xxx (or target/debug for a debug build) so
+     * we can craft that path and try to load it
      *
-     * - Lastly if we are in a jar file then we can try to extract it from the
-     * classpath into a temp file and then load the temp file
+     * - Lastly if we are in a jar file then we can extract the release library
+     * bundled under /natives into the cache directory and load it from there
      *
      *
-     * These three methods are expressed using inheritance with one class for each
+     * These methods are expressed using inheritance with one class for each
      * method
      */
     private static abstract class LoadingMethod {
-        public abstract boolean load(String libName);
+        public abstract boolean load(String libName) throws IOException;
 
         public abstract String getName();
 
@@ -78,12 +103,24 @@ public class LibraryLoader {
     }
 
     private static class CargoBuildFolderLoadingMethod extends LoadingMethod {
-        public boolean load(String libName) {
+        private final String profile;
+
+        public CargoBuildFolderLoadingMethod(String profile) {
+            this.profile = profile;
+        }
 
+        public boolean load(String libName) {
+            File file = new File("GigaChess/target/" + this.profile + "/" + System.mapLibraryName(libName));
+            if (!file.isFile()) {
+                return false;
+            }
             try {
                 // Try cargo rust dev folder
-                String path = new File("GigaChess/target/debug/" + System.mapLibraryName(libName)).getAbsolutePath();
-                System.load(path);
+                System.load(file.getAbsolutePath());
+                if (this.profile.equals("debug")) {
+                    System.out.println("WARNING: Using an unoptimized debug build of \"" + libName
+                            + "\". Build with `cargo build --release` for full speed");
+                }
                 return true;
             } catch (UnsatisfiedLinkError e2) {
                 return false;
@@ -92,13 +129,75 @@ public class LibraryLoader {
         }
 
         public String getName() {
-            return "Rust build folder library loader";
+            return "Rust " + this.profile + " build folder library loader";
         }
     }
 
+    /**
+     * Extracts the library bundled in the jar to
+     * cache_dir/natives/content_hash/lib_name.xxx the first time it is seen, so
+     * later launches with the same library load the already extracted file
+     */
     private static class ClasspathLoadingMethod extends LoadingMethod {
-        public boolean load(String libName) {
-            throw new RuntimeException("TODO. Try running outside of a jar using `gradle run`");
+        public boolean load(String libName) throws IOException {
+            String fileName = System.mapLibraryName(libName);
+            String resource = "/natives/" + fileName;
+            // The build writes the library's hash next to it so a cache hit never has to
+            // read the library out of the jar
+            String hash = null;
+            try (InputStream stream = LibraryLoader.class.getResourceAsStream(resource + ".sha256")) {
+                if (stream != null) {
+                    hash = new String(stream.readAllBytes(), StandardCharsets.US_ASCII).trim();
+                }
+            }
+            byte[] library = null;
+            if (hash == null) {
+                library = readResource(resource);
+                if (library == null) {
+                    return false;
+                }
+                hash = sha256(library);
+            }
+
+            Path file = getCacheDirectory().resolve("natives").resolve(hash).resolve(fileName);
+            if (!Files.isRegularFile(file)) {
+                if (library == null) {
+                    library = readResource(resource);
+                    if (library == null) {
+                        return false;
+                    }
+                }
+                System.out.println("Extracting \"" + libName + "\" to " + file);
+                Files.createDirectories(file.getParent());
+                // Write then rename so a concurrent launch never loads half a library
+                Path temp = Files.createTempFile(file.getParent(), fileName, ".tmp");
+                try {
+                    Files.write(temp, library);
+                    Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            }
+            System.load(file.toAbsolutePath().toString());
+            return true;
+        }
+
+        private static byte[] readResource(String resource) throws IOException {
+            try (InputStream stream = LibraryLoader.class.getResourceAsStream(resource)) {
+                return stream == null ? null : stream.readAllBytes();
+            }
+        }
+
+        private static String sha256(byte[] bytes) {
+            try {
+                StringBuilder sb = new StringBuilder();
+                for (byte b : MessageDigest.getInstance("SHA-256").digest(bytes)) {
+                    sb.append(String.format("%02x", b));
+                }
+                return sb.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new RuntimeException(e);
+            }
         }
 
         public String getName() {
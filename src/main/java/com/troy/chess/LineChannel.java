@@ -0,0 +1,178 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.List;
+
+/**
+ * A non-blocking socket that carries newline terminated ASCII lines, used by
+ * both ends of the GameServer protocol.
+ *
+ * Lines sent are buffered until the owner calls flushAll, usually once per pass
+ * of its selector loop, so every reply produced by one batch of reads goes out
+ * in a single write. Only the thread running the selector may use a channel.
+ */
+abstract class LineChannel {
+
+    static final int MAX_LINE = 1024;
+
+    // A peer that lets this much go unread is dropped rather than buffered forever
+    private static final int MAX_UNSENT = 1 << 20;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+
+    private final List<LineChannel> unflushed;
+    private final ByteBuffer in = ByteBuffer.allocate(8192);
+    private final StringBuilder line = new StringBuilder();
+    // In write mode, holding what has not been sent yet
+    private ByteBuffer out = ByteBuffer.allocate(4096);
+    private boolean queued;
+    private boolean overflowed;
+    private boolean closed;
+
+    /**
+     * @param unflushed Where this channel adds itself when it has lines waiting to
+     *                  be sent, see flushAll
+     */
+    LineChannel(SocketChannel channel, Selector selector, List<LineChannel> unflushed) throws IOException {
+        this.channel = channel;
+        this.unflushed = unflushed;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        this.key = channel.register(selector, SelectionKey.OP_READ, this);
+    }
+
+    /**
+     * Handles one line from the peer, without its line terminator
+     */
+    protected abstract void onLine(String line) throws IOException;
+
+    /**
+     * Reads everything that has arrived and passes each complete line to onLine
+     *
+     * @return False once the peer has closed the connection
+     */
+    boolean read() throws IOException {
+        int read;
+        while ((read = this.channel.read(this.in)) > 0) {
+            this.in.flip();
+            while (this.in.hasRemaining()) {
+                char c = (char) (this.in.get() & 0xFF);
+                if (c == '\n') {
+                    String text = this.line.toString();
+                    this.line.setLength(0);
+                    onLine(text);
+                    if (this.closed) {
+                        return false;
+                    }
+                } else if (c != '\r') {
+                    if (this.line.length() == MAX_LINE) {
+                        throw new IOException("Line longer than " + MAX_LINE + " characters");
+                    }
+                    this.line.append(c);
+                }
+            }
+            this.in.clear();
+        }
+        return read >= 0 && !this.closed;
+    }
+
+    /**
+     * Queues a line to be sent by the next flushAll. Does nothing once closed
+     */
+    void send(String text) {
+        if (this.closed || this.overflowed) {
+            return;
+        }
+        int needed = text.length() + 1;
+        if (this.out.remaining() < needed) {
+            int capacity = Math.max(this.out.capacity() * 2, this.out.position() + needed);
+            if (capacity > MAX_UNSENT) {
+                // Closed by flushAll rather than here, where the caller may be
+                // in the middle of updating state the close cleans up
+                System.out.println("Dropping " + this.channel.socket().getRemoteSocketAddress() + " after "
+                        + this.out.position() + " unread bytes");
+                this.overflowed = true;
+                queue();
+                return;
+            }
+            ByteBuffer grown = ByteBuffer.allocate(capacity);
+            this.out.flip();
+            grown.put(this.out);
+            this.out = grown;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            this.out.put((byte) text.charAt(i));
+        }
+        this.out.put((byte) '\n');
+        queue();
+    }
+
+    private void queue() {
+        if (!this.queued) {
+            this.queued = true;
+            this.unflushed.add(this);
+        }
+    }
+
+    /**
+     * Writes as much as the socket takes and asks the selector for OP_WRITE if
+     * anything is left
+     */
+    void flush() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        if (this.overflowed) {
+            throw new IOException("Peer stopped reading");
+        }
+        this.out.flip();
+        this.channel.write(this.out);
+        this.out.compact();
+        boolean pending = this.out.position() > 0;
+        this.key.interestOps(pending ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+    }
+
+    /**
+     * Flushes every channel that queued a line since the last call. Channels that
+     * fail to write are closed
+     */
+    static void flushAll(List<LineChannel> unflushed) {
+        for (int i = 0; i < unflushed.size(); i++) {
+            LineChannel channel = unflushed.get(i);
+            channel.queued = false;
+            try {
+                channel.flush();
+            } catch (IOException e) {
+                channel.close();
+            }
+        }
+        unflushed.clear();
+    }
+
+    boolean isClosed() {
+        return this.closed;
+    }
+
+    /**
+     * Closes the socket. Subclasses that track state per connection override this
+     * to clean it up and then call super
+     */
+    void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            // Nothing left to do with it
+        }
+    }
+
+}
@@ -2,24 +2,41 @@ package com.troy.chess;
 
 import java.io.File;
 import java.net.URI;
-import java.nio.file.Files;
 import java.io.InputStream;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.troy.chess.engine.FenReader;
+import com.troy.chess.engine.FenRecord;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.Piece;
+import com.troy.chess.engine.Search;
+
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
+import javafx.application.Platform;
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.SimpleDoubleProperty;
 import javafx.event.EventType;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.RadioMenuItem;
+import javafx.scene.control.Slider;
+import javafx.scene.control.ToggleGroup;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.input.KeyCombination;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.paint.Paint;
@@ -28,11 +45,8 @@ import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.PixelReader;
-import javafx.scene.image.PixelWriter;
-import javafx.scene.image.WritableImage;
 
-public class Main extends Application {
+public class Main extends Application implements EventChannel.Handler {
     private Pane board = new Pane();
     private VBox root = new VBox();
     private MenuBar mainMenu = new MenuBar();
@@ -41,17 +55,115 @@ public class Main extends Application {
 
     private ImageView[] pieces;
 
+    static final Color LIGHT_SQUARE = Color.color(0xff / 255.0, 0xce / 255.0, 0x9e / 255.0);
+    static final Color DARK_SQUARE = Color.color(0xd1 / 255.0, 0x8b / 255.0, 0x47 / 255.0);
+    static final Color TARGET_SQUARE = Color.color(0x9c / 255.0, 0xc2 / 255.0, 0x6b / 255.0);
+
+    /**
+     * When non null the board is drawn on a single canvas by this instead of with
+     * one node per square and piece. Enabled by running with
+     * -Dcontrasting_chess.renderer=canvas
+     */
+    private CanvasBoard canvasBoard;
+
     private ArrayList<Image> WHITE_PIECES = new ArrayList<>();
     private ArrayList<Image> BLACK_PIECES = new ArrayList<>();
 
+    /**
+     * The piece images at the size the board is drawn
+     */
+    private final SpriteCache sprites = new SpriteCache(WHITE_PIECES, BLACK_PIECES);
+
+    /**
+     * What is drawn on each square, see CanvasBoard#encode, so pieces can be given
+     * the sprite for a new size and only changed squares are redrawn
+     */
+    private int[] pieceCodes;
+
     private AtomicInteger gameCount = new AtomicInteger(0);
 
+    private final GameExecutor gameExecutor = new GameExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+    private final StartupTimings startupTimings = new StartupTimings();
+
+    /**
+     * Completes once the native library is loaded and games can be started
+     */
+    private final CompletableFuture<Void> nativesReady;
+
+    /**
+     * Completes once every piece image is decoded and the demo pieces are on the
+     * board, and after nativesReady
+     */
+    private final CompletableFuture<Void> startup;
+
+    /**
+     * Set on the FX thread once piece images can be used. Updates from games wait
+     * in the event channel until then
+     */
+    private boolean piecesShown;
+
+    /**
+     * A position imported before piecesShown, shown by showDemoPieces instead of
+     * the demo pieces
+     */
+    private FenRecord pendingPosition;
+
     /**
      * The index of the last square that was clicked or -1 in no square has been
      * clicked yet. Used for storing the first square clicked when making a move
      */
     private int lastClickedIndex = -1;
 
+    /**
+     * The legal moves of the human to move in the current game, or null if no
+     * human is to move or the engine can't list them. Only used on the FX thread
+     */
+    private LegalMoves legalMoves;
+
+    /**
+     * The squares the selected piece can move to, which are drawn highlighted
+     */
+    private final BitSet targets = new BitSet();
+
+    /**
+     * Every board of the current game. Upcalls are recorded here and the board
+     * on screen is brought up to the ply being viewed once per pulse
+     */
+    private final MoveHistory history = new MoveHistory();
+
+    /**
+     * The ply on screen. Follows new moves while it is the latest one
+     */
+    private int viewedPly;
+
+    /**
+     * A ply chosen with the scrubber or undo/redo that is shown on the next
+     * pulse, or -1
+     */
+    private int requestedPly = -1;
+
+    /**
+     * Set when the history has changed at the viewed ply since it was drawn
+     */
+    private boolean boardStale;
+
+    // Where history writes the board to show
+    private int[] viewBoard;
+
+    private final Slider scrubber = new Slider(0, 0, 0);
+    private final Label plyLabel = new Label();
+
+    /**
+     * How much of the eval bar is white, from white's expected score
+     */
+    private final DoubleProperty whiteShare = new SimpleDoubleProperty(0.5);
+
+    /**
+     * The depth, score, speed and principal variation of the latest search report
+     */
+    private final Label evalLabel = new Label();
+
     private static double squareX(int size, int file, double squarePX) {
         return squarePX * file;
     }
@@ -65,7 +177,11 @@ public class Main extends Application {
 
     private double lastSquarePX = 10;
 
-    private int currentGameID = -1;
+    /**
+     * Written on the FX thread, read by game threads through getCurrentGameID to
+     * drop updates from games that have been replaced
+     */
+    private volatile int currentGameID = -1;
 
     /**
      * Resizes the existing squares in java fx so that they each have the requested
@@ -74,13 +190,19 @@ public class Main extends Application {
      * @param squarePX How wide and tall in pixels each square should be. Use -1 to
      *                 use the last value
      */
-    private void resizeWindow(double squarePX) {
+    void resizeWindow(double squarePX) {
         if (squarePX == -1.0) {
             squarePX = this.lastSquarePX;
         } else {
             this.lastSquarePX = squarePX;
         }
 
+        if (this.canvasBoard != null) {
+            this.canvasBoard.resize(squarePX);
+            return;
+        }
+
+        int spritePX = SpriteCache.pixelSize(this.board, squarePX);
         for (int ii = 0; ii < this.board.getChildren().size(); ii++) {
             final int i = ii;
             Node node = board.getChildren().get(i);
@@ -102,6 +224,10 @@ public class Main extends Application {
                 board.getChildren().remove(piece);
                 piece.setX(squareX(this.boardSize, file, squarePX));
                 piece.setY(squareY(this.boardSize, rank, squarePX));
+                // The sprite already has one pixel per screen pixel so fitting it only
+                // maps it onto the square, it is never resampled from the full image
+                int code = this.pieceCodes[i];
+                piece.setImage(this.sprites.get(CanvasBoard.pieceOf(code), CanvasBoard.colorOf(code), spritePX));
                 piece.setFitWidth(squarePX);
                 piece.setFitHeight(squarePX);
                 piece.setOnMouseClicked((event -> {
@@ -113,26 +239,106 @@ public class Main extends Application {
     }
 
     private void handleClick(int index) {
+        if (!this.nativesReady.isDone() || !isShowingLatest()) {
+            // Moves can only be made from the position the game is in
+            return;
+        }
         if (this.lastClickedIndex == -1) {
             // start of move source square
+            if (this.legalMoves != null && !this.legalMoves.hasMovesFrom(index)) {
+                // Nothing here can move
+                return;
+            }
             this.lastClickedIndex = index;
+            showTargets(index);
             // System.out.println("Storing move: " + index);
         } else {
             // We have a finished move to deal with
             // System.out.println("About to make move " + this.lastClickedIndex + " -> " +
             // index);
-            Natives.giveRustMove(this.lastClickedIndex, index);
+            int srcSquare = this.lastClickedIndex;
             this.lastClickedIndex = -1;
+            showTargets(-1);
+            if (this.legalMoves != null && !this.legalMoves.isLegal(srcSquare, index)) {
+                // Rejected without asking the engine. Clicking another piece that can move
+                // selects it instead
+                if (index != srcSquare && this.legalMoves.hasMovesFrom(index)) {
+                    this.lastClickedIndex = index;
+                    showTargets(index);
+                }
+                return;
+            }
+            // Unknown until the game asks for the next move
+            this.legalMoves = null;
+            Natives.giveRustMove(srcSquare, index);
         }
     }
 
     /**
-     * Changes the size of the board to a new width. Clearing all pieces in the
-     * process
+     * Called by a game thread when the human to move in a game may choose from
+     * moves
+     *
+     * @param moves The legal moves or null if they are not known
      */
+    void showLegalMoves(int gameID, LegalMoves moves) {
+        Platform.runLater(() -> {
+            if (gameID == this.currentGameID) {
+                this.legalMoves = moves;
+            }
+        });
+    }
+
+    /**
+     * Highlights the squares the piece on a square can legally move to
+     *
+     * @param square The selected square or -1 to clear the highlights
+     */
+    private void showTargets(int square) {
+        BitSet old = (BitSet) this.targets.clone();
+        this.targets.clear();
+        if (square != -1 && this.legalMoves != null) {
+            this.legalMoves.getTargets(square, this.targets);
+        }
+        old.or(this.targets);
+        for (int i = old.nextSetBit(0); i >= 0; i = old.nextSetBit(i + 1)) {
+            boolean target = this.targets.get(i);
+            if (this.canvasBoard != null) {
+                this.canvasBoard.setHighlighted(i, target);
+            } else {
+                Rectangle rectangle = (Rectangle) this.board.getChildren().get(i);
+                rectangle.setFill(target ? TARGET_SQUARE : squareColor(i));
+            }
+        }
+        if (this.canvasBoard != null) {
+            this.canvasBoard.repaint();
+        }
+    }
+
+    private Paint squareColor(int square) {
+        int rank = square / this.boardSize;
+        int file = square % this.boardSize;
+        return ((rank % 2 ^ file % 2) == 1) ? LIGHT_SQUARE : DARK_SQUARE;
+    }
+
+    /**
+     * Changes the size of the board to a new width. Clearing all pieces and the
+     * history in the process
+     */
+    @Override
     public void setBoardSize(int boardWidth) {
+        this.history.reset(boardWidth);
+        this.viewBoard = new int[boardWidth * boardWidth];
+        this.viewedPly = 0;
+        this.requestedPly = -1;
+        this.boardStale = false;
         this.boardSize = boardWidth;
         this.pieces = new ImageView[this.boardSize * this.boardSize];
+        this.pieceCodes = new int[this.boardSize * this.boardSize];
+        this.lastClickedIndex = -1;
+        this.targets.clear();
+        if (this.canvasBoard != null) {
+            this.canvasBoard.setBoardSize(boardWidth);
+        }
         setupBoard(10);
     }
 
@@ -143,8 +349,10 @@ public class Main extends Application {
      */
     private void setupBoard(int squarePX) {
         this.board.getChildren().clear();
-        Color light = Color.color(0xff / 255.0, 0xce / 255.0, 0x9e / 255.0);
-        Color dark = Color.color(0xd1 / 255.0, 0x8b / 255.0, 0x47 / 255.0);
+        if (this.canvasBoard != null) {
+            this.board.getChildren().add(this.canvasBoard.getCanvas());
+            return;
+        }
 
         for (int rank = 0; rank < this.boardSize; rank++) {
             for (int file = 0; file < this.boardSize; file++) {
@@ -152,7 +360,7 @@ public class Main extends Application {
                 double x = file * squarePX;
                 double y = rank * squarePX;
                 Rectangle square = new Rectangle(x, y, squarePX, squarePX);
-                Paint color = ((rank % 2 ^ file % 2) == 1) ? light : dark;
+                Paint color = ((rank % 2 ^ file % 2) == 1) ? LIGHT_SQUARE : DARK_SQUARE;
                 square.setFill(color);
                 board.getChildren().add(square);
                 square.setOnMouseClicked((event) -> {
@@ -175,9 +383,13 @@ public class Main extends Application {
             if (file == null || !file.exists()) {
                 return;
             }
-            try {
-                String fen = new String(Files.readAllBytes(file.toPath()));
-                parseFEN(fen);
+            try (FenReader reader = FenReader.open(file.toPath())) {
+                // Show the first position in the file
+                FenRecord record = new FenRecord();
+                if (!reader.next(record)) {
+                    throw new IllegalArgumentException("The file does not contain any positions");
+                }
+                showPosition(record);
             } catch (Exception e) {
                 Alert alert = new Alert(Alert.AlertType.ERROR);
                 alert.setHeaderText("Failed to load file: " + file);
@@ -193,7 +405,7 @@ public class Main extends Application {
             final int variantID2 = variantID;
             Menu newGame = new Menu("New " + makePrettyAlgorithmName(chessVariants[variantID]) + " Game");
 
-            String[] players = new String[] { "human", "random_ai" };
+            String[] players = new String[] { "human", "random_ai", "alpha_beta_ai" };
             for (String a : players) {
                 for (String b : players) {
                     String niceA = makePrettyAlgorithmName(a);
@@ -213,8 +425,36 @@ public class Main extends Application {
         fileMenu.getItems().add(exitApp);
         // Create and add the "Edit" sub-menu options.
         Menu edit = new Menu("Edit");
+        // Step through the game on screen. The game itself carries on from its
+        // latest position
+        MenuItem undo = new MenuItem("Undo Move");
+        undo.setAccelerator(KeyCombination.keyCombination("Shortcut+Z"));
+        undo.onActionProperty().set((event) -> {
+            stepPly(-1);
+        });
+        MenuItem redo = new MenuItem("Redo Move");
+        redo.setAccelerator(KeyCombination.keyCombination("Shortcut+Y"));
+        redo.onActionProperty().set((event) -> {
+            stepPly(1);
+        });
+        edit.getItems().addAll(undo, redo);
         MenuItem properties = new MenuItem("Properties");
         edit.getItems().add(properties);
+        // How fast engine vs engine games are shown. Unlimited draws whatever the
+        // board looks like each frame
+        Menu playbackSpeed = new Menu("Playback Speed");
+        ToggleGroup speeds = new ToggleGroup();
+        for (int movesPerSecond : new int[] { 0, 1, 2, 5, 10, 30 }) {
+            RadioMenuItem item = new RadioMenuItem(
+                    movesPerSecond == 0 ? "Unlimited" : movesPerSecond + " Moves/sec");
+            item.setToggleGroup(speeds);
+            item.setSelected(movesPerSecond == Natives.getPlaybackSpeed());
+            item.onActionProperty().set((event) -> {
+                Natives.setPlaybackSpeed(movesPerSecond);
+            });
+            playbackSpeed.getItems().add(item);
+        }
+        edit.getItems().add(playbackSpeed);
         // Create and add the "Help" sub-menu options.
         Menu help = new Menu("Help");
         MenuItem visitRepository = new MenuItem("Visit Repository");
@@ -235,7 +475,7 @@ public class Main extends Application {
         this.root.getChildren().add(this.mainMenu);
     }
 
-    private String makePrettyAlgorithmName(String name) {
+    static String makePrettyAlgorithmName(String name) {
         StringBuilder sb = new StringBuilder();
         for (int i = 0; i < name.length(); i++) {
             char c = name.charAt(i);
@@ -252,150 +492,369 @@ public class Main extends Application {
 
     private void newGame(String algorithmA, String algorithmB, int gameType) {
         int id = (int) (Math.random() * Integer.MAX_VALUE);
+        // Stop the game we were showing right away rather than waiting for it to
+        // notice on its next upcall
+        if (this.currentGameID != -1) {
+            this.gameExecutor.cancel(this.currentGameID);
+        }
         this.currentGameID = id;
-        new Thread(() -> {
-            Main.this.gameCount.incrementAndGet();
-
+        this.legalMoves = null;
+        this.whiteShare.set(0.5);
+        this.evalLabel.setText("");
+        this.gameExecutor.submit(id, () -> {
+            // Games chosen before startup finishes wait here rather than on the FX thread
+            this.nativesReady.join();
             // Count how many threads we currently have in rust code
-            boolean result = Natives.start_game(algorithmA, algorithmB, gameType, id);
-            System.out.println("Rust returned " + result + " from game");
-
-            Main.this.gameCount.decrementAndGet();
-        }).start();
+            Main.this.gameCount.incrementAndGet();
+            try {
+                boolean result = Natives.startGame(algorithmA, algorithmB, gameType, id);
+                System.out.println("Rust returned " + result + " from game");
+                return result;
+            } finally {
+                Main.this.gameCount.decrementAndGet();
+            }
+        });
     }
 
     // Empty name represents black square
     private static final String[] IMAGE_NAMES = new String[] { "", "king", "queen", "rook", "bishop", "night", "pawn",
             "bear", "elephant", "moose", "dragon", "weasel" };
 
-    private void parseFEN(String fen) {
-        // FEN files are in the format:
-        // -rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1 (the starting
-        // position)
-        // -rnbqkbnr/pp1ppppp/8/2p5/4P3/5N2/PPPP1PPP/RNBQKB1R b KQkq - 1 2
-        // (The board then who is to move, then castling right per side, then the
-        // en-passant square, then the move of
-        // half moves since the last capture of pawn advance, then the move number)
-        int sideLength = 1;
-        String[] records = fen.split(" ");
-        if (records.length != 6) {
-            throw new RuntimeException("FEN file has " + records.length + " expected 6");
-        }
-        String board = records[0];
-        String toMove = records[1];
-        String castling = records[2];
-        String enPassant = records[3];
-        String halfmove = records[4];
-        String fullMove = records[5];
-        // Count the number of /'s to determine board size
-        for (char c : fen.toCharArray()) {
-            if (c == '/') {
-                sideLength++;
-            }
+    /**
+     * Replaces the board with a position read from a FEN file. The squares hold
+     * piece codes whose piece numbers are indices into IMAGE_NAMES
+     */
+    private void showPosition(FenRecord record) {
+        if (!this.piecesShown) {
+            // The sprites are still being prepared on another thread
+            this.pendingPosition = record;
+            return;
         }
-        setBoardSize(sideLength);
-        int index = 0;
-
-        // 0-7 for an 8x8 board
-        int rank = 7;
-        int file = 0;
-        while (index < board.length() && rank >= 0) {
-            char c = board.charAt(index++);
-            if (c == '/') {
-                rank--;
-                file = 0;
-
-            } else if (Character.isDigit(c)) {
-                file += c - '0';
-
-            } else {
-                char piece = Character.toLowerCase(c);
-                int pieceIndex = -1;
-                for (int i = 0; i < IMAGE_NAMES.length; i++) {
-                    if (IMAGE_NAMES[i].length() > 0 && IMAGE_NAMES[i].charAt(0) == piece) {
-                        pieceIndex = i;
-                    }
-                }
-                if (pieceIndex == -1) {
-                    Alert alert = new Alert(AlertType.ERROR);
-                    alert.setTitle("Invalid FEN file");
-                    alert.setContentText("Unknown piece type: " + c + " at byte " + index);
-                    alert.showAndWait();
-                    return;
-                }
-                Image image;
-                if (Character.isUpperCase(c)) {
-                    image = WHITE_PIECES.get(pieceIndex);
-                } else {
-                    image = BLACK_PIECES.get(pieceIndex);
-                }
-                this.pieces[rank * sideLength + file] = new ImageView(image);
-                file++;
+        setBoardSize(record.size);
+        this.history.setStartSide(record.sideToMove);
+        for (int square = 0; square < record.size * record.size; square++) {
+            int code = record.squares[square];
+            if (code != 0) {
+                setSquare(square, Piece.pieceOf(code), Piece.colorOf(code));
             }
         }
-        // Ignore everything after the board for now
-        // TODO: implement full parsing
+        showViewedPly();
 
         doResize(this.board.getWidth(), this.board.getHeight());
     }
 
     public Main() {
-        Natives.init(this);
-        this.boardSize = 10;
+        // Loading the native library and decoding images do not depend on each other
+        // or on the scene, so both run in the background while this thread builds the
+        // scene and start shows the window
+        this.nativesReady = CompletableFuture
+                .runAsync(() -> this.startupTimings.time("natives", () -> Natives.init(this)));
+        CompletableFuture<Void> imagesReady = CompletableFuture
+                .runAsync(() -> this.startupTimings.time("images", this::loadImages));
 
+        this.boardSize = 10;
+        this.history.reset(this.boardSize);
+        this.viewBoard = new int[this.boardSize * this.boardSize];
         this.pieces = new ImageView[this.boardSize * this.boardSize];
-        loadImages();
+        this.pieceCodes = new int[this.boardSize * this.boardSize];
+
+        this.startupTimings.time("scene", () -> {
+            if ("canvas".equals(System.getProperty("contrasting_chess.renderer"))) {
+                this.canvasBoard = new CanvasBoard(this.sprites, this::handleClick);
+                this.canvasBoard.setBoardSize(this.boardSize);
+            }
+
+            setupBoard(10);
+            setupToolbar();
+
+            VBox evalPanel = setupEvalPanel();
+            HBox scrubberBar = setupScrubber();
+            this.root.getChildren().addAll(this.board, evalPanel, scrubberBar);
+            this.root.setAlignment(Pos.TOP_CENTER);
+            this.root.setFillWidth(true);
+            this.board.prefWidthProperty().bind(this.root.widthProperty());
+            this.board.prefHeightProperty()
+                    .bind(this.root.heightProperty().subtract(evalPanel.heightProperty())
+                            .subtract(scrubberBar.heightProperty()));
+        });
 
+        CompletableFuture<Void> piecesShown = imagesReady.handleAsync((result, error) -> {
+            if (error != null) {
+                error.printStackTrace();
+                Alert alert = new Alert(AlertType.ERROR);
+                alert.setTitle("Failed to load images");
+                alert.setHeaderText("Failed to load chess piece images");
+                alert.setContentText(
+                        "These images are usually located inside the jar file. Something must have gone wrong...");
+                alert.showAndWait();
+                System.exit(1);
+            }
+            this.startupTimings.time("pieces", this::showDemoPieces);
+            return null;
+        }, Platform::runLater);
+
+        this.startup = CompletableFuture.allOf(this.nativesReady, piecesShown);
+        this.startup.whenComplete((result, error) -> {
+            if (error != null) {
+                System.out.println("Startup failed");
+                error.printStackTrace();
+            }
+            this.startupTimings.print();
+        });
+    }
+
+    /**
+     * Scatters random pieces over the board until the first game sets it up, or
+     * shows a position imported while the images were loading. Runs on the FX
+     * thread once the images are loaded
+     */
+    private void showDemoPieces() {
+        if (this.pendingPosition != null) {
+            this.piecesShown = true;
+            showPosition(this.pendingPosition);
+            this.pendingPosition = null;
+            return;
+        }
         for (int i = 0; i < 50; i++) {
             int pos = (int) (Math.random() * this.pieces.length);
             int piece = (int) (Math.random() * WHITE_PIECES.size());
 
-            if (Math.random() > 0.5) {
-                this.pieces[pos] = new ImageView(WHITE_PIECES.get(piece));
-            } else {
-                this.pieces[pos] = new ImageView(BLACK_PIECES.get(piece));
+            placePiece(pos, piece, Math.random() > 0.5 ? 0 : 1);
+        }
+        this.piecesShown = true;
+        resizeWindow(-1.0);
+    }
+
+    /**
+     * @return A future that completes once the native library, images and demo
+     *         pieces are all ready
+     */
+    CompletableFuture<Void> getStartup() {
+        return this.startup;
+    }
+
+    /**
+     * Records every UI update queued by rust game threads since the last pulse,
+     * or sent by an engine vs engine game, then draws the ply being viewed once
+     * for the whole batch
+     */
+    private void drainNativeEvents() {
+        if (!this.piecesShown) {
+            // Updates can't be drawn without the piece images
+            return;
+        }
+        Natives.drainEvents(this);
+        Natives.applyPlayback(this);
+        if (this.requestedPly != -1) {
+            this.viewedPly = this.requestedPly;
+            this.requestedPly = -1;
+            this.boardStale = true;
+            this.lastClickedIndex = -1;
+            showTargets(-1);
+        }
+        refreshBoard();
+        updateScrubber();
+    }
+
+    /**
+     * Draws the viewed ply if the history has changed under it
+     *
+     * @return The number of squares that changed
+     */
+    int refreshBoard() {
+        if (!this.boardStale) {
+            return 0;
+        }
+        int changed = showViewedPly();
+        if (changed != 0 && this.canvasBoard != null) {
+            // Only the squares touched by this batch are redrawn
+            this.canvasBoard.repaint();
+        } else if (changed != 0) {
+            // Refresh the board so that the pieces that were just moved are displayed in
+            // their new locations
+            resizeWindow(-1.0);
+        }
+        return changed;
+    }
+
+    /**
+     * Puts the pieces of the viewed ply on the board, only touching the squares
+     * that differ from what is there. Does not refresh the board
+     *
+     * @return The number of squares that changed
+     */
+    private int showViewedPly() {
+        this.boardStale = false;
+        this.history.boardAt(this.viewedPly, this.viewBoard);
+        int changed = 0;
+        for (int square = 0; square < this.viewBoard.length; square++) {
+            int code = this.viewBoard[square];
+            if (code != this.pieceCodes[square]) {
+                placePiece(square, CanvasBoard.pieceOf(code), CanvasBoard.colorOf(code));
+                changed++;
             }
+        }
+        return changed;
+    }
 
+    private boolean isShowingLatest() {
+        return this.viewedPly == this.history.getPlyCount();
+    }
+
+    /**
+     * Shows a ply of the current game on the next pulse
+     */
+    private void goToPly(int ply) {
+        this.requestedPly = Math.max(0, Math.min(this.history.getPlyCount(), ply));
+    }
+
+    /**
+     * Steps the viewed ply back or forward, from a ply already asked for if it
+     * has not been shown yet
+     */
+    private void stepPly(int plies) {
+        goToPly((this.requestedPly != -1 ? this.requestedPly : this.viewedPly) + plies);
+    }
+
+    /**
+     * Moves the scrubber to the viewed ply and shows whether its position has
+     * repeated, without reading the history unless the game has grown
+     */
+    private void updateScrubber() {
+        int plies = this.history.getPlyCount();
+        if (this.scrubber.getMax() != plies) {
+            this.scrubber.setMax(plies);
+            this.scrubber.setDisable(plies == 0);
+        }
+        if (this.requestedPly == -1 && !this.scrubber.isValueChanging()
+                && this.scrubber.getValue() != this.viewedPly) {
+            this.scrubber.setValue(this.viewedPly);
+        }
+        String text = "Ply " + this.viewedPly + " of " + plies;
+        int repetitions = this.history.getRepetitions(this.viewedPly);
+        if (repetitions >= 3) {
+            text += ", threefold repetition";
+        } else if (repetitions == 2) {
+            text += ", position repeated";
         }
+        if (!text.equals(this.plyLabel.getText())) {
+            this.plyLabel.setText(text);
+        }
+    }
 
-        setupBoard(10);
-        setupToolbar();
+    /**
+     * @return The scrubber and step buttons that go below the board
+     */
+    private HBox setupScrubber() {
+        Button back = new Button("<");
+        back.onActionProperty().set((event) -> {
+            stepPly(-1);
+        });
+        Button forward = new Button(">");
+        forward.onActionProperty().set((event) -> {
+            stepPly(1);
+        });
+        this.scrubber.setBlockIncrement(1);
+        this.scrubber.setDisable(true);
+        this.scrubber.valueProperty().addListener((obs, oldVal, newVal) -> {
+            // Only the last value before the next pulse is drawn however fast it is
+            // dragged
+            int ply = (int) Math.round(newVal.doubleValue());
+            if (ply != this.viewedPly || this.requestedPly != -1) {
+                goToPly(ply);
+            }
+        });
+        HBox.setHgrow(this.scrubber, Priority.ALWAYS);
+        HBox bar = new HBox(4, back, this.scrubber, forward, this.plyLabel);
+        bar.setAlignment(Pos.CENTER);
+        return bar;
+    }
 
-        this.root.getChildren().add(this.board);
-        this.root.setAlignment(Pos.TOP_CENTER);
-        this.root.setFillWidth(true);
-        this.board.prefWidthProperty().bind(this.root.widthProperty());
-        this.board.prefHeightProperty().bind(this.root.heightProperty());
+    /**
+     * @return The eval bar above the principal variation, for below the board
+     */
+    private VBox setupEvalPanel() {
+        Rectangle black = new Rectangle(0, 0, 0, 8);
+        black.setFill(Color.BLACK);
+        black.widthProperty().bind(this.root.widthProperty());
+        Rectangle white = new Rectangle(0, 0, 0, 8);
+        white.setFill(Color.WHITE);
+        white.widthProperty().bind(this.root.widthProperty().multiply(this.whiteShare));
+        Pane bar = new Pane(black, white);
+        VBox panel = new VBox(2, bar, this.evalLabel);
+        panel.setAlignment(Pos.CENTER_LEFT);
+        return panel;
     }
 
-    public void displayMove(int srcSquare, int destSquare) {
-        if (srcSquare == destSquare)
+    /**
+     * Shows the newest search report of the current game, if one has arrived
+     * since the last pulse. However often an engine reports, only the last report
+     * before each frame is drawn. Only Java backend games report for now, see
+     * Natives.search_progress
+     */
+    private void showSearchProgress() {
+        SearchProgress progress = Natives.takeSearchProgress();
+        if (progress == null || progress.gameID != this.currentGameID) {
             return;
-        ImageView capturedPiece = this.pieces[destSquare];
-        this.pieces[destSquare] = this.pieces[srcSquare];
-        this.pieces[srcSquare] = null;
-        // System.out.println("moved " + srcSquare + " to " + destSquare);
-        if (capturedPiece != null) {
-            this.board.getChildren().remove(capturedPiece);
         }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Depth ").append(progress.depth).append("  ");
+        if (Search.isMate(progress.score)) {
+            int moves = (Search.matePlies(progress.score) + 1) / 2;
+            sb.append(progress.score > 0 ? "#" : "#-").append(moves);
+            this.whiteShare.set(progress.score > 0 ? 1.0 : 0.0);
+        } else {
+            sb.append(String.format("%+.2f", progress.score / 100.0));
+            // The usual logistic fit of centipawns to expected score
+            this.whiteShare.set(1.0 / (1.0 + Math.pow(10.0, -progress.score / 400.0)));
+        }
+        sb.append(String.format("  %,d nodes/sec ", progress.nodesPerSecond));
+        for (int move : progress.pv) {
+            sb.append(' ');
+            Move.appendSquare(sb, move >>> 16, this.boardSize);
+            Move.appendSquare(sb, move & 0xFFFF, this.boardSize);
+        }
+        this.evalLabel.setText(sb.toString());
+    }
 
-        // Refresh the board so that the piece that was just moved is displayed in its
-        // new location
-        resizeWindow(-1.0);
+    @Override
+    public void displayMove(int srcSquare, int destSquare) {
+        boolean latest = isShowingLatest();
+        this.history.move(srcSquare, destSquare);
+        if (latest) {
+            this.viewedPly = this.history.getPlyCount();
+            this.boardStale = true;
+        }
     }
 
+    @Override
     public void setSquare(int square, int piece, int color) {
-        Image image;
-        if (color % 2 == 0) {
-            image = WHITE_PIECES.get(piece);
-        } else {
-            image = BLACK_PIECES.get(piece);
+        boolean latest = isShowingLatest();
+        this.history.set(square, CanvasBoard.encode(piece, color));
+        if (latest) {
+            this.boardStale = true;
         }
-        this.pieces[square] = new ImageView(image);
+    }
 
-        // Refresh the board so that the piece that was just moved is displayed in its
-        // new location
-        resizeWindow(-1.0);
+    /**
+     * Puts a piece on a square, replacing whatever was there before. Does not
+     * refresh the board
+     *
+     * @param piece An index into IMAGE_NAMES, 0 for an empty square
+     * @param color 0 for white, 1 for black
+     */
+    private void placePiece(int square, int piece, int color) {
+        this.pieceCodes[square] = CanvasBoard.encode(piece, color);
+        if (this.canvasBoard != null) {
+            this.canvasBoard.setSquare(square, piece, color);
+            return;
+        }
+        Image image = this.sprites.get(piece, color % 2, SpriteCache.pixelSize(this.board, this.lastSquarePX));
+        ImageView old = this.pieces[square];
+        if (old != null) {
+            this.board.getChildren().remove(old);
+        }
+        this.pieces[square] = image == null ? null : new ImageView(image);
     }
 
     static class DoubleHolder {
@@ -418,17 +877,34 @@ public class Main extends Application {
 
         stage.show();
         doResize(this.board.getWidth(), this.board.getHeight());
+        this.startupTimings.mark("window");
+
+        // Drain updates from rust once per pulse so a burst of moves costs one refresh
+        new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                drainNativeEvents();
+                showSearchProgress();
+            }
+        }.start();
 
         newGame("human", "human", 1);
     }
 
     @Override
     public void stop() {
-        if (this.gameCount.get() != 0) {
-            // We still have outstanding native threads that may not return for a while
-            System.out.println("Native threads are still running. Forcing quit");
-            System.exit(0);
+        // Wakes any game waiting on a human move and tells the rest to stop. Game
+        // threads are daemons so they will not hold up exiting either way
+        this.gameExecutor.shutdown();
+        try {
+            // Give cancelled games a moment to hand their moves to the PGN writer
+            if (!this.gameExecutor.awaitTermination(1000)) {
+                System.out.println(this.gameCount.get() + " game threads are still stopping");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        PgnWriter.closeDefault();
     }
 
     private void doResize(double width, double height) {
@@ -441,97 +917,38 @@ public class Main extends Application {
         resizeWindow(squarePX);
     }
 
+    /**
+     * Runs off the FX thread during startup
+     *
+     * @throws RuntimeException If errorOk is false and the image does not exist
+     */
     private Image loadImage(String path, boolean errorOk) {
         InputStream stream = this.getClass().getResourceAsStream(path);
         if (stream == null) {
             if (errorOk) {
                 return null;
             } else {
-                Alert alert = new Alert(AlertType.ERROR);
-                alert.setTitle("Failed to load images");
-                alert.setHeaderText("Failed to load chess piece images");
-                alert.setContentText(
-                        "These images are usually located inside the jar file. Something must have gone wrong...");
-                alert.showAndWait();
-                System.exit(1);
-                return null;
+                throw new RuntimeException("Missing image " + path);
             }
         }
         return new Image(stream);
     }
 
-    private void tryPixel(int x, int y, ArrayDeque<Integer> todo, PixelReader reader, int w, int h) {
-        if (x >= 0 && x < w && y >= 0 && y < h) {
-            todo.push(y * w + x);
-        }
-    }
-
     private void loadImages() {
         // Index 0 must be null to indicate an empty square
         for (String name : IMAGE_NAMES) {
             if (name.equals("")) {
                 WHITE_PIECES.add(null);
+                BLACK_PIECES.add(null);
             } else {
                 WHITE_PIECES.add(loadImage("/contrasting_chess/" + name + ".png", false));
+                // Pieces without a black image get one generated below
+                BLACK_PIECES.add(loadImage("/contrasting_chess/" + name + "_black.png", true));
             }
         }
 
-        // Invert colors for black pieces
-        for (int i = 0; i < WHITE_PIECES.size(); i++) {
-            Image whitePiece = WHITE_PIECES.get(i);
-            if (whitePiece == null) {
-                BLACK_PIECES.add(null);
-                continue;
-            }
-            Image blackImage = loadImage("/contrasting_chess/" + IMAGE_NAMES[i] + "_black.png", true);
-            if (blackImage != null) {
-                BLACK_PIECES.add(blackImage);
-            } else {
-                int w = (int) whitePiece.getWidth();
-                int h = (int) whitePiece.getHeight();
-                WritableImage blackPiece = new WritableImage(w, h);
-                PixelWriter writer = blackPiece.getPixelWriter();
-                PixelReader writerReader = blackPiece.getPixelReader();
-                PixelReader reader = whitePiece.getPixelReader();
-                BitSet bitset = new BitSet(w * h);
-                for (int y = 0; y < h; y++) {
-                    for (int x = 0; x < w; x++) {
-                        // Retrieving the color of the pixel of the loaded image
-                        Color color = reader.getColor(x, y);
-                        // Setting the color to the writable image
-                        writer.setColor(x, y, color.invert());
-                    }
-                }
-                ArrayDeque<Integer> todo = new ArrayDeque<>();
-                todo.add(0);
-                // We also want to make the now white boarders on the piece also black
-                // So use a simple BFS algorithm to find accessible pixels and make them black
-                while (!todo.isEmpty()) {
-                    int pos = todo.pop();
-                    if (bitset.get(pos)) {
-                        continue;
-                    }
-                    bitset.set(pos, true);
-                    int x = pos % w;
-                    int y = pos / w;
-                    Color color = writerReader.getColor(x, y);
-                    if (color.getRed() == 0.0 && color.getGreen() == 0.0 && color.getBlue() == 0.0
-                            && color.getOpacity() == 1.0) {
-                        // Don't touch black that we just inverted
-                        continue;
-                    }
-                    if (color.getOpacity() != 0.0) {
-                        writer.setColor(x, y, Color.BLACK);
-                    }
-                    tryPixel(x + 1, y, todo, writerReader, w, h);
-                    tryPixel(x, y + 1, todo, writerReader, w, h);
-                    tryPixel(x - 1, y, todo, writerReader, w, h);
-                    tryPixel(x, y - 1, todo, writerReader, w, h);
-
-                }
-                BLACK_PIECES.add(blackPiece);
-            }
-        }
+        SpriteAtlas.fillBlackPieces(IMAGE_NAMES, WHITE_PIECES, BLACK_PIECES);
+        this.sprites.prepare();
     }
 
     public int getCurrentGameID() {
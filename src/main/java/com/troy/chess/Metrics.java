@@ -0,0 +1,375 @@
+package com.troy.chess;
+
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.ObjectName;
+
+import com.troy.chess.engine.Search;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+/**
+ * Timings and counters for the bridge between games and the UI, so a running
+ * instance can be profiled without a debugger.
+ *
+ * Everything is both aggregated for JMX (see {@link BridgeMetricsMXBean}) and
+ * emitted as JFR events under the "Contrasting Chess" category, which cost
+ * nothing unless a recording with them enabled is running. Record with
+ * -XX:StartFlightRecording or jcmd PID JFR.start. Upcalls are only recorded
+ * when they take longer than 1 ms by default, since there are thousands per
+ * second.
+ */
+public class Metrics {
+
+    static final int DISPLAY_MOVE = 0;
+    static final int SET_SQUARE = 1;
+    static final int HUMAN_MOVE = 2;
+    static final int SET_BOARD_SIZE = 3;
+
+    private static final String[] UPCALL_NAMES = { "display_move", "set_square", "get_human_move",
+            "set_board_size" };
+
+    @Name("com.troy.chess.Upcall")
+    @Label("Upcall")
+    @Description("A call from a game thread into the Java side of the bridge")
+    @Category({ "Contrasting Chess", "Bridge" })
+    @Threshold("1 ms")
+    static class UpcallEvent extends Event {
+        @Label("Upcall")
+        String upcall;
+
+        @Label("Game ID")
+        int gameID;
+    }
+
+    @Name("com.troy.chess.HumanMoveWait")
+    @Label("Human Move Wait")
+    @Description("A game thread blocked until a human makes a move")
+    @Category({ "Contrasting Chess", "Bridge" })
+    static class HumanMoveWaitEvent extends Event {
+        @Label("Game ID")
+        int gameID;
+    }
+
+    @Name("com.troy.chess.BridgeStatistics")
+    @Label("Bridge Statistics")
+    @Category({ "Contrasting Chess", "Bridge" })
+    @Period("1 s")
+    static class BridgeStatisticsEvent extends Event {
+        @Label("Event Backlog")
+        @Description("UI updates waiting for the FX thread")
+        int eventBacklog;
+
+        @Label("Live Game Threads")
+        int liveGameThreads;
+
+        @Label("Human Wait")
+        @Timespan(Timespan.NANOSECONDS)
+        long humanWait;
+    }
+
+    @Name("com.troy.chess.GameThroughput")
+    @Label("Game Throughput")
+    @Category({ "Contrasting Chess", "Games" })
+    @Period("1 s")
+    static class GameThroughputEvent extends Event {
+        @Label("Game ID")
+        int gameID;
+
+        @Label("Moves")
+        long moves;
+
+        @Label("Moves Per Second")
+        double movesPerSecond;
+    }
+
+    @Name("com.troy.chess.Search")
+    @Label("Search")
+    @Description("One move chosen by the alpha_beta_ai player")
+    @Category({ "Contrasting Chess", "Games" })
+    static class SearchEvent extends Event {
+        @Label("Game ID")
+        int gameID;
+
+        @Label("Depth")
+        int depth;
+
+        @Label("Nodes")
+        long nodes;
+
+        @Label("Nodes Per Second")
+        long nodesPerSecond;
+
+        @Label("Score")
+        int score;
+    }
+
+    /**
+     * Count, total and maximum time of one kind of upcall
+     */
+    private static class Latency {
+        final LongAdder calls = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final LongAccumulator maxNanos = new LongAccumulator(Long::max, 0);
+
+        double meanMicros() {
+            long calls = this.calls.sum();
+            return calls == 0 ? 0 : this.totalNanos.sum() / 1000.0 / calls;
+        }
+
+        double maxMicros() {
+            return this.maxNanos.get() / 1000.0;
+        }
+
+        void reset() {
+            this.calls.reset();
+            this.totalNanos.reset();
+            this.maxNanos.reset();
+        }
+    }
+
+    private static class GameRate {
+        final long startNanos = System.nanoTime();
+        final LongAdder moves = new LongAdder();
+
+        double movesPerSecond() {
+            double seconds = (System.nanoTime() - this.startNanos) / 1e9;
+            return seconds <= 0 ? 0 : this.moves.sum() / seconds;
+        }
+    }
+
+    private static final Latency[] latencies = { new Latency(), new Latency(), new Latency(), new Latency() };
+
+    // Asked before every upcall so no event is allocated unless a recording wants
+    // upcalls
+    private static final EventType upcallType = EventType.getEventType(UpcallEvent.class);
+
+    private static final LongAdder humanWaitNanos = new LongAdder();
+
+    private static final AtomicInteger liveGames = new AtomicInteger();
+
+    private static final ConcurrentHashMap<Integer, GameRate> games = new ConcurrentHashMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent(BridgeStatisticsEvent.class, () -> {
+            BridgeStatisticsEvent event = new BridgeStatisticsEvent();
+            event.eventBacklog = Natives.getEventBacklog();
+            event.liveGameThreads = liveGames.get();
+            event.humanWait = humanWaitNanos.sum();
+            event.commit();
+        });
+        FlightRecorder.addPeriodicEvent(GameThroughputEvent.class, () -> {
+            for (Map.Entry<Integer, GameRate> entry : games.entrySet()) {
+                GameThroughputEvent event = new GameThroughputEvent();
+                event.gameID = entry.getKey();
+                event.moves = entry.getValue().moves.sum();
+                event.movesPerSecond = entry.getValue().movesPerSecond();
+                event.commit();
+            }
+        });
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(),
+                    new ObjectName("com.troy.chess:type=Bridge"));
+        } catch (Exception e) {
+            System.out.println("Failed to register metrics MBean");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Makes the metrics visible over JMX and JFR. Safe to call more than once
+     */
+    public static void register() {
+        // The static block does the work
+    }
+
+    /**
+     * Starts timing an upcall. Pair with {@link #endUpcall}
+     *
+     * @return The JFR event, or null if no recording has upcall events enabled
+     */
+    static UpcallEvent beginUpcall() {
+        if (!upcallType.isEnabled()) {
+            return null;
+        }
+        UpcallEvent event = new UpcallEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Records an upcall that started at startNanos and is about to return
+     *
+     * @param event  From beginUpcall, may be null
+     * @param upcall DISPLAY_MOVE, SET_SQUARE, HUMAN_MOVE or SET_BOARD_SIZE
+     */
+    static void endUpcall(UpcallEvent event, int upcall, int gameID, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Latency latency = latencies[upcall];
+        latency.calls.increment();
+        latency.totalNanos.add(nanos);
+        latency.maxNanos.accumulate(nanos);
+        if (upcall == DISPLAY_MOVE) {
+            GameRate rate = games.get(gameID);
+            if (rate != null) {
+                rate.moves.increment();
+            }
+        }
+        if (event != null && event.shouldCommit()) {
+            event.upcall = UPCALL_NAMES[upcall];
+            event.gameID = gameID;
+            event.commit();
+        }
+    }
+
+    static HumanMoveWaitEvent beginHumanWait() {
+        HumanMoveWaitEvent event = new HumanMoveWaitEvent();
+        event.begin();
+        return event;
+    }
+
+    static void endHumanWait(HumanMoveWaitEvent event, int gameID, long startNanos) {
+        humanWaitNanos.add(System.nanoTime() - startNanos);
+        if (event.shouldCommit()) {
+            event.gameID = gameID;
+            event.commit();
+        }
+    }
+
+    public static void searchFinished(int gameID, Search.Result result) {
+        SearchEvent event = new SearchEvent();
+        if (event.shouldCommit()) {
+            event.gameID = gameID;
+            event.depth = result.depth;
+            event.nodes = result.nodes;
+            event.nodesPerSecond = result.getNodesPerSecond();
+            event.score = result.score;
+            event.commit();
+        }
+    }
+
+    public static void gameStarted(int gameID) {
+        liveGames.incrementAndGet();
+        games.put(gameID, new GameRate());
+    }
+
+    public static void gameEnded(int gameID) {
+        games.remove(gameID);
+        liveGames.decrementAndGet();
+    }
+
+    private static class Bean implements BridgeMetricsMXBean {
+        @Override
+        public long getDisplayMoveCalls() {
+            return latencies[DISPLAY_MOVE].calls.sum();
+        }
+
+        @Override
+        public double getDisplayMoveMeanMicros() {
+            return latencies[DISPLAY_MOVE].meanMicros();
+        }
+
+        @Override
+        public double getDisplayMoveMaxMicros() {
+            return latencies[DISPLAY_MOVE].maxMicros();
+        }
+
+        @Override
+        public long getSetSquareCalls() {
+            return latencies[SET_SQUARE].calls.sum();
+        }
+
+        @Override
+        public double getSetSquareMeanMicros() {
+            return latencies[SET_SQUARE].meanMicros();
+        }
+
+        @Override
+        public double getSetSquareMaxMicros() {
+            return latencies[SET_SQUARE].maxMicros();
+        }
+
+        @Override
+        public long getHumanMoveCalls() {
+            return latencies[HUMAN_MOVE].calls.sum();
+        }
+
+        @Override
+        public double getHumanMoveMeanMicros() {
+            return latencies[HUMAN_MOVE].meanMicros();
+        }
+
+        @Override
+        public double getHumanMoveMaxMicros() {
+            return latencies[HUMAN_MOVE].maxMicros();
+        }
+
+        @Override
+        public long getSetBoardSizeCalls() {
+            return latencies[SET_BOARD_SIZE].calls.sum();
+        }
+
+        @Override
+        public double getSetBoardSizeMeanMicros() {
+            return latencies[SET_BOARD_SIZE].meanMicros();
+        }
+
+        @Override
+        public double getSetBoardSizeMaxMicros() {
+            return latencies[SET_BOARD_SIZE].maxMicros();
+        }
+
+        @Override
+        public double getHumanWaitSeconds() {
+            return humanWaitNanos.sum() / 1e9;
+        }
+
+        @Override
+        public int getEventBacklog() {
+            return Natives.getEventBacklog();
+        }
+
+        @Override
+        public long getSkippedBoardStates() {
+            return Natives.getSkippedBoardStates();
+        }
+
+        @Override
+        public int getLiveGameThreads() {
+            return liveGames.get();
+        }
+
+        @Override
+        public Map<Integer, Double> getMovesPerSecond() {
+            Map<Integer, Double> rates = new HashMap<>();
+            for (Map.Entry<Integer, GameRate> entry : games.entrySet()) {
+                rates.put(entry.getKey(), entry.getValue().movesPerSecond());
+            }
+            return rates;
+        }
+
+        @Override
+        public void reset() {
+            for (Latency latency : latencies) {
+                latency.reset();
+            }
+            humanWaitNanos.reset();
+        }
+    }
+
+}
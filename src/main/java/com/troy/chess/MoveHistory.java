@@ -0,0 +1,196 @@
+package com.troy.chess;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.troy.chess.engine.Piece;
+import com.troy.chess.engine.Zobrist;
+
+/**
+ * Every board of the game on screen, so it can be stepped through without
+ * replaying it from the start.
+ *
+ * Changes are kept as the packed ints BoardMirror logs, either a move or a
+ * piece placed on a square, grouped into plies, and a copy of the board is
+ * taken every CHECKPOINT_INTERVAL plies. Any ply is rebuilt from the copy before
+ * it with at most CHECKPOINT_INTERVAL plies of changes, so jumping around a
+ * game thousands of plies long costs the same as in a short one. As in GameRecorder the rook
+ * half of a castling move belongs to the king's ply, and pieces placed after a
+ * move (a promotion) belong to that move's ply.
+ *
+ * Every ply's position is also counted as it is finished, so how often the
+ * position after any ply has been reached is known without searching.
+ *
+ * Only used on the FX thread.
+ */
+class MoveHistory {
+
+    /**
+     * Plies between copies of the board. A copy of the 10x10 board is 400 bytes,
+     * about what the changes of 32 plies take
+     */
+    static final int CHECKPOINT_INTERVAL = 32;
+
+    // The latest board, as square codes (see Piece#code), and its hash
+    private final BoardHash board = new BoardHash();
+    private int squares;
+    // Who moves first from the starting position
+    private int startSide = Piece.WHITE;
+
+    private int[] edits = new int[256];
+    private int editCount;
+    // The index in edits where each ply starts
+    private int[] plyStarts = new int[64];
+    private int plyCount;
+    // The board after every CHECKPOINT_INTERVAL plies, starting with ply 0
+    private int[][] checkpoints = new int[8][];
+    private boolean castleRookPending;
+
+    // How many times the position after each finished ply had been reached by then
+    private int[] repetitions = new int[64];
+    // How many finished plies reached each position, keyed by positionKey
+    private final HashMap<Long, Integer> seen = new HashMap<>();
+
+    /**
+     * Forgets every ply and empties the board
+     */
+    void reset(int boardSize) {
+        this.board.reset(boardSize);
+        this.squares = boardSize * boardSize;
+        this.startSide = Piece.WHITE;
+        this.editCount = 0;
+        this.plyCount = 0;
+        Arrays.fill(this.checkpoints, null);
+        this.castleRookPending = false;
+        this.seen.clear();
+    }
+
+    /**
+     * Sets who moves first, white unless a position was imported with black to
+     * move. Only valid before the first ply
+     */
+    void setStartSide(int side) {
+        this.startSide = side;
+    }
+
+    /**
+     * Moves whatever is on srcSquare to destSquare as a new ply, or as part of the
+     * last one for the rook of a castling move
+     */
+    void move(int srcSquare, int destSquare) {
+        if (srcSquare == destSquare) {
+            return;
+        }
+        int piece = Piece.pieceOf(this.board.get(srcSquare));
+        if (this.castleRookPending && piece == Piece.ROOK) {
+            this.castleRookPending = false;
+        } else {
+            this.castleRookPending = piece == Piece.KING && Math.abs(destSquare - srcSquare) == 2;
+            startPly();
+        }
+        add(BoardMirror.packMove(srcSquare, destSquare));
+    }
+
+    /**
+     * Puts a piece on a square. Before the first move this sets up the starting
+     * position, after it the change belongs to the last ply
+     */
+    void set(int square, int code) {
+        add(BoardMirror.packSet(square, code));
+    }
+
+    private void startPly() {
+        // The previous ply, or the starting position, is finished
+        if (this.plyCount == this.repetitions.length) {
+            this.repetitions = Arrays.copyOf(this.repetitions, this.plyCount * 2);
+        }
+        this.repetitions[this.plyCount] = this.seen.merge(positionKey(), 1, Integer::sum);
+        if (this.plyCount % CHECKPOINT_INTERVAL == 0) {
+            int checkpoint = this.plyCount / CHECKPOINT_INTERVAL;
+            if (checkpoint == this.checkpoints.length) {
+                this.checkpoints = Arrays.copyOf(this.checkpoints, checkpoint * 2);
+            }
+            this.checkpoints[checkpoint] = this.board.copySquares();
+        }
+        if (this.plyCount == this.plyStarts.length) {
+            this.plyStarts = Arrays.copyOf(this.plyStarts, this.plyCount * 2);
+        }
+        this.plyStarts[this.plyCount++] = this.editCount;
+    }
+
+    private void add(int edit) {
+        if (this.editCount == this.edits.length) {
+            this.edits = Arrays.copyOf(this.edits, this.editCount * 2);
+        }
+        this.edits[this.editCount++] = edit;
+        if (BoardMirror.isSet(edit)) {
+            this.board.set(BoardMirror.firstOf(edit), BoardMirror.secondOf(edit));
+        } else {
+            this.board.move(BoardMirror.firstOf(edit), BoardMirror.secondOf(edit));
+        }
+    }
+
+    /**
+     * @return The latest board's hash, with the side to move mixed in so a
+     *         position only repeats with the same player to move
+     */
+    private long positionKey() {
+        return this.board.getHash() ^ Zobrist.sideToMove(this.startSide ^ (this.plyCount & 1));
+    }
+
+    private static void apply(int[] board, int edit) {
+        if (BoardMirror.isSet(edit)) {
+            board[BoardMirror.firstOf(edit)] = BoardMirror.secondOf(edit);
+        } else {
+            board[BoardMirror.secondOf(edit)] = board[BoardMirror.firstOf(edit)];
+            board[BoardMirror.firstOf(edit)] = 0;
+        }
+    }
+
+    /**
+     * Writes the board as it was after a ply
+     *
+     * @param ply 0 for the starting position up to getPlyCount for the latest
+     * @param out At least getBoardSize() squared long
+     */
+    void boardAt(int ply, int[] out) {
+        if (ply < 0 || ply > this.plyCount) {
+            throw new IllegalArgumentException("Ply " + ply + " is not between 0 and " + this.plyCount);
+        }
+        if (ply == this.plyCount) {
+            this.board.copySquares(out);
+            return;
+        }
+        // The checkpoint for a ply exists once the ply after it has started
+        int checkpoint = ply / CHECKPOINT_INTERVAL;
+        System.arraycopy(this.checkpoints[checkpoint], 0, out, 0, this.squares);
+        int end = this.plyStarts[ply];
+        for (int i = this.plyStarts[checkpoint * CHECKPOINT_INTERVAL]; i < end; i++) {
+            apply(out, this.edits[i]);
+        }
+    }
+
+    /**
+     * @return How many times the position after a ply had been reached by the end
+     *         of it, counting that ply, so 3 is a threefold repetition
+     */
+    int getRepetitions(int ply) {
+        if (ply < 0 || ply > this.plyCount) {
+            throw new IllegalArgumentException("Ply " + ply + " is not between 0 and " + this.plyCount);
+        }
+        if (ply < this.plyCount) {
+            return this.repetitions[ply];
+        }
+        // The latest ply is not finished, so it is not counted yet
+        return this.seen.getOrDefault(positionKey(), 0) + 1;
+    }
+
+    int getPlyCount() {
+        return this.plyCount;
+    }
+
+    int getBoardSize() {
+        return this.board.getBoardSize();
+    }
+
+}
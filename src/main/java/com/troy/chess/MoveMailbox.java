@@ -0,0 +1,93 @@
+package com.troy.chess;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands moves from the UI (or any other single producer) to the one game
+ * thread waiting on them without taking a lock.
+ *
+ * The mailbox holds at most one move. If a second move is given before the
+ * first is taken the newer one replaces it, which matches clicking a different
+ * move before the engine asked for one.
+ */
+public class MoveMailbox {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private final AtomicLong move = new AtomicLong(EMPTY);
+
+    /**
+     * The game thread while it is parked in take, otherwise null
+     */
+    private volatile Thread waiter;
+
+    private volatile boolean cancelled = false;
+
+    private final int gameID;
+
+    public MoveMailbox(int gameID) {
+        this.gameID = gameID;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    /**
+     * Marks the game as cancelled and wakes the game thread if it is waiting so it
+     * can exit
+     */
+    public void cancel() {
+        this.cancelled = true;
+        Thread thread = this.waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Stores a move and wakes the game thread if it is waiting
+     *
+     * @param move A move packed the same way as the return value of
+     *             Natives.get_human_move
+     */
+    public void give(long move) {
+        this.move.set(move);
+        Thread thread = this.waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    /**
+     * Blocks until a move is available and removes it. Must only be called by one
+     * thread at a time
+     *
+     * @throws GameCancelledException If the game is cancelled before or during the
+     *                                wait
+     */
+    public long take() {
+        this.waiter = Thread.currentThread();
+        try {
+            while (true) {
+                // The waiter is published before checking so a give or cancel that races
+                // with us always sees it and unparks us
+                if (this.cancelled) {
+                    throw new GameCancelledException(this.gameID);
+                }
+                long move = this.move.getAndSet(EMPTY);
+                if (move != EMPTY) {
+                    return move;
+                }
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    throw new RuntimeException(new InterruptedException("Interrupted while waiting for a move"));
+                }
+            }
+        } finally {
+            this.waiter = null;
+        }
+    }
+
+}
@@ -1,13 +1,44 @@
 package com.troy.chess;
 
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
 
-import javafx.application.Platform;
+import com.troy.chess.engine.GameCallbacks;
+import com.troy.chess.engine.JavaGame;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.MoveGenerator;
+import com.troy.chess.engine.Position;
 
 public class Natives {
 
+    /**
+     * Which engine plays games. Native uses GigaChess through JNI, Java uses the
+     * in-JVM engine in com.troy.chess.engine
+     */
+    public enum Backend {
+        Native, Java
+    }
+
+    private static final Backend backend;
+
     static {
-        LibraryLoader.load("giga_chess");
+        // Run with -Dcontrasting_chess.backend=java to skip loading the native library
+        Backend requested = Backend.Native;
+        if ("java".equalsIgnoreCase(System.getProperty("contrasting_chess.backend"))) {
+            requested = Backend.Java;
+        } else {
+            try {
+                LibraryLoader.load("giga_chess");
+            } catch (RuntimeException e) {
+                System.out.println("Native engine unavailable, falling back to the Java engine: " + e.getMessage());
+                requested = Backend.Java;
+            }
+        }
+        backend = requested;
     }
 
     public enum GameType {
@@ -15,6 +46,10 @@ public class Natives {
 
         int boardSize;
 
+        public int getBoardSize() {
+            return this.boardSize;
+        }
+
         GameType(int ordinal, int boardSize) {
             this.boardSize = boardSize;
             if (this.ordinal() != ordinal) {
@@ -28,28 +63,497 @@ public class Natives {
     // ============================== Functions Called from Other Java Code
     // ==============================
 
-    private static Main main;
-    private static Long currentMove = null;
-    private static final Object collectMoveWrangler = new Object();
+    private static volatile Main main;
+
+    /**
+     * UI updates from rust are batched here and drained by the FX thread once per
+     * pulse instead of posting a Platform.runLater for every upcall
+     */
+    private static final EventChannel events = new EventChannel(1 << 14);
+
+    /**
+     * The displayed game's upcalls when neither player is human. Game threads
+     * append to it and the FX thread draws the latest state once per pulse, so an
+     * engine vs engine game never waits on the UI
+     */
+    private static final BoardMirror playback = new BoardMirror();
+
+    /**
+     * The latest search report of the displayed game, taken by the FX thread once
+     * per pulse
+     */
+    private static final SearchProgress.Slot searchProgress = new SearchProgress.Slot();
+
+    /**
+     * How long each move of an engine vs engine game stays on screen, 0 to let the
+     * engines play as fast as they can. Starts from
+     * -Dcontrasting_chess.playback_mps=&lt;moves per second&gt;
+     */
+    private static volatile long playbackNanosPerMove = nanosPerMove(
+            Integer.getInteger("contrasting_chess.playback_mps", 0));
+
+    /**
+     * Where the upcalls for each running game are sent, keyed by game ID
+     */
+    private static final ConcurrentHashMap<Integer, GameCallbacks> games = new ConcurrentHashMap<>();
+
+    /**
+     * get_human_move is not passed a game ID, but rust calls it on the same thread
+     * that called start_game, so we remember which game each thread is playing
+     */
+    private static final ThreadLocal<Integer> threadGameID = new ThreadLocal<>();
+
+    /**
+     * Moves made in the UI waiting to be picked up by each game, keyed by game ID
+     */
+    private static final ConcurrentHashMap<Integer, MoveMailbox> mailboxes = new ConcurrentHashMap<>();
+
+    /**
+     * Games being played by the Java backend, so their positions can be queried
+     */
+    private static final ConcurrentHashMap<Integer, JavaGame> javaGames = new ConcurrentHashMap<>();
+
+    private static final LegalMoveCache legalMoveCache = new LegalMoveCache(4096);
+
+    /**
+     * Where get_legal_moves writes its moves. Direct so rust can write into it
+     * without a copy
+     */
+    private static final ThreadLocal<ByteBuffer> moveBuffer = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(MoveGenerator.MAX_MOVES * 4).order(ByteOrder.nativeOrder()));
+
+    /**
+     * Where writeLegalMoves generates moves before packing them into moveBuffer
+     */
+    private static final ThreadLocal<int[]> legalBuffer = ThreadLocal
+            .withInitial(() -> new int[MoveGenerator.MAX_MOVES]);
+
+    /**
+     * Cleared the first time position_hash can't be linked. The GigaChess backend
+     * does not export position_hash or get_legal_moves yet, so for now legal moves
+     * are only listed, cached and used to check clicks in Java backend games
+     */
+    private static volatile boolean nativeMoveQueries = true;
 
     public static void init(Main main) {
         // Triggers static block on the first call
         Natives.main = main;
-        init_rust();
+        initBackend();
+    }
+
+    /**
+     * Prepares the selected backend without attaching a UI. Used by headless
+     * tools that pass their own callbacks to playGame
+     */
+    public static void initBackend() {
+        Metrics.register();
+        if (backend == Backend.Native) {
+            init_rust();
+        }
+    }
+
+    public static Backend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Plays a game that is displayed in the UI, returning when it is complete. The
+     * game is saved to PgnWriter.getDefault() ply by ply as it is played. See
+     * start_game
+     */
+    public static boolean startGame(String aAlgorithmName, String bAlgorithmName, int gameType, int gameID) {
+        boolean watched = aAlgorithmName.equals("human") || bAlgorithmName.equals("human");
+        GameRecorder recorder = new GameRecorder(watched ? UI_CALLBACKS : PLAYBACK_CALLBACKS);
+        PgnWriter pgn = PgnWriter.getDefault();
+        if (pgn != null) {
+            pgn.start(recorder, gameID, gameType, aAlgorithmName, bAlgorithmName);
+        }
+        int outcome = playGame(aAlgorithmName, bAlgorithmName, gameType, gameID, recorder);
+        if (pgn != null) {
+            pgn.write(gameID, gameType, aAlgorithmName, bAlgorithmName, recorder, outcome);
+        }
+        return outcome != JavaGame.ABORTED;
     }
 
     /**
-     * Passed a move made by a human player using the GUI to a waiting rust game
+     * Plays a game on the selected backend, sending its upcalls to callbacks.
+     * Returns when the game is complete
+     *
+     * @return One of the JavaGame outcome constants. The native engine does not
+     *         report who won so its games finish with JavaGame.UNKNOWN
+     */
+    public static int playGame(String aAlgorithmName, String bAlgorithmName, int gameType, int gameID,
+            GameCallbacks callbacks) {
+        registerGame(gameID, callbacks);
+        Metrics.gameStarted(gameID);
+        try {
+            if (!isLive(gameID)) {
+                // Cancelled while it was queued
+                return JavaGame.ABORTED;
+            }
+            if (backend == Backend.Java || JavaGame.isJavaOnly(aAlgorithmName)
+                    || JavaGame.isJavaOnly(bAlgorithmName)) {
+                // Go through the same upcalls as rust so cancellation is handled in one place
+                JavaGame game = new JavaGame(GameType.values()[gameType], gameID, ROUTED_CALLBACKS);
+                Natives.javaGames.put(gameID, game);
+                return game.play(aAlgorithmName, bAlgorithmName);
+            }
+            boolean finished = start_game(aAlgorithmName, bAlgorithmName, gameType, gameID);
+            return finished ? JavaGame.UNKNOWN : JavaGame.ABORTED;
+        } catch (GameCancelledException e) {
+            return JavaGame.ABORTED;
+        } finally {
+            Natives.javaGames.remove(gameID);
+            Metrics.gameEnded(gameID);
+            unregisterGame(gameID);
+        }
+    }
+
+    /**
+     * Makes upcalls for a game ID go to callbacks and ties the game to the calling
      * thread
-     * 
-     * @param move
+     */
+    static void registerGame(int gameID, GameCallbacks callbacks) {
+        // Keeps the mailbox from reserveGame, which may already be cancelled
+        Natives.mailboxes.computeIfAbsent(gameID, MoveMailbox::new);
+        Natives.games.put(gameID, callbacks);
+        Natives.threadGameID.set(gameID);
+    }
+
+    /**
+     * Lets a game be cancelled before it reaches playGame. Called when the game is
+     * queued and paired with releaseGame once its task is over
+     */
+    static void reserveGame(int gameID) {
+        Natives.mailboxes.putIfAbsent(gameID, new MoveMailbox(gameID));
+    }
+
+    static void releaseGame(int gameID) {
+        Natives.mailboxes.remove(gameID);
+    }
+
+    static void unregisterGame(int gameID) {
+        Natives.threadGameID.remove();
+        Natives.games.remove(gameID);
+        Natives.mailboxes.remove(gameID);
+    }
+
+    /**
+     * Stops a running game as soon as possible. Every later upcall for the game
+     * returns false and a thread blocked waiting for a human move is woken and
+     * unwinds with a GameCancelledException
+     */
+    public static void cancelGame(int gameID) {
+        MoveMailbox mailbox = Natives.mailboxes.get(gameID);
+        if (mailbox != null) {
+            mailbox.cancel();
+        }
+    }
+
+    /**
+     * Lists every legal move in a game's current position, from the cache when the
+     * position has been seen before. Must be called on the game's own thread while
+     * it waits for a human move, so the position can't change underneath it.
+     * Only Java backend games have moves to list until GigaChess exports
+     * position_hash and get_legal_moves
+     *
+     * @return The moves, or null if the backend can't list them
+     */
+    public static LegalMoves getLegalMoves(int gameID) {
+        JavaGame game = null;
+        long hash;
+        game = Natives.javaGames.get(gameID);
+        if (game != null) {
+            hash = game.getPosition().getHash();
+        } else if (backend == Backend.Java) {
+            return null;
+        } else {
+            if (!nativeMoveQueries) {
+                return null;
+            }
+            try {
+                hash = position_hash(gameID);
+            } catch (UnsatisfiedLinkError e) {
+                System.out.println("Native library can't list legal moves, clicks will not be checked");
+                nativeMoveQueries = false;
+                return null;
+            }
+        }
+
+        LegalMoves moves = Natives.legalMoveCache.get(hash);
+        if (moves != null) {
+            return moves;
+        }
+        ByteBuffer buffer = Natives.moveBuffer.get();
+        int count = game != null ? writeLegalMoves(game.getPosition(), buffer) : get_legal_moves(gameID, buffer);
+        if (count < 0) {
+            return null;
+        }
+        moves = new LegalMoves(hash, buffer.asIntBuffer(), count);
+        Natives.legalMoveCache.put(moves);
+        return moves;
+    }
+
+    /**
+     * The Java backend's version of get_legal_moves
+     */
+    private static int writeLegalMoves(Position position, ByteBuffer buffer) {
+        int[] legal = Natives.legalBuffer.get();
+        int count = MoveGenerator.generateLegal(position, legal, 0);
+        IntBuffer moves = buffer.asIntBuffer();
+        for (int i = 0; i < count; i++) {
+            moves.put(i, Move.from(legal[i]) << 16 | Move.to(legal[i]));
+        }
+        return count;
+    }
+
+    private static boolean isLive(int gameID) {
+        MoveMailbox mailbox = Natives.mailboxes.get(gameID);
+        return mailbox != null && !mailbox.isCancelled();
+    }
+
+    /**
+     * Used by Java backend games so they see the same routing and cancellation as
+     * native ones
+     */
+    private static final GameCallbacks ROUTED_CALLBACKS = new GameCallbacks() {
+        @Override
+        public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+            return display_move(gameID, srcSquare, destSquare);
+        }
+
+        @Override
+        public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+            return set_square(gameID, square, pieceKind, color);
+        }
+
+        @Override
+        public boolean setBoardSize(int gameID, int size) {
+            return set_board_size(gameID, size);
+        }
+
+        @Override
+        public boolean searchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+            return search_progress(gameID, depth, score, nodes, nodesPerSecond, pv);
+        }
+
+        @Override
+        public long getHumanMove(int gameID, int side) {
+            // Java games run on the thread that registered them
+            return get_human_move(side);
+        }
+    };
+
+    /**
+     * Sends games played through startGame to the UI
+     */
+    private static final GameCallbacks UI_CALLBACKS = new GameCallbacks() {
+        @Override
+        public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            Natives.events.pushDisplayMove(srcSquare, destSquare);
+            return true;
+        }
+
+        @Override
+        public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            Natives.events.pushSetSquare(square, pieceKind, color);
+            return true;
+        }
+
+        @Override
+        public boolean setBoardSize(int gameID, int size) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            Natives.events.pushSetBoardSize(size);
+            return true;
+        }
+
+        @Override
+        public boolean searchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+            return publishSearchProgress(gameID, depth, score, nodes, nodesPerSecond, pv);
+        }
+
+        @Override
+        public long getHumanMove(int gameID, int side) {
+            // Lets the UI check clicks itself instead of sending every pair of squares
+            // here and waiting to be asked again
+            main.showLegalMoves(gameID, getLegalMoves(gameID));
+            return waitForHumanMove(gameID);
+        }
+    };
+
+    /**
+     * Sends engine vs engine games played through startGame to the UI through the
+     * playback log, waiting between moves if a playback speed is set
+     */
+    private static final GameCallbacks PLAYBACK_CALLBACKS = new GameCallbacks() {
+        @Override
+        public boolean displayMove(int gameID, int srcSquare, int destSquare) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            if (Natives.playback.startsPly(gameID, srcSquare)) {
+                waitForPlaybackMove(gameID);
+            }
+            Natives.playback.displayMove(gameID, srcSquare, destSquare);
+            return true;
+        }
+
+        @Override
+        public boolean setSquare(int gameID, int square, int pieceKind, int color) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            Natives.playback.setSquare(gameID, square, pieceKind, color);
+            return true;
+        }
+
+        @Override
+        public boolean setBoardSize(int gameID, int size) {
+            if (gameID != main.getCurrentGameID()) {
+                return false;
+            }
+            Natives.playback.setBoardSize(gameID, size);
+            return true;
+        }
+
+        @Override
+        public boolean searchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+            return publishSearchProgress(gameID, depth, score, nodes, nodesPerSecond, pv);
+        }
+
+        @Override
+        public long getHumanMove(int gameID, int side) {
+            throw new IllegalStateException("Game " + gameID + " has no human player");
+        }
+    };
+
+    private static boolean publishSearchProgress(int gameID, int depth, int score, long nodes,
+            long nodesPerSecond, int[] pv) {
+        if (gameID != main.getCurrentGameID()) {
+            return false;
+        }
+        Natives.searchProgress.publish(gameID, depth, score, nodes, nodesPerSecond, pv);
+        return true;
+    }
+
+    /**
+     * Holds the calling game thread until its next move is due at the playback
+     * speed. Checks in every 50ms so a cancelled or replaced game, or a faster
+     * speed, takes effect without waiting out the whole move
+     */
+    private static void waitForPlaybackMove(int gameID) {
+        long nanosPerMove;
+        while ((nanosPerMove = Natives.playbackNanosPerMove) != 0 && isLive(gameID)
+                && gameID == main.getCurrentGameID()) {
+            long waited = Natives.playback.sinceLastPly(gameID);
+            if (waited >= nanosPerMove) {
+                break;
+            }
+            LockSupport.parkNanos(Math.min(nanosPerMove - waited, 50_000_000L));
+        }
+    }
+
+    private static long nanosPerMove(int movesPerSecond) {
+        return movesPerSecond <= 0 ? 0 : 1_000_000_000L / movesPerSecond;
+    }
+
+    /**
+     * Sets how many moves per second engine vs engine games are shown at, 0 for as
+     * fast as the engines play. Applies from the next move of the running game
+     */
+    public static void setPlaybackSpeed(int movesPerSecond) {
+        Natives.playbackNanosPerMove = nanosPerMove(movesPerSecond);
+    }
+
+    /**
+     * @return The playback speed in moves per second, 0 if unlimited
+     */
+    public static int getPlaybackSpeed() {
+        long nanosPerMove = Natives.playbackNanosPerMove;
+        return nanosPerMove == 0 ? 0 : (int) Math.round(1e9 / nanosPerMove);
+    }
+
+    /**
+     * Passed a move made by a human player using the GUI to the waiting game
+     * thread of the game currently being displayed
      */
     public static void giveRustMove(int srcSquare, int destSquare) {
-        synchronized (Natives.collectMoveWrangler) {
-            Natives.currentMove = packNativeMove(srcSquare, destSquare);
-            // Wake up waiting rust thread
-            Natives.collectMoveWrangler.notify();
+        giveMove(main.getCurrentGameID(), srcSquare, destSquare);
+    }
+
+    /**
+     * Passes a move to the game with the given ID. Does nothing if that game is no
+     * longer running
+     */
+    public static void giveMove(int gameID, int srcSquare, int destSquare) {
+        MoveMailbox mailbox = Natives.mailboxes.get(gameID);
+        if (mailbox != null) {
+            mailbox.give(packNativeMove(srcSquare, destSquare));
+        }
+    }
+
+    /**
+     * Blocks the calling game thread until a move is given for its game
+     */
+    public static long waitForHumanMove(int gameID) {
+        MoveMailbox mailbox = Natives.mailboxes.get(gameID);
+        if (mailbox == null) {
+            throw new IllegalStateException("Game " + gameID + " is not running");
         }
+        long start = System.nanoTime();
+        Metrics.HumanMoveWaitEvent event = Metrics.beginHumanWait();
+        try {
+            return mailbox.take();
+        } finally {
+            Metrics.endHumanWait(event, gameID, start);
+        }
+    }
+
+    /**
+     * Applies all pending UI updates from rust game threads. Must be called on the
+     * FX thread
+     *
+     * @return The number of updates applied
+     */
+    public static int drainEvents(EventChannel.Handler handler) {
+        return Natives.events.drain(handler);
+    }
+
+    /**
+     * Passes every upcall of the displayed engine vs engine game since the last
+     * call to handler. Must be called on the FX thread
+     *
+     * @return The number of updates applied
+     */
+    public static int applyPlayback(EventChannel.Handler handler) {
+        return Natives.playback.apply(main.getCurrentGameID(), handler);
+    }
+
+    /**
+     * @return The newest search report of any game since the last call, or null.
+     *         Must be called on the FX thread
+     */
+    static SearchProgress takeSearchProgress() {
+        return Natives.searchProgress.take();
+    }
+
+    static long getSkippedBoardStates() {
+        return Natives.playback.getSkipped();
+    }
+
+    /**
+     * @return How many UI updates are queued for the FX thread
+     */
+    static int getEventBacklog() {
+        return Natives.events.size();
     }
 
     private static long packNativeMove(int srcSquare, int destSquare) {
@@ -75,31 +579,96 @@ public class Natives {
      */
     public static native boolean start_game(String aAlgorithmName, String bAlgorithmName, int gameType, int gameID);
 
+    /**
+     * Hashes the current position of a running game. Only called from inside
+     * get_human_move, on the game's own thread. Not exported by GigaChess yet, so
+     * calling it throws UnsatisfiedLinkError, which getLegalMoves handles
+     *
+     * @return A hash of everything that decides which moves are legal: the pieces,
+     *         side to move, castling rights and en passant square
+     */
+    public static native long position_hash(int gameID);
+
+    /**
+     * Writes every legal move in the current position of a running game into a
+     * direct buffer, as native order ints of source square << 16 | destination
+     * square. Only called from inside get_human_move, on the game's own thread.
+     * Not exported by GigaChess yet, see position_hash
+     *
+     * @param moves Room for at least MoveGenerator.MAX_MOVES moves
+     * @return The number of moves written or -1 if the game is not running
+     */
+    public static native int get_legal_moves(int gameID, ByteBuffer moves);
+
+    /**
+     * Counts the leaf nodes of the legal move tree below a position, the native
+     * counterpart to Perft.count. Needs no running game and may be called from any
+     * thread. Not exported by GigaChess yet, so calling it throws
+     * UnsatisfiedLinkError until the backend adds it
+     *
+     * @param fen A FEN string for either board size
+     * @return The number of positions depth plies below fen, or -1 if the FEN
+     *         can't be parsed
+     */
+    public static native long perft(String fen, int depth);
+
     // ==================== Functions Called From Rust ====================
     // All return true if the game is continuing, false if it has ended
-    // Were calling from a different thread so all UI related thing must be enqued
-    // to run later on the main thread
+    // These are forwarded to the callbacks the game was started with
+
+    // Upcalls are timed for Metrics
 
     public static boolean display_move(int gameID, int srcSquare, int destSquare) {
-        Platform.runLater(() -> {
-            main.displayMove(srcSquare, destSquare);
-        });
-        return gameID == main.getCurrentGameID();
+        long start = System.nanoTime();
+        Metrics.UpcallEvent event = Metrics.beginUpcall();
+        try {
+            GameCallbacks callbacks = Natives.games.get(gameID);
+            return callbacks != null && isLive(gameID) && callbacks.displayMove(gameID, srcSquare, destSquare);
+        } finally {
+            Metrics.endUpcall(event, Metrics.DISPLAY_MOVE, gameID, start);
+        }
     }
 
     public static boolean set_square(int gameID, int square, int pieceKind, int color) {
-        Platform.runLater(() -> {
-            main.setSquare(square, pieceKind, color);
-        });
-
-        return gameID == main.getCurrentGameID();
+        long start = System.nanoTime();
+        Metrics.UpcallEvent event = Metrics.beginUpcall();
+        try {
+            GameCallbacks callbacks = Natives.games.get(gameID);
+            return callbacks != null && isLive(gameID) && callbacks.setSquare(gameID, square, pieceKind, color);
+        } finally {
+            Metrics.endUpcall(event, Metrics.SET_SQUARE, gameID, start);
+        }
     }
 
     public static boolean set_board_size(int gameID, int size) {
-        Platform.runLater(() -> {
-            main.setBoardSize(size);
-        });
-        return gameID == main.getCurrentGameID();
+        long start = System.nanoTime();
+        Metrics.UpcallEvent event = Metrics.beginUpcall();
+        try {
+            GameCallbacks callbacks = Natives.games.get(gameID);
+            return callbacks != null && isLive(gameID) && callbacks.setBoardSize(gameID, size);
+        } finally {
+            Metrics.endUpcall(event, Metrics.SET_BOARD_SIZE, gameID, start);
+        }
+    }
+
+    /**
+     * Called while an AI searches for its move, as often as it likes. Reports are
+     * never queued: the UI only shows the newest one each frame. GigaChess does
+     * not call it yet, so only Java backend searches report progress, through
+     * ROUTED_CALLBACKS
+     *
+     * @param score          In centipawns from white's point of view, or
+     *                       Search.MATE less the plies to mate (negated when black
+     *                       mates)
+     * @param nodesPerSecond Over the whole search so far
+     * @param pv             The principal variation as source square << 16 |
+     *                       destination square per move, the move to play first
+     */
+    public static boolean search_progress(int gameID, int depth, int score, long nodes, long nodesPerSecond,
+            int[] pv) {
+        GameCallbacks callbacks = Natives.games.get(gameID);
+        return callbacks != null && isLive(gameID)
+                && callbacks.searchProgress(gameID, depth, score, nodes, nodesPerSecond, pv);
     }
 
     /**
@@ -110,28 +679,18 @@ public class Natives {
      * @return A 64 bit integer containing the source square in the 32 high bits and
      *         the destination square in the 32 low bits - representing the index of
      *         the piece which is to move and its destination index. Called
-     *         repeatedly for the same side until a legal move is made
+     *         repeatedly for the same side until a legal move is made. If the
+     *         game is cancelled while waiting a GameCancelledException is left
+     *         pending for rust, which should end the game
      */
     public static long get_human_move(int side) {
-        while (true) {
-            synchronized (Natives.collectMoveWrangler) {
-                if (Natives.currentMove == null) {
-                    try {
-                        Natives.collectMoveWrangler.wait();
-                    } catch (InterruptedException e) {
-                        throw new RuntimeException(e);
-                    }
-                }
-
-                if (Natives.currentMove == null) {
-                    // Another thread got there before us
-                    continue;
-                }
-                // We have exclusive access and currentMove is set to a move
-                long move = Natives.currentMove;
-                Natives.currentMove = null;
-                return move;
-            }
+        int gameID = Natives.threadGameID.get();
+        long start = System.nanoTime();
+        Metrics.UpcallEvent event = Metrics.beginUpcall();
+        try {
+            return Natives.games.get(gameID).getHumanMove(gameID, side);
+        } finally {
+            Metrics.endUpcall(event, Metrics.HUMAN_MOVE, gameID, start);
         }
     }
 
@@ -0,0 +1,236 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.troy.chess.Natives.GameType;
+import com.troy.chess.engine.FenReader;
+import com.troy.chess.engine.FenRecord;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.MoveGenerator;
+import com.troy.chess.engine.Perft;
+import com.troy.chess.engine.Position;
+
+/**
+ * Headless perft and divide for checking move generation. Every position is
+ * counted to --depth with the Java MoveGenerator, its root moves split across
+ * --threads, and the count below each root move is printed followed by the
+ * total and nodes/sec.
+ *
+ * Positions come from --fen (quoted as one argument) and --file, one FEN or EPD
+ * per line, or default to the start position of --variant. EPD lines with a
+ * D&lt;depth&gt; operation, as in the usual perft suites, are checked against it.
+ *
+ * With --native every total is counted again by GigaChess through
+ * Natives.perft, if the loaded library exports it. The current GigaChess does
+ * not, in which case only the Java counts are checked. When the two differ the root moves are compared one at a time
+ * and the first one that differs is followed down until the position where
+ * the generators disagree about the legal moves is found.
+ *
+ * Usage: PerftRunner [--depth N] [--threads N] [--variant chess|contrasting_chess]
+ * [--fen FEN] [--file FILE] [--native]
+ *
+ * Exits with status 1 if any count did not match.
+ */
+public class PerftRunner {
+
+    private int depth = 4;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private GameType variant = GameType.ContrastingChess;
+    private boolean compareNative = false;
+    private final List<String> fens = new ArrayList<>();
+    // The EPD's count at depth for each FEN, or -1
+    private final List<Long> expected = new ArrayList<>();
+
+    private ForkJoinPool pool;
+    private boolean failed;
+
+    public static void main(String[] args) throws Exception {
+        PerftRunner runner = new PerftRunner();
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--depth":
+                runner.depth = Integer.parseInt(args[++i]);
+                break;
+            case "--threads":
+                runner.threads = Integer.parseInt(args[++i]);
+                break;
+            case "--variant":
+                String variant = args[++i];
+                if (variant.equals("chess")) {
+                    runner.variant = GameType.Chess;
+                } else if (variant.equals("contrasting_chess")) {
+                    runner.variant = GameType.ContrastingChess;
+                } else {
+                    throw new IllegalArgumentException("Unknown variant " + variant);
+                }
+                break;
+            case "--fen":
+                runner.fens.add(args[++i]);
+                runner.expected.add(-1L);
+                break;
+            case "--file":
+                files.add(args[++i]);
+                break;
+            case "--native":
+                runner.compareNative = true;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        for (String file : files) {
+            runner.readFile(file);
+        }
+        if (runner.fens.isEmpty()) {
+            runner.fens.add(new Position(runner.variant).toFen());
+            runner.expected.add(-1L);
+        }
+        runner.run();
+        System.exit(runner.failed ? 1 : 0);
+    }
+
+    private void readFile(String file) throws IOException {
+        FenRecord record = new FenRecord();
+        Position position = new Position(GameType.Chess);
+        StringBuilder operations = new StringBuilder();
+        try (FenReader reader = FenReader.open(Paths.get(file))) {
+            while (reader.next(record)) {
+                position.load(record);
+                operations.setLength(0);
+                reader.appendOperations(record, operations);
+                this.fens.add(position.toFen());
+                this.expected.add(expectedCount(operations.toString()));
+            }
+        }
+    }
+
+    /**
+     * @return The count of a "D4 4085603" style operation for the current depth,
+     *         or -1 if there is none
+     */
+    private long expectedCount(String operations) {
+        String key = "D" + this.depth + " ";
+        for (String operation : operations.split(";")) {
+            operation = operation.trim();
+            if (operation.startsWith(key)) {
+                return Long.parseLong(operation.substring(key.length()).trim());
+            }
+        }
+        return -1;
+    }
+
+    public void run() {
+        if (this.compareNative) {
+            if (Natives.getBackend() != Natives.Backend.Native) {
+                throw new IllegalStateException("--native needs the GigaChess library to be loaded");
+            }
+            Natives.initBackend();
+            try {
+                Natives.perft(new Position(this.variant).toFen(), 0);
+            } catch (UnsatisfiedLinkError e) {
+                System.out.println("GigaChess does not export perft, only the Java counts will be checked");
+                this.compareNative = false;
+            }
+        }
+        this.pool = new ForkJoinPool(this.threads);
+        long nodes = 0;
+        long nanos = 0;
+        for (int i = 0; i < this.fens.size(); i++) {
+            String fen = this.fens.get(i);
+            System.out.println("Position " + (i + 1) + ": " + fen);
+            Position position = new Position(fen);
+            Perft.Result result = Perft.divide(position, this.depth, this.pool);
+            for (int j = 0; j < result.moves.length; j++) {
+                System.out.println("  " + Move.toString(result.moves[j], position.getBoardSize()) + " "
+                        + result.counts[j]);
+            }
+            System.out.printf("Depth %d: %d moves, %d nodes in %d ms, %d nodes/sec%n", this.depth,
+                    result.moves.length, result.nodes, result.nanos / 1000000, result.getNodesPerSecond());
+            nodes += result.nodes;
+            nanos += result.nanos;
+
+            long expected = this.expected.get(i);
+            if (expected != -1 && expected != result.nodes) {
+                System.out.println("MISMATCH: the EPD expects " + expected);
+                this.failed = true;
+            }
+            if (this.compareNative) {
+                compareNative(position, result.nodes);
+            }
+            System.out.println();
+        }
+        if (this.fens.size() > 1) {
+            System.out.printf("%d positions, %d nodes in %d ms, %d nodes/sec%n", this.fens.size(), nodes,
+                    nanos / 1000000, nanos == 0 ? 0 : nodes * 1000000000L / nanos);
+        }
+        this.pool.shutdown();
+    }
+
+    private long nativePerft(String fen, int depth) {
+        long nodes = Natives.perft(fen, depth);
+        if (nodes < 0) {
+            throw new IllegalStateException("GigaChess could not read " + fen);
+        }
+        return nodes;
+    }
+
+    private void compareNative(Position position, long javaNodes) {
+        long start = System.nanoTime();
+        long nativeNodes = nativePerft(position.toFen(), this.depth);
+        long nanos = System.nanoTime() - start;
+        System.out.printf("Native: %d nodes in %d ms, %d nodes/sec%n", nativeNodes, nanos / 1000000,
+                nanos == 0 ? 0 : nativeNodes * 1000000000L / nanos);
+        if (nativeNodes != javaNodes) {
+            System.out.println("MISMATCH: Java counted " + javaNodes);
+            this.failed = true;
+            findDivergence(position);
+        }
+    }
+
+    /**
+     * Follows the first root move whose counts differ down the tree, for a
+     * position whose totals already differ. Stops where the generators disagree
+     * about which moves are legal. Leaves the position at that point
+     */
+    private void findDivergence(Position position) {
+        int size = position.getBoardSize();
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        StringBuilder line = new StringBuilder();
+        for (int depth = this.depth; depth > 1; depth--) {
+            Perft.Result result = Perft.divide(position, depth, this.pool);
+            int different = -1;
+            for (int i = 0; i < result.moves.length && different == -1; i++) {
+                position.makeMove(result.moves[i]);
+                long nativeNodes = nativePerft(position.toFen(), depth - 1);
+                position.unmakeMove();
+                if (nativeNodes != result.counts[i]) {
+                    different = i;
+                    System.out.println("  " + line + Move.toString(result.moves[i], size) + ": Java "
+                            + result.counts[i] + ", native " + nativeNodes);
+                }
+            }
+            if (different == -1) {
+                // The counts below every move Java knows match, so the moves differ
+                break;
+            }
+            position.makeMove(result.moves[different]);
+            line.append(Move.toString(result.moves[different], size)).append(' ');
+        }
+
+        int count = MoveGenerator.generateLegal(position, legal, 0);
+        StringBuilder moves = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            moves.append(' ').append(Move.toString(legal[i], size));
+        }
+        String after = line.length() == 0 ? "the root" : line.toString().trim();
+        System.out.println("First difference at " + position.toFen() + " after " + after);
+        System.out.println("  Java has " + count + " legal moves, native " + nativePerft(position.toFen(), 1) + ":"
+                + moves);
+    }
+
+}
@@ -0,0 +1,558 @@
+package com.troy.chess;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import com.troy.chess.Natives.GameType;
+import com.troy.chess.engine.FenRecord;
+import com.troy.chess.engine.GameArchive;
+import com.troy.chess.engine.JavaGame;
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.MoveGenerator;
+import com.troy.chess.engine.Notation;
+import com.troy.chess.engine.Piece;
+import com.troy.chess.engine.Position;
+
+/**
+ * Appends games to a PGN file from a background thread.
+ *
+ * A GameRecorder passed to start queues each ply as soon as it is final, so a
+ * game thread only ever adds to a queue. Replaying the moves, writing them in
+ * SAN and the file IO all happen on the writer thread, which handles everything
+ * that queued up while it was busy as one batch and flushes once per batch.
+ *
+ * Games that have not finished are journalled to a .partial file next to the
+ * PGN file: a line when a game starts, one per ply and one when it is written
+ * out. Lines are appended at most once per PARTIAL_MILLIS, so checkpointing
+ * costs only the plies played since the last flush. The journal is deleted
+ * whenever no game is going and rewritten with just the live games once it has
+ * grown well past them. Whatever games it holds when the writer is next opened,
+ * from a JVM that was killed, are replayed and appended to the PGN file with
+ * result *, as is any game still going when the writer is closed.
+ *
+ * 10x10 games get a Variant tag, a FEN tag holding the starting position and
+ * squares that run up to j10, see Notation.
+ */
+public class PgnWriter implements Closeable {
+
+    private static final String[] RESULTS = { "1-0", "0-1", "1/2-1/2", "*", "*" };
+    private static final int LINE_LENGTH = 80;
+    private static final long PARTIAL_MILLIS = 1000;
+    // Lines the journal may hold beyond two per live ply before it is rewritten
+    private static final long PARTIAL_SLACK = 4096;
+
+    // Outcome of a game that has not finished
+    private static final int UNFINISHED = -1;
+
+    private static PgnWriter defaultWriter;
+    private static boolean defaultFailed;
+
+    /**
+     * A game handed out by start. The names are set by the game thread before
+     * the game is first queued, everything else belongs to the writer thread
+     */
+    static class Game {
+        final int gameID;
+        final int gameType;
+        final String white;
+        final String black;
+
+        Position position;
+        String startFen;
+        int boardSize;
+        final List<String> moves = new ArrayList<>();
+        // Plies after the first one that could not be replayed, as coordinates
+        final List<Short> unreplayable = new ArrayList<>();
+        // Every ply as packed by GameArchive.packMove, to rewrite the journal with
+        short[] plies = new short[64];
+        int plyCount;
+        // Names the game in the journal, unlike gameID it is unique per writer
+        int journalID;
+        int outcome = UNFINISHED;
+        long endMillis;
+
+        Game(int gameID, int gameType, String white, String black) {
+            this.gameID = gameID;
+            this.gameType = gameType;
+            this.white = white;
+            this.black = black;
+        }
+    }
+
+    /**
+     * One thing for the writer thread to do
+     */
+    private static class Entry {
+        final Game game;
+        // The starting position, only on a game's first entry
+        final FenRecord start;
+        // Packed by GameArchive.packMove, only if ply is true
+        final short move;
+        final boolean ply;
+        final int outcome;
+
+        Entry(Game game, FenRecord start, short move, boolean ply, int outcome) {
+            this.game = game;
+            this.start = start;
+            this.move = move;
+            this.ply = ply;
+            this.outcome = outcome;
+        }
+    }
+
+    // Queued by close() to stop the writer thread once everything before it is written
+    private static final Entry END = new Entry(null, null, (short) 0, false, UNFINISHED);
+
+    private final Path file;
+    private final Path partialFile;
+    private final Writer writer;
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Only used on the writer thread
+    private final Set<Game> live = new LinkedHashSet<>();
+    private int nextJournalID;
+    private long livePlies;
+    private Writer partial;
+    // Journal lines not yet appended to the .partial file
+    private final StringBuilder journal = new StringBuilder();
+    // Lines in the .partial file and the journal together
+    private long journalLines;
+    private boolean partialStale;
+    private long partialWritten;
+    private final int[] buffer = new int[2 * MoveGenerator.MAX_MOVES];
+    private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd");
+
+    /**
+     * @return The writer games shown in the UI are saved with, appending to
+     *         -Dcontrasting_chess.pgn_file or ~/.contrasting_chess/games.pgn. Null
+     *         if the file can't be opened
+     */
+    public static synchronized PgnWriter getDefault() {
+        if (defaultWriter == null && !defaultFailed) {
+            String property = System.getProperty("contrasting_chess.pgn_file");
+            Path file = property != null ? Paths.get(property)
+                    : Paths.get(System.getProperty("user.home"), ".contrasting_chess", "games.pgn");
+            try {
+                defaultWriter = new PgnWriter(file);
+            } catch (IOException e) {
+                System.out.println("Failed to open " + file + ", games will not be saved: " + e);
+                defaultFailed = true;
+            }
+        }
+        return defaultWriter;
+    }
+
+    /**
+     * Flushes and closes the default writer if it was ever opened
+     */
+    public static synchronized void closeDefault() {
+        if (defaultWriter != null) {
+            defaultWriter.close();
+        }
+    }
+
+    public PgnWriter(Path file) throws IOException {
+        this.file = file;
+        Path parent = file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+        this.partialFile = file.resolveSibling(file.getFileName() + ".partial");
+        this.writer = new BufferedWriter(Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 1 << 16);
+        if (Files.exists(this.partialFile)) {
+            // Left by a JVM that did not close its writer
+            recover();
+        }
+        this.thread = new Thread(this::run, "PGN Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public Path getFile() {
+        return this.file;
+    }
+
+    /**
+     * Has the recorder queue every ply of its game as soon as it is final. Call
+     * before the game starts and finish it with write
+     */
+    public void start(GameRecorder recorder, int gameID, int gameType, String white, String black) {
+        recorder.streamTo(this, new Game(gameID, gameType, white, black));
+    }
+
+    /**
+     * Queues the end of a game to be written. If it was not passed to start,
+     * every ply is queued now. The recorder must not be used again
+     *
+     * @param outcome One of the JavaGame outcome constants
+     */
+    public void write(int gameID, int gameType, String white, String black, GameRecorder recorder, int outcome) {
+        if (!recorder.isStreaming()) {
+            start(recorder, gameID, gameType, white, black);
+        }
+        recorder.finishStream(outcome);
+    }
+
+    /**
+     * Called by GameRecorder on its game's thread
+     *
+     * @param start The starting position for the game's first entry, else null
+     */
+    void queuePly(Game game, FenRecord start, short move) {
+        queue(new Entry(game, start, move, true, UNFINISHED));
+    }
+
+    void queueEnd(Game game, FenRecord start, int outcome) {
+        queue(new Entry(game, start, (short) 0, false, outcome));
+    }
+
+    private void queue(Entry entry) {
+        if (this.closed) {
+            if (entry.outcome != UNFINISHED) {
+                System.out.println("Game " + entry.game.gameID + " finished after " + this.file + " was closed");
+            }
+            return;
+        }
+        this.queue.add(entry);
+    }
+
+    private void run() {
+        List<Entry> batch = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        boolean running = true;
+        while (running) {
+            try {
+                Entry first;
+                if (this.partialStale) {
+                    long wait = this.partialWritten + PARTIAL_MILLIS - System.currentTimeMillis();
+                    first = this.queue.poll(Math.max(wait, 0), TimeUnit.MILLISECONDS);
+                } else {
+                    first = this.queue.take();
+                }
+                if (first != null) {
+                    batch.add(first);
+                }
+            } catch (InterruptedException e) {
+                break;
+            }
+            this.queue.drainTo(batch);
+            try {
+                for (Entry entry : batch) {
+                    if (entry == END) {
+                        running = false;
+                        break;
+                    }
+                    sb.setLength(0);
+                    if (apply(entry, sb)) {
+                        this.writer.write(sb.toString());
+                    }
+                }
+                if (!running) {
+                    // Games still going are saved as they are
+                    for (Game game : this.live) {
+                        sb.setLength(0);
+                        append(sb, game);
+                        this.writer.write(sb.toString());
+                    }
+                    this.live.clear();
+                    this.livePlies = 0;
+                    // Nothing is left to recover
+                    this.partialStale = true;
+                }
+                this.writer.flush();
+                if (this.partialStale
+                        && (!running || System.currentTimeMillis() - this.partialWritten >= PARTIAL_MILLIS)) {
+                    writePartial();
+                }
+            } catch (IOException | RuntimeException e) {
+                System.out.println("Failed to write games to " + this.file);
+                e.printStackTrace();
+            }
+            batch.clear();
+        }
+        try {
+            closePartial();
+            this.writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Replays the journal in the .partial file and appends the games it left
+     * going to the PGN file with result *
+     */
+    private void recover() throws IOException {
+        Map<Integer, Game> games = new LinkedHashMap<>();
+        String text = new String(Files.readAllBytes(this.partialFile), StandardCharsets.UTF_8);
+        for (String line : text.split("\n")) {
+            String[] fields = line.split("\t", -1);
+            try {
+                switch (fields[0]) {
+                case "S":
+                    Game game = new Game(Integer.parseInt(fields[2]), Integer.parseInt(fields[3]), fields[5], fields[6]);
+                    game.position = new Position(fields[4]);
+                    game.startFen = fields[4];
+                    game.boardSize = game.position.getBoardSize();
+                    games.put(Integer.parseInt(fields[1]), game);
+                    break;
+                case "P":
+                    Game played = games.get(Integer.parseInt(fields[1]));
+                    if (played != null) {
+                        addPly(played, (short) Integer.parseInt(fields[2]));
+                    }
+                    break;
+                case "E":
+                    games.remove(Integer.parseInt(fields[1]));
+                    break;
+                default:
+                    break;
+                }
+            } catch (RuntimeException e) {
+                // The last line may have been cut off when the JVM died
+                System.out.println("Skipping journal line \"" + line + "\" in " + this.partialFile + ": " + e);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Game game : games.values()) {
+            append(sb, game);
+        }
+        this.writer.write(sb.toString());
+        this.writer.flush();
+        Files.delete(this.partialFile);
+        System.out.println("Saved " + games.size() + " unfinished games from " + this.partialFile + " to " + this.file);
+    }
+
+    /**
+     * Replays an entry onto its game
+     *
+     * @return True if it finished the game and sb holds it
+     */
+    private boolean apply(Entry entry, StringBuilder sb) {
+        Game game = entry.game;
+        if (entry.start != null) {
+            game.position = new Position(GameType.Chess);
+            game.position.load(entry.start);
+            game.startFen = game.position.toFen();
+            game.boardSize = entry.start.size;
+            game.journalID = this.nextJournalID++;
+            this.live.add(game);
+            journalStart(game);
+        }
+        this.partialStale = true;
+        if (entry.ply) {
+            addPly(game, entry.move);
+            this.livePlies++;
+            journalPly(game, entry.move);
+            return false;
+        }
+        game.outcome = entry.outcome;
+        game.endMillis = System.currentTimeMillis();
+        this.live.remove(game);
+        this.livePlies -= game.plyCount;
+        this.journal.append("E\t").append(game.journalID).append('\n');
+        this.journalLines++;
+        append(sb, game);
+        return true;
+    }
+
+    private void journalStart(Game game) {
+        this.journal.append("S\t").append(game.journalID).append('\t').append(game.gameID);
+        this.journal.append('\t').append(game.gameType).append('\t').append(game.startFen);
+        this.journal.append('\t').append(journalField(game.white));
+        this.journal.append('\t').append(journalField(game.black)).append('\n');
+        this.journalLines++;
+    }
+
+    private void journalPly(Game game, short packed) {
+        this.journal.append("P\t").append(game.journalID).append('\t').append(packed).append('\n');
+        this.journalLines++;
+    }
+
+    private static String journalField(String value) {
+        return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+
+    private void addPly(Game game, short packed) {
+        if (game.plyCount == game.plies.length) {
+            game.plies = Arrays.copyOf(game.plies, game.plyCount * 2);
+        }
+        game.plies[game.plyCount++] = packed;
+        if (game.unreplayable.isEmpty()) {
+            Position p = game.position;
+            int move = MoveGenerator.findLegal(p, GameArchive.moveSource(packed), GameArchive.moveDestination(packed),
+                    GameArchive.movePromotion(packed), this.buffer);
+            if (move != Move.NONE) {
+                game.moves.add(Notation.toSan(p, move, this.buffer));
+                p.makeMove(move);
+                return;
+            }
+        }
+        game.unreplayable.add(packed);
+    }
+
+    /**
+     * Appends the journal lines since the last call to the .partial file. Deletes
+     * it if no game is going, or rewrites it with only the live games once most
+     * of its lines are for games already written out
+     */
+    private void writePartial() throws IOException {
+        this.partialStale = false;
+        this.partialWritten = System.currentTimeMillis();
+        if (this.live.isEmpty()) {
+            closePartial();
+            this.journal.setLength(0);
+            this.journalLines = 0;
+            Files.deleteIfExists(this.partialFile);
+            return;
+        }
+        if (this.journalLines > 2 * (this.livePlies + this.live.size()) + PARTIAL_SLACK) {
+            closePartial();
+            this.journal.setLength(0);
+            this.journalLines = 0;
+            for (Game game : this.live) {
+                journalStart(game);
+                for (int i = 0; i < game.plyCount; i++) {
+                    journalPly(game, game.plies[i]);
+                }
+            }
+            Path temp = this.partialFile.resolveSibling(this.partialFile.getFileName() + ".tmp");
+            Files.write(temp, this.journal.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(temp, this.partialFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            this.journal.setLength(0);
+            return;
+        }
+        if (this.partial == null) {
+            this.partial = Files.newBufferedWriter(this.partialFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                    StandardOpenOption.APPEND);
+        }
+        this.partial.append(this.journal);
+        this.partial.flush();
+        this.journal.setLength(0);
+    }
+
+    private void closePartial() throws IOException {
+        if (this.partial != null) {
+            this.partial.close();
+            this.partial = null;
+        }
+    }
+
+    private void append(StringBuilder sb, Game game) {
+        Position p = game.position;
+        List<String> moves = game.moves;
+        String result = game.outcome == UNFINISHED ? "*" : RESULTS[game.outcome];
+        // The result of a native game is only known from where it ended
+        if (game.outcome == JavaGame.UNKNOWN && game.unreplayable.isEmpty()
+                && MoveGenerator.generateLegal(p, this.buffer, 0) == 0) {
+            result = !p.inCheck() ? "1/2-1/2" : p.getSideToMove() == Piece.WHITE ? "0-1" : "1-0";
+        }
+        String startFen = game.startFen;
+
+        tag(sb, "Event", "Contrasting Chess game");
+        tag(sb, "Site", "?");
+        long millis = game.outcome == UNFINISHED ? System.currentTimeMillis() : game.endMillis;
+        tag(sb, "Date", this.dateFormat.format(new Date(millis)));
+        tag(sb, "Round", "-");
+        tag(sb, "White", game.white);
+        tag(sb, "Black", game.black);
+        tag(sb, "Result", result);
+        tag(sb, "GameId", Integer.toString(game.gameID));
+        if (game.gameType != GameType.Chess.ordinal() || !startFen.equals(Position.CHESS_START)) {
+            tag(sb, "Variant", GameType.values()[game.gameType].name());
+            tag(sb, "SetUp", "1");
+            tag(sb, "FEN", startFen);
+        }
+        tag(sb, "PlyCount", Integer.toString(game.plyCount));
+        if (game.outcome == JavaGame.ABORTED) {
+            tag(sb, "Termination", "abandoned");
+        } else if (game.outcome == UNFINISHED) {
+            tag(sb, "Termination", "unterminated");
+        }
+        sb.append('\n');
+
+        int lineStart = sb.length();
+        for (int i = 0; i < moves.size(); i++) {
+            // Keep move numbers on the same line as white's move
+            String move = i % 2 == 0 ? (i / 2 + 1) + ". " + moves.get(i) : moves.get(i);
+            lineStart = word(sb, lineStart, move);
+        }
+        if (!game.unreplayable.isEmpty()) {
+            // Keep what could not be replayed as plain coordinates
+            StringBuilder rest = new StringBuilder("{Unreplayable moves:");
+            for (short packed : game.unreplayable) {
+                rest.append(' ');
+                Move.appendSquare(rest, GameArchive.moveSource(packed), game.boardSize);
+                Move.appendSquare(rest, GameArchive.moveDestination(packed), game.boardSize);
+            }
+            lineStart = word(sb, lineStart, rest.append('}').toString());
+        }
+        word(sb, lineStart, result);
+        sb.append("\n\n");
+    }
+
+    private static void tag(StringBuilder sb, String name, String value) {
+        sb.append('[').append(name).append(" \"");
+        sb.append(value.replace("\\", "\\\\").replace("\"", "\\\"")).append("\"]\n");
+    }
+
+    /**
+     * Appends a word of movetext, wrapping before LINE_LENGTH
+     *
+     * @return Where the current line starts
+     */
+    private static int word(StringBuilder sb, int lineStart, String word) {
+        if (sb.length() > lineStart) {
+            if (sb.length() - lineStart + 1 + word.length() >= LINE_LENGTH) {
+                sb.append('\n');
+                lineStart = sb.length();
+            } else {
+                sb.append(' ');
+            }
+        }
+        sb.append(word);
+        return lineStart;
+    }
+
+    /**
+     * Writes every game queued so far, including games that have not finished,
+     * and stops the writer thread
+     */
+    @Override
+    public void close() {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+        this.queue.add(END);
+        try {
+            this.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
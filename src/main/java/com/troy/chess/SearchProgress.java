@@ -0,0 +1,61 @@
+package com.troy.chess;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One report of how an engine's search is going, see
+ * GameCallbacks#searchProgress. Never changed once created.
+ *
+ * Reports reach the UI through a Slot that only holds the latest one: a game
+ * thread replaces whatever is there and the FX thread takes it once per frame.
+ * An engine reporting thousands of times a second costs one allocation and one
+ * atomic swap per report, and nothing ever queues up behind the screen.
+ */
+class SearchProgress {
+
+    final int gameID;
+    final int depth;
+    // Centipawns from white's point of view
+    final int score;
+    final long nodes;
+    final long nodesPerSecond;
+    // Source square << 16 | destination square per move
+    final int[] pv;
+
+    SearchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+        this.gameID = gameID;
+        this.depth = depth;
+        this.score = score;
+        this.nodes = nodes;
+        this.nodesPerSecond = nodesPerSecond;
+        this.pv = pv;
+    }
+
+    /**
+     * Holds the most recent report
+     */
+    static class Slot {
+
+        private final AtomicReference<SearchProgress> latest = new AtomicReference<>();
+
+        /**
+         * Replaces the report waiting to be taken, if any. May be called from any
+         * thread
+         *
+         * @param pv Copied, so the caller may reuse it
+         */
+        void publish(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+            this.latest.set(new SearchProgress(gameID, depth, score, nodes, nodesPerSecond, pv.clone()));
+        }
+
+        /**
+         * @return The newest report since the last call, or null if there is none
+         */
+        SearchProgress take() {
+            // A plain read first so frames without a report don't write to the slot
+            return this.latest.get() == null ? null : this.latest.getAndSet(null);
+        }
+
+    }
+
+}
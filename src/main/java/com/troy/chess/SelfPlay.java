@@ -0,0 +1,176 @@
+package com.troy.chess;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.troy.chess.engine.GameArchive;
+import com.troy.chess.engine.JavaGame;
+import com.troy.chess.engine.Move;
+
+/**
+ * Headless entry point that plays many AI vs AI games at once without
+ * starting JavaFX. Each finished game is written as one tab separated line:
+ *
+ * game id, variant, white, black, result, ply count, moves
+ *
+ * Usage: SelfPlay [--games N] [--threads N] [--variant chess|contrasting_chess]
+ * [--white NAME] [--black NAME] [--out FILE] [--archive FILE] [--pgn FILE]
+ *
+ * With --archive every game is also appended to a binary GameArchive, and with
+ * --pgn to a PGN file
+ */
+public class SelfPlay {
+
+    private static final String[] VARIANTS = new String[] { "chess", "contrasting_chess" };
+    private static final String[] RESULTS = new String[] { "1-0", "0-1", "1/2-1/2", "*", "?" };
+
+    private int games = 1000;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int variant = Natives.GameType.ContrastingChess.ordinal();
+    private String white = "random_ai";
+    private String black = "random_ai";
+    private String out = "self_play.tsv";
+    private String archivePath = null;
+    private GameArchive archive;
+    private String pgnPath = null;
+    private PgnWriter pgn;
+
+    private final AtomicInteger finished = new AtomicInteger(0);
+    private final AtomicLong plies = new AtomicLong(0);
+
+    public static void main(String[] args) throws Exception {
+        SelfPlay selfPlay = new SelfPlay();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--games":
+                selfPlay.games = Integer.parseInt(value);
+                break;
+            case "--threads":
+                selfPlay.threads = Integer.parseInt(value);
+                break;
+            case "--variant":
+                selfPlay.variant = Arrays.asList(VARIANTS).indexOf(value);
+                if (selfPlay.variant == -1) {
+                    throw new IllegalArgumentException("Unknown variant " + value);
+                }
+                break;
+            case "--white":
+                selfPlay.white = value;
+                break;
+            case "--black":
+                selfPlay.black = value;
+                break;
+            case "--out":
+                selfPlay.out = value;
+                break;
+            case "--archive":
+                selfPlay.archivePath = value;
+                break;
+            case "--pgn":
+                selfPlay.pgnPath = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        selfPlay.run();
+    }
+
+    public void run() throws IOException, InterruptedException {
+        Natives.initBackend();
+        System.out.println("Playing " + this.games + " games of " + VARIANTS[this.variant] + " on " + this.threads
+                + " threads using the " + Natives.getBackend() + " backend");
+
+        if (this.archivePath != null) {
+            this.archive = GameArchive.open(Paths.get(this.archivePath));
+        }
+        if (this.pgnPath != null) {
+            this.pgn = new PgnWriter(Paths.get(this.pgnPath));
+        }
+
+        long start = System.nanoTime();
+        try (BufferedWriter writer = Files.newBufferedWriter(Paths.get(this.out), StandardCharsets.UTF_8)) {
+            ExecutorService executor = Executors.newFixedThreadPool(this.threads);
+            for (int i = 0; i < this.games; i++) {
+                final int gameID = i + 1;
+                executor.execute(() -> playOne(gameID, writer));
+            }
+            executor.shutdown();
+
+            long lastReport = start;
+            int lastFinished = 0;
+            while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                long now = System.nanoTime();
+                int done = this.finished.get();
+                System.out.printf("%d/%d games, %.1f games/sec%n", done, this.games,
+                        (done - lastFinished) / ((now - lastReport) / 1e9));
+                lastReport = now;
+                lastFinished = done;
+            }
+        } finally {
+            if (this.archive != null) {
+                this.archive.close();
+            }
+            if (this.pgn != null) {
+                this.pgn.close();
+            }
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Finished %d games (%d plies) in %.2f seconds: %.1f games/sec, %.0f plies/sec%n",
+                this.finished.get(), this.plies.get(), seconds, this.finished.get() / seconds,
+                this.plies.get() / seconds);
+    }
+
+    private void playOne(int gameID, Writer writer) {
+        GameRecorder recorder = new GameRecorder(null);
+        int outcome;
+        try {
+            outcome = Natives.playGame(this.white, this.black, this.variant, gameID, recorder);
+        } catch (RuntimeException e) {
+            System.out.println("Game " + gameID + " failed");
+            e.printStackTrace();
+            return;
+        }
+
+        StringBuilder line = new StringBuilder();
+        line.append(gameID).append('\t').append(VARIANTS[this.variant]).append('\t');
+        line.append(this.white).append('\t').append(this.black).append('\t');
+        line.append(RESULTS[outcome]).append('\t').append(recorder.count).append('\t');
+        for (int i = 0; i < recorder.count; i++) {
+            if (i != 0) {
+                line.append(' ');
+            }
+            Move.appendSquare(line, GameArchive.moveSource(recorder.moves[i]), recorder.boardSize);
+            Move.appendSquare(line, GameArchive.moveDestination(recorder.moves[i]), recorder.boardSize);
+        }
+        line.append('\n');
+
+        try {
+            synchronized (writer) {
+                writer.write(line.toString());
+            }
+            if (this.archive != null) {
+                this.archive.append(this.variant, outcome, recorder.boardSize, null, recorder.moves, recorder.count);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        this.plies.addAndGet(recorder.count);
+        this.finished.incrementAndGet();
+        if (this.pgn != null) {
+            this.pgn.write(gameID, this.variant, this.white, this.black, recorder, outcome);
+        }
+    }
+
+}
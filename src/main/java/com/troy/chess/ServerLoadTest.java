@@ -0,0 +1,272 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.troy.chess.engine.Move;
+import com.troy.chess.engine.MoveGenerator;
+import com.troy.chess.engine.Position;
+
+/**
+ * Plays random human moves against a running GameServer from many connections
+ * at once and reports how fast the server answers.
+ *
+ * Every connection keeps --games games going, starting a new one whenever one
+ * ends, with the client as white against --opponent. Like the server it runs
+ * every connection from one selector thread. Once a second it prints the move
+ * rate and two latencies over that second: echo, from sending MOVE to the
+ * server echoing it back, and turn, from sending MOVE to the next TURN once the
+ * opponent has replied. At the end the server's own STATS line is printed.
+ *
+ * Usage: ServerLoadTest [--port N] [--connections N] [--games N] [--seconds N]
+ * [--variant chess|contrasting_chess] [--opponent NAME]
+ */
+public class ServerLoadTest {
+
+    private int port = 7878;
+    private int connectionCount = 100;
+    private int gamesPerConnection = 10;
+    private int seconds = 30;
+    private String variant = "contrasting_chess";
+    private String opponent = "random_ai";
+
+    private Selector selector;
+    private final List<LineChannel> unflushed = new ArrayList<>();
+    private final List<Client> clients = new ArrayList<>();
+    private boolean stopping;
+    private String serverStats;
+
+    private int open;
+    private long gamesFinished;
+    private long movesSeen;
+    private long errors;
+    private final LatencyHistogram echoLatency = new LatencyHistogram();
+    private final LatencyHistogram turnLatency = new LatencyHistogram();
+    // The same for the last second only
+    private final LatencyHistogram echoWindow = new LatencyHistogram();
+    private final LatencyHistogram turnWindow = new LatencyHistogram();
+
+    private static class ClientGame {
+        final Position position;
+        final int[] legal = new int[MoveGenerator.MAX_MOVES];
+        long sentNanos;
+        String sent;
+
+        ClientGame(String fen) {
+            this.position = new Position(fen);
+        }
+    }
+
+    private class Client extends LineChannel {
+
+        final Map<Integer, ClientGame> games = new HashMap<>();
+
+        Client(SocketChannel channel) throws IOException {
+            super(channel, ServerLoadTest.this.selector, ServerLoadTest.this.unflushed);
+        }
+
+        void newGame() {
+            send("NEW " + ServerLoadTest.this.variant + " human " + ServerLoadTest.this.opponent);
+        }
+
+        @Override
+        protected void onLine(String line) {
+            String[] parts = line.split(" ", 3);
+            long now = System.nanoTime();
+            switch (parts[0]) {
+            case "GAME":
+                this.games.put(Integer.parseInt(parts[1]), new ClientGame(parts[2]));
+                break;
+            case "MOVE": {
+                ClientGame game = this.games.get(Integer.parseInt(parts[1]));
+                if (parts[2].equals(game.sent)) {
+                    ServerLoadTest.this.echoLatency.record(now - game.sentNanos);
+                    ServerLoadTest.this.echoWindow.record(now - game.sentNanos);
+                    game.sent = null;
+                }
+                game.position.makeMove(parse(game, parts[2]));
+                ServerLoadTest.this.movesSeen++;
+                break;
+            }
+            case "TURN": {
+                ClientGame game = this.games.get(Integer.parseInt(parts[1]));
+                if (game.sentNanos != 0) {
+                    ServerLoadTest.this.turnLatency.record(now - game.sentNanos);
+                    ServerLoadTest.this.turnWindow.record(now - game.sentNanos);
+                }
+                int count = MoveGenerator.generateLegal(game.position, game.legal, 0);
+                int move = game.legal[ThreadLocalRandom.current().nextInt(count)];
+                game.sent = Move.toString(move, game.position.getBoardSize());
+                game.sentNanos = System.nanoTime();
+                send("MOVE " + parts[1] + " " + game.sent);
+                break;
+            }
+            case "END":
+                this.games.remove(Integer.parseInt(parts[1]));
+                ServerLoadTest.this.gamesFinished++;
+                if (!ServerLoadTest.this.stopping) {
+                    newGame();
+                }
+                break;
+            case "STATS":
+                ServerLoadTest.this.serverStats = line;
+                break;
+            default:
+                ServerLoadTest.this.errors++;
+                if (ServerLoadTest.this.errors <= 10) {
+                    System.out.println("Server said: " + line);
+                }
+                break;
+            }
+        }
+
+        @Override
+        void close() {
+            if (!isClosed()) {
+                super.close();
+                ServerLoadTest.this.open--;
+            }
+        }
+
+    }
+
+    public static void main(String[] args) throws Exception {
+        ServerLoadTest test = new ServerLoadTest();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            String value = args[i + 1];
+            switch (args[i]) {
+            case "--port":
+                test.port = Integer.parseInt(value);
+                break;
+            case "--connections":
+                test.connectionCount = Integer.parseInt(value);
+                break;
+            case "--games":
+                test.gamesPerConnection = Integer.parseInt(value);
+                break;
+            case "--seconds":
+                test.seconds = Integer.parseInt(value);
+                break;
+            case "--variant":
+                test.variant = value;
+                break;
+            case "--opponent":
+                test.opponent = value;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        test.run();
+    }
+
+    /**
+     * Finds the move the server sent among the legal moves, the same way the
+     * server matches MOVE commands
+     */
+    private static int parse(ClientGame game, String text) {
+        int count = MoveGenerator.generateLegal(game.position, game.legal, 0);
+        for (int i = 0; i < count; i++) {
+            if (Move.toString(game.legal[i], game.position.getBoardSize()).equals(text)) {
+                return game.legal[i];
+            }
+        }
+        throw new IllegalStateException("Server played " + text + " which is not legal in "
+                + game.position.toFen());
+    }
+
+    public void run() throws IOException {
+        this.selector = Selector.open();
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port);
+        long connectStart = System.nanoTime();
+        for (int i = 0; i < this.connectionCount; i++) {
+            Client client = new Client(SocketChannel.open(address));
+            this.clients.add(client);
+            this.open++;
+            for (int j = 0; j < this.gamesPerConnection; j++) {
+                client.newGame();
+            }
+        }
+        System.out.printf("Opened %d connections in %d ms, playing %d games at a time for %d seconds%n",
+                this.connectionCount, (System.nanoTime() - connectStart) / 1000000,
+                this.connectionCount * this.gamesPerConnection, this.seconds);
+
+        long start = System.nanoTime();
+        long end = start + this.seconds * 1_000_000_000L;
+        long nextReport = start + 1_000_000_000L;
+        long lastMoves = 0;
+        long totalMoves = 0;
+        while (this.open > 0) {
+            long now = System.nanoTime();
+            if (now >= nextReport) {
+                System.out.printf("%d connections, %d games finished, %d moves/sec, echo p50 %d us p99 %d us,"
+                        + " turn p50 %d us p99 %d us, %d errors%n", this.open, this.gamesFinished,
+                        this.movesSeen - lastMoves, this.echoWindow.getPercentileNanos(0.5) / 1000,
+                        this.echoWindow.getPercentileNanos(0.99) / 1000,
+                        this.turnWindow.getPercentileNanos(0.5) / 1000,
+                        this.turnWindow.getPercentileNanos(0.99) / 1000, this.errors);
+                lastMoves = this.movesSeen;
+                this.echoWindow.reset();
+                this.turnWindow.reset();
+                nextReport += 1_000_000_000L;
+            }
+            if (now >= end && !this.stopping) {
+                // Ask for the server's view while every connection is still busy
+                this.stopping = true;
+                totalMoves = this.movesSeen;
+                this.clients.get(0).send("STATS");
+            }
+            if (this.stopping && this.serverStats != null) {
+                for (Client client : this.clients) {
+                    client.send("QUIT");
+                }
+                LineChannel.flushAll(this.unflushed);
+                for (Client client : this.clients) {
+                    client.close();
+                }
+                break;
+            }
+
+            this.selector.select(Math.max(1, (nextReport - System.nanoTime()) / 1000000));
+            Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Client client = (Client) key.attachment();
+                try {
+                    if (key.isValid() && key.isReadable() && !client.read()) {
+                        client.close();
+                        continue;
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        client.flush();
+                    }
+                } catch (IOException e) {
+                    System.out.println("Connection failed: " + e);
+                    client.close();
+                }
+            }
+            LineChannel.flushAll(this.unflushed);
+        }
+
+        double elapsed = Math.max(1, this.seconds);
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%d games finished, %.0f moves/sec, %d errors", this.gamesFinished,
+                totalMoves / elapsed, this.errors));
+        this.echoLatency.appendTo(sb, "echo");
+        this.turnLatency.appendTo(sb, "turn");
+        System.out.println(sb);
+        System.out.println("Server " + this.serverStats);
+    }
+
+}
@@ -0,0 +1,260 @@
+package com.troy.chess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Generates black versions of the piece images that have no _black.png and
+ * caches them on disk, so they are only built once per set of source images.
+ *
+ * All generated sprites are packed into one atlas file named after a hash of
+ * the white images they came from, so editing an image simply misses the
+ * cache. The file lives in LibraryLoader.getCacheDirectory and holds a magic,
+ * the sprite count, the piece number, width and height of every sprite, then
+ * every sprite's ARGB pixels in the same order.
+ */
+class SpriteAtlas {
+
+    private static final long MAGIC = 0x4343535052495445L; // "CCSPRITE"
+
+    /**
+     * Part of the cache key. Bump when makeBlackPixels changes so old atlases are
+     * not used
+     */
+    private static final int VERSION = 1;
+
+    private static final int BLACK = 0xFF000000;
+
+    /**
+     * Fills every null entry of blackPieces whose white piece exists, from the
+     * cached atlas if it is up to date or by generating the sprites otherwise
+     *
+     * @param names The resource names of the pieces, see Main.IMAGE_NAMES
+     */
+    static void fillBlackPieces(String[] names, List<Image> whitePieces, List<Image> blackPieces) {
+        int[] missing = IntStream.range(0, whitePieces.size())
+                .filter(i -> whitePieces.get(i) != null && blackPieces.get(i) == null).toArray();
+        if (missing.length == 0) {
+            return;
+        }
+
+        Path file = null;
+        try {
+            file = LibraryLoader.getCacheDirectory().resolve("black_sprites_" + hash(names, missing) + ".atlas");
+            if (Files.isRegularFile(file) && read(file, missing, blackPieces)) {
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Failed to read sprite cache " + file);
+            e.printStackTrace();
+        }
+
+        long start = System.nanoTime();
+        int[][] pixels = new int[missing.length][];
+        int[] widths = new int[missing.length];
+        int[] heights = new int[missing.length];
+        for (int i = 0; i < missing.length; i++) {
+            Image white = whitePieces.get(missing[i]);
+            widths[i] = (int) white.getWidth();
+            heights[i] = (int) white.getHeight();
+            pixels[i] = getPixels(white);
+        }
+        // Sprites are independent so each one gets its own core
+        IntStream.range(0, missing.length).parallel()
+                .forEach(i -> makeBlackPixels(pixels[i], widths[i], heights[i]));
+        for (int i = 0; i < missing.length; i++) {
+            blackPieces.set(missing[i], toImage(pixels[i], 0, widths[i], heights[i]));
+        }
+        System.out.println("Generated " + missing.length + " black sprites in "
+                + (System.nanoTime() - start) / 1000000 + " ms");
+
+        if (file != null) {
+            try {
+                write(file, missing, pixels, widths, heights);
+            } catch (IOException e) {
+                System.out.println("Failed to write sprite cache " + file);
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Creates a black version of a white piece image. See makeBlackPixels
+     */
+    static WritableImage makeBlackPiece(Image whitePiece) {
+        int w = (int) whitePiece.getWidth();
+        int h = (int) whitePiece.getHeight();
+        int[] pixels = getPixels(whitePiece);
+        makeBlackPixels(pixels, w, h);
+        return toImage(pixels, 0, w, h);
+    }
+
+    /**
+     * Turns the ARGB pixels of a white piece into a black piece by inverting its
+     * colors and then blacking out the now white border around it
+     */
+    static void makeBlackPixels(int[] pixels, int w, int h) {
+        for (int i = 0; i < pixels.length; i++) {
+            // Invert red, green and blue but keep alpha
+            pixels[i] ^= 0x00FFFFFF;
+        }
+        // We also want to make the now white boarders on the piece also black
+        // So use a simple flood fill from the corner to find accessible pixels and
+        // make them black. Pixels are marked when queued so each is queued once
+        BitSet visited = new BitSet(w * h);
+        int[] todo = new int[w * h];
+        int size = 0;
+        todo[size++] = 0;
+        visited.set(0);
+        while (size > 0) {
+            int pos = todo[--size];
+            int color = pixels[pos];
+            if (color == BLACK) {
+                // Don't touch black that we just inverted
+                continue;
+            }
+            if ((color >>> 24) != 0) {
+                pixels[pos] = BLACK;
+            }
+            int x = pos % w;
+            int y = pos / w;
+            if (x + 1 < w && !visited.get(pos + 1)) {
+                visited.set(pos + 1);
+                todo[size++] = pos + 1;
+            }
+            if (y + 1 < h && !visited.get(pos + w)) {
+                visited.set(pos + w);
+                todo[size++] = pos + w;
+            }
+            if (x > 0 && !visited.get(pos - 1)) {
+                visited.set(pos - 1);
+                todo[size++] = pos - 1;
+            }
+            if (y > 0 && !visited.get(pos - w)) {
+                visited.set(pos - w);
+                todo[size++] = pos - w;
+            }
+        }
+    }
+
+    private static int[] getPixels(Image image) {
+        int w = (int) image.getWidth();
+        int h = (int) image.getHeight();
+        int[] pixels = new int[w * h];
+        image.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, 0, w);
+        return pixels;
+    }
+
+    private static WritableImage toImage(int[] pixels, int offset, int w, int h) {
+        WritableImage image = new WritableImage(w, h);
+        image.getPixelWriter().setPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), pixels, offset, w);
+        return image;
+    }
+
+    private static String hash(String[] names, int[] pieces) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        digest.update((byte) VERSION);
+        for (int piece : pieces) {
+            digest.update(names[piece].getBytes());
+            String path = "/contrasting_chess/" + names[piece] + ".png";
+            try (InputStream stream = SpriteAtlas.class.getResourceAsStream(path)) {
+                if (stream == null) {
+                    throw new IOException("Missing image " + names[piece]);
+                }
+                digest.update(stream.readAllBytes());
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        byte[] bytes = digest.digest();
+        // Half the digest is plenty to tell image sets apart
+        for (int i = 0; i < 16; i++) {
+            sb.append(String.format("%02x", bytes[i]));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Loads every sprite with one read of the file and one copy of its pixels
+     *
+     * @return False if the atlas does not hold the expected pieces
+     */
+    private static boolean read(Path file, int[] pieces, List<Image> blackPieces) throws IOException {
+        IntBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file)).asIntBuffer();
+        if (buffer.remaining() < 3 || ((long) buffer.get() << 32 | buffer.get() & 0xFFFFFFFFL) != MAGIC
+                || buffer.get() != pieces.length || buffer.remaining() < pieces.length * 3) {
+            return false;
+        }
+        int[] widths = new int[pieces.length];
+        int[] heights = new int[pieces.length];
+        for (int i = 0; i < pieces.length; i++) {
+            if (buffer.get() != pieces[i]) {
+                return false;
+            }
+            widths[i] = buffer.get();
+            heights[i] = buffer.get();
+        }
+        int[] pixels = new int[buffer.remaining()];
+        buffer.get(pixels);
+
+        int offset = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            offset += widths[i] * heights[i];
+        }
+        if (offset != pixels.length) {
+            return false;
+        }
+        offset = 0;
+        for (int i = 0; i < pieces.length; i++) {
+            blackPieces.set(pieces[i], toImage(pixels, offset, widths[i], heights[i]));
+            offset += widths[i] * heights[i];
+        }
+        return true;
+    }
+
+    private static void write(Path file, int[] pieces, int[][] pixels, int[] widths, int[] heights)
+            throws IOException {
+        int ints = 3 + pieces.length * 3;
+        for (int[] sprite : pixels) {
+            ints += sprite.length;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(ints * 4);
+        IntBuffer buffer = bytes.asIntBuffer();
+        buffer.put((int) (MAGIC >>> 32)).put((int) MAGIC).put(pieces.length);
+        for (int i = 0; i < pieces.length; i++) {
+            buffer.put(pieces[i]).put(widths[i]).put(heights[i]);
+        }
+        for (int[] sprite : pixels) {
+            buffer.put(sprite);
+        }
+
+        // Write then rename so another instance never reads half an atlas
+        Files.createDirectories(file.getParent());
+        Path temp = Files.createTempFile(file.getParent(), "black_sprites", ".tmp");
+        try {
+            Files.write(temp, bytes.array());
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+}
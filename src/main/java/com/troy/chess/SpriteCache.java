@@ -0,0 +1,297 @@
+package com.troy.chess;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.scene.Node;
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+import javafx.scene.image.WritablePixelFormat;
+import javafx.stage.Window;
+
+/**
+ * Piece images rasterized at the size they are drawn, so the board never asks
+ * JavaFX to scale a full size PNG (up to 1401 pixels wide) down to a square.
+ *
+ * Sprites are keyed by their size in physical pixels and built the first time
+ * a piece is drawn at that size. The sizes used most recently are kept and the
+ * rest are evicted, so dragging the window edge around costs a few small
+ * sprites per new size while memory stays flat. Each source image is halved
+ * into a chain of smaller copies once, and sprites are scaled from the
+ * smallest copy that is still at least as large, which keeps building one
+ * cheap even for the biggest images.
+ *
+ * Only used on the FX thread, apart from prepare.
+ */
+public class SpriteCache {
+
+    /**
+     * How many square sizes are kept. A resize needs one, and the rest let the
+     * window be dragged back and forth without rebuilding
+     */
+    static final int MAX_SIZES = 4;
+
+    private static final WritablePixelFormat<IntBuffer> FORMAT = PixelFormat.getIntArgbPreInstance();
+
+    private final List<Image> whitePieces;
+    private final List<Image> blackPieces;
+
+    // Halvings of every source image, built on first use, see Levels
+    private final Levels[][] levels = new Levels[2][];
+
+    // Sprites per pixel size, indexed by color and piece, least recently used first
+    private final LinkedHashMap<Integer, Image[][]> sizes = new LinkedHashMap<Integer, Image[][]>(16, 0.75f,
+            true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Image[][]> eldest) {
+            return size() > MAX_SIZES;
+        }
+    };
+
+    /**
+     * The premultiplied pixels of a source image followed by copies of half the
+     * width and height of the one before, down to a few pixels
+     */
+    private static class Levels {
+        int count;
+        final int[][] pixels = new int[16][];
+        final int[] widths = new int[16];
+        final int[] heights = new int[16];
+
+        Levels(Image image) {
+            int w = (int) image.getWidth();
+            int h = (int) image.getHeight();
+            int[] pixels = new int[w * h];
+            image.getPixelReader().getPixels(0, 0, w, h, FORMAT, pixels, 0, w);
+            add(pixels, w, h);
+            while (w > 8 && h > 8 && this.count < this.pixels.length) {
+                int halfW = w / 2;
+                int halfH = h / 2;
+                pixels = resample(pixels, w, h, halfW, halfH);
+                w = halfW;
+                h = halfH;
+                add(pixels, w, h);
+            }
+        }
+
+        private void add(int[] pixels, int w, int h) {
+            this.pixels[this.count] = pixels;
+            this.widths[this.count] = w;
+            this.heights[this.count] = h;
+            this.count++;
+        }
+
+        /**
+         * @return The smallest level at least size pixels in both directions, or the
+         *         source image if it is smaller than that
+         */
+        int levelFor(int size) {
+            int level = 0;
+            while (level + 1 < this.count && this.widths[level + 1] >= size && this.heights[level + 1] >= size) {
+                level++;
+            }
+            return level;
+        }
+    }
+
+    /**
+     * @param whitePieces Read when a sprite is first needed, so they may still be
+     *                    loading when this is created
+     */
+    public SpriteCache(List<Image> whitePieces, List<Image> blackPieces) {
+        this.whitePieces = whitePieces;
+        this.blackPieces = blackPieces;
+    }
+
+    /**
+     * Builds the halved copies of every image ahead of time, which takes around a
+     * hundred milliseconds for the largest ones. Runs off the FX thread once the
+     * images are loaded and before any sprite is asked for
+     */
+    void prepare() {
+        for (int color = 0; color < 2; color++) {
+            List<Image> sources = color == 0 ? this.whitePieces : this.blackPieces;
+            for (int piece = 0; piece < sources.size(); piece++) {
+                if (sources.get(piece) != null) {
+                    levels(sources, piece, color);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The width and height in physical pixels of a square squarePX wide on
+     *         the screen node is shown on
+     */
+    public static int pixelSize(Node node, double squarePX) {
+        double scale = 1.0;
+        Window window = node.getScene() == null ? null : node.getScene().getWindow();
+        if (window != null) {
+            scale = window.getOutputScaleX();
+        }
+        return Math.max(1, (int) Math.round(squarePX * scale));
+    }
+
+    /**
+     * @param piece An index into the piece image lists
+     * @param color 0 for white, 1 for black
+     * @param size  The width and height of the sprite in pixels, see pixelSize
+     * @return The piece scaled to size or null if it has no image
+     */
+    public Image get(int piece, int color, int size) {
+        List<Image> sources = color == 0 ? this.whitePieces : this.blackPieces;
+        if (piece >= sources.size() || sources.get(piece) == null) {
+            return null;
+        }
+        Image[][] sprites = this.sizes.get(size);
+        if (sprites == null) {
+            sprites = new Image[2][sources.size()];
+            this.sizes.put(size, sprites);
+        }
+        if (piece >= sprites[color].length) {
+            // The lists only grow while images load
+            sprites[color] = Arrays.copyOf(sprites[color], sources.size());
+        }
+        Image sprite = sprites[color][piece];
+        if (sprite == null) {
+            sprite = build(sources, piece, color, size);
+            sprites[color][piece] = sprite;
+        }
+        return sprite;
+    }
+
+    /**
+     * @return The number of square sizes currently cached
+     */
+    int getCachedSizes() {
+        return this.sizes.size();
+    }
+
+    private Levels levels(List<Image> sources, int piece, int color) {
+        if (this.levels[color] == null || this.levels[color].length < sources.size()) {
+            this.levels[color] = this.levels[color] == null ? new Levels[sources.size()]
+                    : Arrays.copyOf(this.levels[color], sources.size());
+        }
+        Levels levels = this.levels[color][piece];
+        if (levels == null) {
+            levels = new Levels(sources.get(piece));
+            this.levels[color][piece] = levels;
+        }
+        return levels;
+    }
+
+    private Image build(List<Image> sources, int piece, int color, int size) {
+        Levels levels = levels(sources, piece, color);
+        int level = levels.levelFor(size);
+        int[] pixels = resample(levels.pixels[level], levels.widths[level], levels.heights[level], size, size);
+        WritableImage sprite = new WritableImage(size, size);
+        sprite.getPixelWriter().setPixels(0, 0, size, size, FORMAT, pixels, 0, size);
+        return sprite;
+    }
+
+    /**
+     * The source pixels that make up each destination pixel along one axis, and
+     * how much each one counts
+     */
+    private static class Taps {
+        final int[] first;
+        final int count;
+        final float[] weights;
+
+        Taps(int from, int to) {
+            this.first = new int[to];
+            float scale = (float) from / to;
+            if (scale > 1) {
+                // Shrinking averages every source pixel the destination pixel covers,
+                // counting the ones at its edges by how much of them it covers
+                this.count = (int) Math.ceil(scale) + 1;
+                this.weights = new float[to * this.count];
+                for (int i = 0; i < to; i++) {
+                    float start = i * scale;
+                    float end = start + scale;
+                    int first = (int) start;
+                    this.first[i] = first;
+                    for (int j = 0; j < this.count && first + j < from; j++) {
+                        float covered = Math.min(end, first + j + 1) - Math.max(start, first + j);
+                        this.weights[i * this.count + j] = Math.max(0, covered) / scale;
+                    }
+                }
+            } else {
+                // Growing blends the two nearest source pixels
+                this.count = 2;
+                this.weights = new float[to * 2];
+                for (int i = 0; i < to; i++) {
+                    float center = Math.max(0, Math.min(from - 1, (i + 0.5f) * scale - 0.5f));
+                    int first = Math.min((int) center, Math.max(0, from - 2));
+                    float fraction = Math.min(1, center - first);
+                    this.first[i] = first;
+                    this.weights[i * 2] = 1 - fraction;
+                    this.weights[i * 2 + 1] = from > 1 ? fraction : 0;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scales premultiplied ARGB pixels one axis at a time
+     */
+    static int[] resample(int[] src, int sw, int sh, int dw, int dh) {
+        Taps across = new Taps(sw, dw);
+        Taps down = new Taps(sh, dh);
+
+        // Rows first into floats so rounding only happens once
+        float[] rows = new float[dw * sh * 4];
+        for (int y = 0; y < sh; y++) {
+            for (int x = 0; x < dw; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                int first = across.first[x];
+                for (int j = 0; j < across.count; j++) {
+                    float weight = across.weights[x * across.count + j];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    int argb = src[y * sw + first + j];
+                    a += weight * (argb >>> 24);
+                    r += weight * ((argb >>> 16) & 0xFF);
+                    g += weight * ((argb >>> 8) & 0xFF);
+                    b += weight * (argb & 0xFF);
+                }
+                int i = (y * dw + x) * 4;
+                rows[i] = a;
+                rows[i + 1] = r;
+                rows[i + 2] = g;
+                rows[i + 3] = b;
+            }
+        }
+
+        int[] dst = new int[dw * dh];
+        for (int y = 0; y < dh; y++) {
+            int first = down.first[y];
+            for (int x = 0; x < dw; x++) {
+                float a = 0, r = 0, g = 0, b = 0;
+                for (int j = 0; j < down.count; j++) {
+                    float weight = down.weights[y * down.count + j];
+                    if (weight == 0) {
+                        continue;
+                    }
+                    int i = ((first + j) * dw + x) * 4;
+                    a += weight * rows[i];
+                    r += weight * rows[i + 1];
+                    g += weight * rows[i + 2];
+                    b += weight * rows[i + 3];
+                }
+                dst[y * dw + x] = channel(a) << 24 | channel(r) << 16 | channel(g) << 8 | channel(b);
+            }
+        }
+        return dst;
+    }
+
+    private static int channel(float value) {
+        return Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+}
@@ -0,0 +1,49 @@
+package com.troy.chess;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Records when each startup phase began and ended, relative to when the timings
+ * were created, so overlapping phases can be told apart in the printed
+ * breakdown. Safe to use from any thread.
+ */
+class StartupTimings {
+
+    private final long start = System.nanoTime();
+
+    private final ConcurrentLinkedQueue<String> lines = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Runs a phase on the calling thread and records how long it took
+     */
+    void time(String phase, Runnable runnable) {
+        long begin = System.nanoTime();
+        try {
+            runnable.run();
+        } finally {
+            long end = System.nanoTime();
+            this.lines.add(String.format("  %-10s %5d ms -> %5d ms (%d ms on %s)", phase, millis(begin), millis(end),
+                    (end - begin) / 1000000, Thread.currentThread().getName()));
+        }
+    }
+
+    /**
+     * Records that something happened now, such as the window being shown
+     */
+    void mark(String event) {
+        this.lines.add(String.format("  %-10s %5d ms", event, millis(System.nanoTime())));
+    }
+
+    private long millis(long nanos) {
+        return (nanos - this.start) / 1000000;
+    }
+
+    void print() {
+        StringBuilder sb = new StringBuilder("Startup took " + millis(System.nanoTime()) + " ms:");
+        for (String line : this.lines) {
+            sb.append(System.lineSeparator()).append(line);
+        }
+        System.out.println(sb);
+    }
+
+}
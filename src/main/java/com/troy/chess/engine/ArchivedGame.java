@@ -0,0 +1,107 @@
+package com.troy.chess.engine;
+
+import com.troy.chess.Natives.GameType;
+
+/**
+ * A view of one game inside a {@link GameArchive}. Views are reusable: reading
+ * another game into the same view just moves it, and moves are read straight
+ * from the archive's mapping when asked for.
+ */
+public class ArchivedGame {
+
+    public interface Visitor {
+        void visit(ArchivedGame game);
+    }
+
+    GameArchive archive;
+    long number;
+    int gameType;
+    int result;
+    int boardSize;
+    int plyCount;
+
+    // File offsets into the archive. startOffset is -1 for the standard start
+    long startOffset;
+    long movesOffset;
+    long endOffset;
+
+    public long getNumber() {
+        return this.number;
+    }
+
+    public int getGameType() {
+        return this.gameType;
+    }
+
+    /**
+     * @return One of the JavaGame outcome constants
+     */
+    public int getResult() {
+        return this.result;
+    }
+
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    public int getPlyCount() {
+        return this.plyCount;
+    }
+
+    public boolean hasCustomStart() {
+        return this.startOffset != -1;
+    }
+
+    /**
+     * @return The move made at a ply, packed by GameArchive.packMove
+     */
+    public short getMove(int ply) {
+        if (ply < 0 || ply >= this.plyCount) {
+            throw new IndexOutOfBoundsException("Ply " + ply + " of " + this.plyCount);
+        }
+        return this.archive.getShort(this.movesOffset + ply * 2L);
+    }
+
+    /**
+     * Fills record with the custom start position. Only valid if hasCustomStart
+     */
+    public void getStart(FenRecord record) {
+        int squares = this.boardSize * this.boardSize;
+        record.setSize(this.boardSize);
+        for (int i = 0; i < squares; i++) {
+            record.squares[i] = (byte) this.archive.getByte(this.startOffset + i);
+        }
+        long p = this.startOffset + squares;
+        record.sideToMove = this.archive.getByte(p);
+        record.castling = this.archive.getByte(p + 1);
+        record.epSquare = this.archive.getShort(p + 2);
+        record.halfmoveClock = this.archive.getShort(p + 4);
+        record.fullmoveNumber = this.archive.getShort(p + 6);
+        record.operationsLength = 0;
+    }
+
+    /**
+     * Sets position to this game's position after the given number of plies
+     *
+     * @param record Scratch space used when the game has a custom start
+     * @param buffer Scratch space of at least MoveGenerator.MAX_MOVES entries
+     */
+    public void replay(Position position, int plies, FenRecord record, int[] buffer) {
+        if (hasCustomStart()) {
+            getStart(record);
+            position.load(record);
+        } else {
+            position.setStart(GameType.values()[this.gameType]);
+        }
+        for (int ply = 0; ply < plies; ply++) {
+            short packed = getMove(ply);
+            int move = MoveGenerator.findLegal(position, GameArchive.moveSource(packed),
+                    GameArchive.moveDestination(packed), GameArchive.movePromotion(packed), buffer);
+            if (move == Move.NONE) {
+                throw new IllegalStateException("Illegal move at ply " + ply + " of archived game " + this.number);
+            }
+            position.makeMove(move);
+        }
+    }
+
+}
@@ -0,0 +1,48 @@
+package com.troy.chess.engine;
+
+/**
+ * Static evaluation for the search: material plus small bonuses for central
+ * pieces and advanced pawns. Works for any board size.
+ */
+public final class Evaluation {
+
+    /**
+     * Centipawn value of each piece, indexed by piece number. The fairy pieces
+     * are valued by how many squares they reach, see Geometry
+     */
+    static final int[] VALUES = { 0, 0, 900, 500, 320, 310, 100, 360, 260, 350, 700, 330 };
+
+    private Evaluation() {
+    }
+
+    /**
+     * @return The score from the point of view of the side to move
+     */
+    public static int evaluate(Position position) {
+        int size = position.size;
+        int[] board = position.board;
+        // Twice the distance from the center, so it stays an int on even boards
+        int center = size - 1;
+        int score = 0;
+        for (int square = 0; square < board.length; square++) {
+            int code = board[square];
+            if (code == 0) {
+                continue;
+            }
+            int piece = Piece.pieceOf(code);
+            int rank = square / size;
+            int file = square % size;
+            int value = VALUES[piece];
+            if (piece == Piece.PAWN) {
+                int advanced = Piece.colorOf(code) == Piece.WHITE ? rank : size - 1 - rank;
+                value += advanced * advanced * 2;
+            } else if (piece != Piece.KING) {
+                int distance = Math.abs(2 * file - center) + Math.abs(2 * rank - center);
+                value += (2 * size - distance) * 2;
+            }
+            score += Piece.colorOf(code) == Piece.WHITE ? value : -value;
+        }
+        return position.sideToMove == Piece.WHITE ? score : -score;
+    }
+
+}
@@ -0,0 +1,289 @@
+package com.troy.chess.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams FEN or EPD positions, one per line, straight out of a memory mapped
+ * file into a reusable {@link FenRecord}.
+ *
+ * Lines are parsed byte by byte from the mapping, so no Strings or arrays are
+ * created per position. Files larger than one mapping window are read by
+ * sliding the window forward as lines are consumed. Blank lines are skipped.
+ */
+public class FenReader implements Closeable {
+
+    private static final int WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+
+    private ByteBuffer buffer;
+
+    /**
+     * File offset of buffer[0]
+     */
+    private long windowStart;
+
+    /**
+     * Index in buffer of the next unread byte
+     */
+    private int position;
+
+    private long lineNumber;
+
+    /**
+     * Memory maps a file for reading
+     */
+    public static FenReader open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        return new FenReader(channel);
+    }
+
+    private FenReader(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.fileSize = channel.size();
+        map(0);
+    }
+
+    /**
+     * Reads positions already in memory, for example FEN text typed by a user
+     */
+    public FenReader(ByteBuffer buffer) {
+        this.channel = null;
+        this.buffer = buffer;
+        this.position = buffer.position();
+        this.fileSize = buffer.limit();
+    }
+
+    private void map(long start) throws IOException {
+        long length = Math.min(WINDOW_SIZE, this.fileSize - start);
+        this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+        this.windowStart = start;
+        this.position = 0;
+    }
+
+    /**
+     * Decodes the next position into record
+     *
+     * @return False if there are no more positions
+     * @throws IllegalArgumentException If the line is not valid FEN or EPD
+     */
+    public boolean next(FenRecord record) throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end == -1) {
+                return false;
+            }
+            int start = this.position;
+            this.position = end + 1;
+            this.lineNumber++;
+            start = skipSpaces(start, end);
+            if (start != end) {
+                parseLine(record, start, end);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Finds the end of the line starting at position, sliding the mapping window
+     * forward if the line runs past it
+     *
+     * @return The index of the terminating newline or end of data, or -1 at the end
+     *         of the file
+     */
+    private int findLineEnd() throws IOException {
+        while (true) {
+            int limit = this.buffer.limit();
+            if (this.position >= limit && this.windowStart + limit >= this.fileSize) {
+                return -1;
+            }
+            for (int i = this.position; i < limit; i++) {
+                if (this.buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+            if (this.channel == null || this.windowStart + limit >= this.fileSize) {
+                // The last line does not need a trailing newline
+                return limit;
+            }
+            map(this.windowStart + this.position);
+        }
+    }
+
+    private int skipSpaces(int i, int end) {
+        while (i < end && isSpace(this.buffer.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r';
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " on line " + this.lineNumber);
+    }
+
+    private void parseLine(FenRecord record, int start, int end) {
+        ByteBuffer b = this.buffer;
+        record.lineNumber = this.lineNumber;
+
+        // Count ranks first so squares can be indexed from white's side as we go
+        int size = 1;
+        int i = start;
+        while (i < end && !isSpace(b.get(i))) {
+            if (b.get(i) == '/') {
+                size++;
+            }
+            i++;
+        }
+        record.setSize(size);
+
+        int rank = size - 1;
+        int file = 0;
+        for (i = start; i < end && !isSpace(b.get(i)); i++) {
+            byte c = b.get(i);
+            if (c == '/') {
+                if (file != size) {
+                    throw error("Rank " + (rank + 1) + " has " + file + " squares instead of " + size);
+                }
+                rank--;
+                file = 0;
+            } else if (isDigit(c)) {
+                int empty = 0;
+                while (i < end && isDigit(b.get(i))) {
+                    empty = empty * 10 + (b.get(i++) - '0');
+                }
+                i--;
+                file += empty;
+                if (file > size) {
+                    throw error("Rank " + (rank + 1) + " has more than " + size + " squares");
+                }
+            } else {
+                int code = Piece.fromFenChar(c);
+                if (code == -1) {
+                    throw error("Unknown piece type: " + (char) c + " at byte " + (i - start));
+                }
+                if (file >= size) {
+                    throw error("Rank " + (rank + 1) + " has more than " + size + " squares");
+                }
+                record.squares[rank * size + file] = (byte) code;
+                file++;
+            }
+        }
+        if (file != size) {
+            throw error("Rank " + (rank + 1) + " has " + file + " squares instead of " + size);
+        }
+
+        // Side to move
+        i = skipSpaces(i, end);
+        record.sideToMove = Piece.WHITE;
+        if (i < end) {
+            if (b.get(i) == 'b') {
+                record.sideToMove = Piece.BLACK;
+            } else if (b.get(i) != 'w') {
+                throw error("Side to move must be w or b");
+            }
+            i++;
+        }
+
+        // Castling rights
+        i = skipSpaces(i, end);
+        record.castling = 0;
+        while (i < end && !isSpace(b.get(i))) {
+            switch (b.get(i)) {
+            case 'K':
+                record.castling |= Position.CASTLE_WHITE_KING;
+                break;
+            case 'Q':
+                record.castling |= Position.CASTLE_WHITE_QUEEN;
+                break;
+            case 'k':
+                record.castling |= Position.CASTLE_BLACK_KING;
+                break;
+            case 'q':
+                record.castling |= Position.CASTLE_BLACK_QUEEN;
+                break;
+            case '-':
+                break;
+            default:
+                throw error("Invalid castling rights");
+            }
+            i++;
+        }
+
+        // En passant square
+        i = skipSpaces(i, end);
+        record.epSquare = -1;
+        if (i < end && b.get(i) != '-') {
+            int epFile = b.get(i++) - 'a';
+            int epRank = 0;
+            while (i < end && isDigit(b.get(i))) {
+                epRank = epRank * 10 + (b.get(i++) - '0');
+            }
+            if (epFile < 0 || epFile >= size || epRank < 1 || epRank > size) {
+                throw error("Invalid en passant square");
+            }
+            record.epSquare = (epRank - 1) * size + epFile;
+        }
+        while (i < end && !isSpace(b.get(i))) {
+            i++;
+        }
+
+        // FEN ends with the two move counters, EPD has operations instead
+        i = skipSpaces(i, end);
+        record.halfmoveClock = 0;
+        record.fullmoveNumber = 1;
+        record.operationsLength = 0;
+        if (i < end && isDigit(b.get(i))) {
+            int value = 0;
+            while (i < end && isDigit(b.get(i))) {
+                value = value * 10 + (b.get(i++) - '0');
+            }
+            record.halfmoveClock = value;
+            i = skipSpaces(i, end);
+            value = 0;
+            while (i < end && isDigit(b.get(i))) {
+                value = value * 10 + (b.get(i++) - '0');
+            }
+            record.fullmoveNumber = Math.max(1, value);
+            i = skipSpaces(i, end);
+        }
+        int opsEnd = end;
+        while (opsEnd > i && isSpace(b.get(opsEnd - 1))) {
+            opsEnd--;
+        }
+        record.operationsOffset = this.windowStart + i;
+        record.operationsLength = opsEnd - i;
+    }
+
+    /**
+     * Appends the EPD operations of a record read by this reader. Only valid
+     * until the reader moves past the record's line
+     */
+    public void appendOperations(FenRecord record, StringBuilder sb) {
+        int start = (int) (record.operationsOffset - this.windowStart);
+        for (int i = 0; i < record.operationsLength; i++) {
+            sb.append((char) this.buffer.get(start + i));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+        }
+    }
+
+}
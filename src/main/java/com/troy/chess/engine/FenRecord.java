@@ -0,0 +1,66 @@
+package com.troy.chess.engine;
+
+import java.util.Arrays;
+
+/**
+ * One decoded FEN or EPD position. A {@link FenReader} refills the same record
+ * for every line it reads so decoding allocates nothing per position.
+ */
+public class FenRecord {
+
+    /**
+     * Width and height of the board
+     */
+    public int size;
+
+    /**
+     * One {@link Piece#code} per square, indexed by rank * size + file with rank
+     * 0 at white's side. Only the first size * size entries are used. Set the
+     * size with setSize, which grows the array when a larger board comes along
+     */
+    public byte[] squares = new byte[128];
+
+    public int sideToMove;
+
+    /**
+     * The Position.CASTLE_ bits that are set
+     */
+    public int castling;
+
+    /**
+     * The en passant target square or -1
+     */
+    public int epSquare;
+
+    public int halfmoveClock;
+    public int fullmoveNumber;
+
+    /**
+     * Where the EPD operations (everything after the fourth field) start in the
+     * file and how many bytes they span. The length is 0 for plain FEN
+     */
+    public long operationsOffset;
+    public int operationsLength;
+
+    /**
+     * The line of the file this record came from, starting at 1
+     */
+    public long lineNumber;
+
+    /**
+     * Sets the board size and empties the board
+     */
+    public void setSize(int size) {
+        if (size * size > this.squares.length) {
+            this.squares = new byte[size * size];
+        } else {
+            Arrays.fill(this.squares, 0, size * size, (byte) 0);
+        }
+        this.size = size;
+    }
+
+    public int getSquare(int rank, int file) {
+        return this.squares[rank * this.size + file];
+    }
+
+}
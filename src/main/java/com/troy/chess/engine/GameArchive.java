@@ -0,0 +1,295 @@
+package com.troy.chess.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * An append only binary file of finished games with a memory mapped index.
+ *
+ * The data file starts with an 8 byte magic followed by one record per game:
+ *
+ * - byte game type (Natives.GameType ordinal)
+ *
+ * - byte result (a JavaGame outcome)
+ *
+ * - byte flags, bit 0 set if a custom start position follows
+ *
+ * - byte board size
+ *
+ * - int ply count
+ *
+ * - if custom: size * size bytes of piece codes then side to move, castling,
+ * short en passant square, short halfmove clock, short fullmove number
+ *
+ * - one short per ply, see {@link #packMove}
+ *
+ * The index file (data file name + ".idx") is an 8 byte magic followed by the
+ * long offset of every record, so any game is found in O(1) and, since moves
+ * have a fixed size, so is any ply within it. All values are little endian.
+ */
+public class GameArchive implements Closeable {
+
+    private static final long DATA_MAGIC = 0x3153454d41474343L; // "CCGAMES1"
+    private static final long INDEX_MAGIC = 0x31584544494e4343L; // "CCINDEX1"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    private static final int FLAG_CUSTOM_START = 1;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    // Promotions that fit in the two spare bits of a packed move. 0 is also used
+    // when there was no promotion
+    private static final int[] PROMOTIONS = { Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT };
+
+    private final FileChannel data;
+    private final FileChannel index;
+
+    private long dataSize;
+    private long gameCount;
+
+    // Read mappings, refreshed when a read goes past what they cover
+    private MappedByteBuffer[] dataSegments = new MappedByteBuffer[0];
+    private long mappedDataSize;
+    private MappedByteBuffer indexMap;
+    private long mappedGameCount;
+
+    private ByteBuffer writeBuffer = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * Opens an archive, creating it if it does not exist
+     */
+    public static GameArchive open(Path dataFile) throws IOException {
+        Path indexFile = Paths.get(dataFile.toString() + ".idx");
+        return new GameArchive(dataFile, indexFile);
+    }
+
+    private GameArchive(Path dataFile, Path indexFile) throws IOException {
+        this.data = FileChannel.open(dataFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.index = FileChannel.open(indexFile, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.dataSize = checkMagic(this.data, DATA_MAGIC, dataFile);
+        long indexSize = checkMagic(this.index, INDEX_MAGIC, indexFile);
+        this.gameCount = (indexSize - HEADER_SIZE) / 8;
+    }
+
+    private long checkMagic(FileChannel channel, long magic, Path path) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.size() == 0) {
+            header.putLong(magic).flip();
+            channel.write(header, 0);
+            return HEADER_SIZE;
+        }
+        channel.read(header, 0);
+        header.flip();
+        if (header.remaining() != HEADER_SIZE || header.getLong() != magic) {
+            throw new IOException(path + " is not a game archive");
+        }
+        return channel.size();
+    }
+
+    /**
+     * Packs a move into 16 bits: source square in bits 9-15, destination in bits
+     * 2-8 and the promotion piece in bits 0-1
+     *
+     * @param promotion The piece a pawn promoted to, or Piece.NONE
+     * @throws IllegalArgumentException If the promotion piece has no bits or a
+     *                                  square does not fit in 7 bits
+     */
+    public static short packMove(int srcSquare, int destSquare, int promotion) {
+        if ((srcSquare | destSquare) >>> 7 != 0) {
+            throw new IllegalArgumentException("Move " + srcSquare + "-" + destSquare + " is off an archivable board");
+        }
+        int promotionBits = -1;
+        if (promotion == Piece.NONE) {
+            promotionBits = 0;
+        }
+        for (int i = 0; i < PROMOTIONS.length; i++) {
+            if (PROMOTIONS[i] == promotion) {
+                promotionBits = i;
+            }
+        }
+        if (promotionBits == -1) {
+            throw new IllegalArgumentException("Cannot archive a promotion to piece " + promotion);
+        }
+        return (short) (srcSquare << 9 | destSquare << 2 | promotionBits);
+    }
+
+    public static int moveSource(short move) {
+        return (move >>> 9) & 0x7F;
+    }
+
+    public static int moveDestination(short move) {
+        return (move >>> 2) & 0x7F;
+    }
+
+    /**
+     * @return The piece a pawn reaching the last rank with this move promotes to.
+     *         Meaningless for other moves
+     */
+    public static int movePromotion(short move) {
+        return PROMOTIONS[move & 0x3];
+    }
+
+    /**
+     * Appends a finished game. Safe to call from several game threads at once
+     *
+     * @param start    The starting position, or null for the standard start of the
+     *                 game type
+     * @param moves    Moves packed with {@link #packMove}
+     * @param boardSize The width of the board
+     * @return The game's number in the archive
+     */
+    public synchronized long append(int gameType, int result, int boardSize, FenRecord start, short[] moves,
+            int plyCount) throws IOException {
+        int size = RECORD_HEADER_SIZE + plyCount * 2;
+        if (start != null) {
+            size += start.size * start.size + 8;
+        }
+        if (this.writeBuffer.capacity() < size) {
+            this.writeBuffer = ByteBuffer.allocate(Math.max(size, this.writeBuffer.capacity() * 2))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        ByteBuffer b = this.writeBuffer;
+        b.clear();
+        b.put((byte) gameType);
+        b.put((byte) result);
+        b.put((byte) (start != null ? FLAG_CUSTOM_START : 0));
+        b.put((byte) boardSize);
+        b.putInt(plyCount);
+        if (start != null) {
+            b.put(start.squares, 0, start.size * start.size);
+            b.put((byte) start.sideToMove);
+            b.put((byte) start.castling);
+            b.putShort((short) start.epSquare);
+            b.putShort((short) start.halfmoveClock);
+            b.putShort((short) start.fullmoveNumber);
+        }
+        for (int i = 0; i < plyCount; i++) {
+            b.putShort(moves[i]);
+        }
+        b.flip();
+
+        long offset = this.dataSize;
+        while (b.hasRemaining()) {
+            this.dataSize += this.data.write(b, this.dataSize);
+        }
+
+        // Only index the game once its record is fully written
+        b.clear();
+        b.putLong(offset).flip();
+        long indexOffset = HEADER_SIZE + this.gameCount * 8;
+        while (b.hasRemaining()) {
+            indexOffset += this.index.write(b, indexOffset);
+        }
+        return this.gameCount++;
+    }
+
+    public synchronized long getGameCount() {
+        return this.gameCount;
+    }
+
+    /**
+     * Points a reusable view at a game without reading its moves
+     */
+    public synchronized ArchivedGame read(long game, ArchivedGame into) throws IOException {
+        if (game < 0 || game >= this.gameCount) {
+            throw new IndexOutOfBoundsException("Game " + game + " of " + this.gameCount);
+        }
+        if (game >= this.mappedGameCount) {
+            this.indexMap = this.index.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + this.gameCount * 8);
+            this.indexMap.order(ByteOrder.LITTLE_ENDIAN);
+            this.mappedGameCount = this.gameCount;
+        }
+        long offset = this.indexMap.getLong((int) (HEADER_SIZE + game * 8));
+        return readAt(game, offset, into);
+    }
+
+    private ArchivedGame readAt(long game, long offset, ArchivedGame into) throws IOException {
+        if (this.mappedDataSize < this.dataSize) {
+            remapData();
+        }
+        into.archive = this;
+        into.number = game;
+        into.gameType = getByte(offset);
+        into.result = getByte(offset + 1);
+        int flags = getByte(offset + 2);
+        into.boardSize = getByte(offset + 3);
+        into.plyCount = getInt(offset + 4);
+        long position = offset + RECORD_HEADER_SIZE;
+        into.startOffset = -1;
+        if ((flags & FLAG_CUSTOM_START) != 0) {
+            into.startOffset = position;
+            position += into.boardSize * into.boardSize + 8;
+        }
+        into.movesOffset = position;
+        into.endOffset = position + into.plyCount * 2L;
+        return into;
+    }
+
+    /**
+     * Reads every game in file order, which is much faster than random access for
+     * whole archive analytics
+     *
+     * @param visitor Called with the same view for every game
+     */
+    public void scan(ArchivedGame.Visitor visitor) throws IOException {
+        long count;
+        synchronized (this) {
+            count = this.gameCount;
+        }
+        ArchivedGame game = new ArchivedGame();
+        long offset = HEADER_SIZE;
+        for (long i = 0; i < count; i++) {
+            synchronized (this) {
+                readAt(i, offset, game);
+            }
+            visitor.visit(game);
+            offset = game.endOffset;
+        }
+    }
+
+    private void remapData() throws IOException {
+        int segments = (int) ((this.dataSize + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        this.dataSegments = Arrays.copyOf(this.dataSegments, segments);
+        // Every segment but the last is full size and never changes once mapped
+        for (int i = 0; i < segments; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            long length = Math.min(SEGMENT_MASK + 1, this.dataSize - start);
+            MappedByteBuffer segment = this.dataSegments[i];
+            if (segment == null || segment.capacity() != length) {
+                this.dataSegments[i] = this.data.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        this.mappedDataSize = this.dataSize;
+    }
+
+    int getByte(long position) {
+        return this.dataSegments[(int) (position >>> SEGMENT_SHIFT)].get((int) (position & SEGMENT_MASK)) & 0xFF;
+    }
+
+    short getShort(long position) {
+        return (short) (getByte(position) | getByte(position + 1) << 8);
+    }
+
+    int getInt(long position) {
+        return getShort(position) & 0xFFFF | getShort(position + 2) << 16;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        this.data.close();
+        this.index.close();
+    }
+
+}
@@ -0,0 +1,41 @@
+package com.troy.chess.engine;
+
+/**
+ * The calls a running game makes back into whoever is displaying it. These
+ * mirror the upcalls the native engine makes into Natives so a game can be
+ * played by either backend without the UI knowing the difference.
+ *
+ * All return true if the game should continue, false if it has been abandoned.
+ */
+public interface GameCallbacks {
+
+    boolean displayMove(int gameID, int srcSquare, int destSquare);
+
+    boolean setSquare(int gameID, int square, int pieceKind, int color);
+
+    boolean setBoardSize(int gameID, int size);
+
+    /**
+     * Blocks until a human has chosen a move
+     *
+     * @return The source square in the 32 high bits and the destination square in
+     *         the 32 low bits
+     */
+    long getHumanMove(int gameID, int side);
+
+    /**
+     * Reports how the search for the next move is going, as often as the engine
+     * likes while it thinks. Ignored unless overridden
+     *
+     * @param score          In centipawns from white's point of view. Mates are
+     *                       Search.MATE less the plies to mate, negated when black
+     *                       mates
+     * @param nodesPerSecond Over the whole search so far
+     * @param pv             The principal variation as source square << 16 |
+     *                       destination square per move, the move to play first
+     */
+    default boolean searchProgress(int gameID, int depth, int score, long nodes, long nodesPerSecond, int[] pv) {
+        return true;
+    }
+
+}
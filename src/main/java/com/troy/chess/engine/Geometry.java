@@ -0,0 +1,155 @@
+package com.troy.chess.engine;
+
+/**
+ * Precomputed attack tables for one board size.
+ *
+ * Boards of up to 128 squares are stored as two longs, lo holding squares 0-63
+ * and hi holding squares 64-127. An 8x8 board only ever uses lo.
+ *
+ * Movement of the ContrastingChess pieces is defined here:
+ *
+ * - bear: one step in any direction or a two square orthogonal leap
+ *
+ * - elephant: one or two steps diagonally, leaping over the first square
+ *
+ * - moose: leaps like a knight (2,1) or a camel (3,1)
+ *
+ * - dragon: slides like a rook or steps one square diagonally
+ *
+ * - weasel: one step orthogonally or leaps like a knight
+ */
+final class Geometry {
+
+    // The first four directions are orthogonal, the last four diagonal
+    static final int[] DIR_FILE = { 1, -1, 0, 0, 1, 1, -1, -1 };
+    static final int[] DIR_RANK = { 0, 0, 1, -1, 1, -1, 1, -1 };
+
+    private static final Geometry[] CACHE = new Geometry[12];
+
+    final int size;
+    final int squares;
+
+    /**
+     * Leaping (non sliding) moves for each piece, indexed by [piece][square]. For
+     * the dragon this only holds its diagonal step
+     */
+    final long[][] leapLo = new long[Piece.COUNT][];
+    final long[][] leapHi = new long[Piece.COUNT][];
+
+    /**
+     * Squares attacked by a pawn, indexed by [color][square]
+     */
+    final long[][] pawnLo = new long[2][];
+    final long[][] pawnHi = new long[2][];
+
+    /**
+     * Every square strictly beyond a square in a direction, indexed by
+     * [direction][square]
+     */
+    final long[][] rayLo = new long[8][];
+    final long[][] rayHi = new long[8][];
+
+    /**
+     * True if walking in a direction increases the square index
+     */
+    final boolean[] positive = new boolean[8];
+
+    static synchronized Geometry of(int size) {
+        if (size < 1 || size * size > 128) {
+            throw new IllegalArgumentException("Boards of size " + size + " are not supported by the Java engine");
+        }
+        if (CACHE[size] == null) {
+            CACHE[size] = new Geometry(size);
+        }
+        return CACHE[size];
+    }
+
+    private Geometry(int size) {
+        this.size = size;
+        this.squares = size * size;
+
+        int[][] king = { { 1, 0 }, { 1, 1 } };
+        int[][] knight = { { 2, 1 } };
+        leaper(Piece.KING, king);
+        leaper(Piece.KNIGHT, knight);
+        leaper(Piece.BEAR, new int[][] { { 1, 0 }, { 1, 1 }, { 2, 0 } });
+        leaper(Piece.ELEPHANT, new int[][] { { 1, 1 }, { 2, 2 } });
+        leaper(Piece.MOOSE, new int[][] { { 2, 1 }, { 3, 1 } });
+        leaper(Piece.DRAGON, new int[][] { { 1, 1 } });
+        leaper(Piece.WEASEL, new int[][] { { 1, 0 }, { 2, 1 } });
+        for (int piece = 0; piece < Piece.COUNT; piece++) {
+            if (this.leapLo[piece] == null) {
+                this.leapLo[piece] = new long[this.squares];
+                this.leapHi[piece] = new long[this.squares];
+            }
+        }
+
+        for (int color = 0; color < 2; color++) {
+            this.pawnLo[color] = new long[this.squares];
+            this.pawnHi[color] = new long[this.squares];
+            int forward = color == Piece.WHITE ? 1 : -1;
+            for (int sq = 0; sq < this.squares; sq++) {
+                addOffset(this.pawnLo[color], this.pawnHi[color], sq, 1, forward);
+                addOffset(this.pawnLo[color], this.pawnHi[color], sq, -1, forward);
+            }
+        }
+
+        for (int dir = 0; dir < 8; dir++) {
+            this.rayLo[dir] = new long[this.squares];
+            this.rayHi[dir] = new long[this.squares];
+            this.positive[dir] = DIR_RANK[dir] * size + DIR_FILE[dir] > 0;
+            for (int sq = 0; sq < this.squares; sq++) {
+                for (int step = 1; step < size; step++) {
+                    addOffset(this.rayLo[dir], this.rayHi[dir], sq, DIR_FILE[dir] * step, DIR_RANK[dir] * step);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills in the leap table for a piece from a list of (a, b) jumps. Every sign
+     * and axis swap of each jump is included
+     */
+    private void leaper(int piece, int[][] jumps) {
+        long[] lo = new long[this.squares];
+        long[] hi = new long[this.squares];
+        for (int sq = 0; sq < this.squares; sq++) {
+            for (int[] jump : jumps) {
+                for (int i = 0; i < 8; i++) {
+                    int a = (i & 1) == 0 ? jump[0] : -jump[0];
+                    int b = (i & 2) == 0 ? jump[1] : -jump[1];
+                    if ((i & 4) == 0) {
+                        addOffset(lo, hi, sq, a, b);
+                    } else {
+                        addOffset(lo, hi, sq, b, a);
+                    }
+                }
+            }
+        }
+        this.leapLo[piece] = lo;
+        this.leapHi[piece] = hi;
+    }
+
+    private void addOffset(long[] lo, long[] hi, int sq, int fileOffset, int rankOffset) {
+        int file = sq % this.size + fileOffset;
+        int rank = sq / this.size + rankOffset;
+        if (file < 0 || file >= this.size || rank < 0 || rank >= this.size) {
+            return;
+        }
+        int target = rank * this.size + file;
+        if (target < 64) {
+            lo[sq] |= 1L << target;
+        } else {
+            hi[sq] |= 1L << (target - 64);
+        }
+    }
+
+    static int lowestSquare(long lo, long hi) {
+        return lo != 0 ? Long.numberOfTrailingZeros(lo) : 64 + Long.numberOfTrailingZeros(hi);
+    }
+
+    static int highestSquare(long lo, long hi) {
+        return hi != 0 ? 127 - Long.numberOfLeadingZeros(hi) : 63 - Long.numberOfLeadingZeros(lo);
+    }
+
+}
@@ -0,0 +1,254 @@
+package com.troy.chess.engine;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.troy.chess.Metrics;
+import com.troy.chess.Natives.GameType;
+
+/**
+ * Plays a whole game in the JVM using {@link MoveGenerator}. This is the Java
+ * counterpart to Natives.start_game and reports to the UI through the same set
+ * of upcalls.
+ */
+public class JavaGame {
+
+    public static final int WHITE_WINS = 0;
+    public static final int BLACK_WINS = 1;
+    public static final int DRAW = 2;
+    public static final int ABORTED = 3;
+
+    /**
+     * The game finished on a backend that does not report who won
+     */
+    public static final int UNKNOWN = 4;
+
+    /**
+     * Prints every book and search move alpha_beta_ai plays, with
+     * -Dcontrasting_chess.log_moves=true
+     */
+    private static final boolean LOG_MOVES = Boolean.getBoolean("contrasting_chess.log_moves");
+
+    private final GameType gameType;
+    private final Position position;
+    private final int gameID;
+    private final GameCallbacks callbacks;
+
+    private int outcome = ABORTED;
+
+    private final int[] legal = new int[MoveGenerator.MAX_MOVES];
+    private int legalCount;
+
+    public JavaGame(GameType gameType, int gameID, GameCallbacks callbacks) {
+        this.gameType = gameType;
+        this.position = new Position(gameType);
+        this.gameID = gameID;
+        this.callbacks = callbacks;
+    }
+
+    public Position getPosition() {
+        return this.position;
+    }
+
+    public int getOutcome() {
+        return this.outcome;
+    }
+
+    /**
+     * @return True for players the native engine doesn't have, whose games must be
+     *         played by the Java backend
+     */
+    public static boolean isJavaOnly(String algorithmName) {
+        return algorithmName.equals("alpha_beta_ai");
+    }
+
+    /**
+     * Creates a player from the same algorithm names that are passed to the native
+     * engine, plus alpha_beta_ai which only exists here. alpha_beta_ai plays from
+     * the variant's OpeningBook while the position is in it
+     */
+    public Player createPlayer(String algorithmName) {
+        return createPlayer(algorithmName, Search.DEFAULT_THREADS, LOG_MOVES);
+    }
+
+    /**
+     * @param searchThreads Threads alpha_beta_ai searches with. Callers running
+     *                      many games at once should pass 1
+     * @param logMoves      Print every move alpha_beta_ai plays
+     */
+    public Player createPlayer(String algorithmName, int searchThreads, boolean logMoves) {
+        switch (algorithmName) {
+        case "human":
+            return this::humanMove;
+        case "random_ai":
+            return (position, legal, count) -> legal[ThreadLocalRandom.current().nextInt(count)];
+        case "alpha_beta_ai": {
+            Search search = new Search(Search.getSharedTable(), searchThreads);
+            OpeningBook book = OpeningBook.forGameType(this.gameType);
+            int[] buffer = new int[MoveGenerator.MAX_MOVES];
+            return (position, legal, count) -> {
+                int bookMove = book == null ? Move.NONE : book.pickMove(position, buffer);
+                if (bookMove != Move.NONE) {
+                    if (logMoves) {
+                        System.out.println("Game " + this.gameID + " book move "
+                                + Move.toString(bookMove, position.getBoardSize()));
+                    }
+                    return bookMove;
+                }
+                Search.Result result = search.search(position, Search.DEFAULT_MILLIS,
+                        (progress) -> reportProgress(position, progress));
+                if (logMoves) {
+                    System.out.println("Game " + this.gameID + " " + result.describe(position.getBoardSize()));
+                }
+                Metrics.searchFinished(this.gameID, result);
+                return result.move;
+            };
+        }
+        default:
+            throw new IllegalArgumentException("Unknown algorithm " + algorithmName);
+        }
+    }
+
+    /**
+     * Passes one finished iteration of a search on to the callbacks, from white's
+     * point of view and with the moves packed the way the native engine sends
+     * them
+     */
+    private void reportProgress(Position position, Search.Result result) {
+        int score = position.getSideToMove() == Piece.WHITE ? result.score : -result.score;
+        int[] pv = new int[result.pv.length];
+        for (int i = 0; i < pv.length; i++) {
+            pv[i] = Move.from(result.pv[i]) << 16 | Move.to(result.pv[i]);
+        }
+        this.callbacks.searchProgress(this.gameID, result.depth, score, result.nodes, result.getNodesPerSecond(),
+                pv);
+    }
+
+    /**
+     * Plays the game until it ends or the UI abandons it
+     *
+     * @return One of WHITE_WINS, BLACK_WINS, DRAW or ABORTED
+     */
+    public int play(String whiteAlgorithm, String blackAlgorithm) {
+        return play(createPlayer(whiteAlgorithm), createPlayer(blackAlgorithm));
+    }
+
+    public int play(Player white, Player black) {
+        Player[] players = { white, black };
+        if (!start()) {
+            return this.outcome;
+        }
+        while (!isOver()) {
+            int move = players[this.position.getSideToMove()].chooseMove(this.position, this.legal,
+                    this.legalCount);
+            if (!makeMove(move)) {
+                return this.outcome;
+            }
+        }
+        return this.outcome;
+    }
+
+    /**
+     * Sends the starting board. Games driven one move at a time instead of through
+     * play call this once and then alternate isOver and makeMove
+     *
+     * @return False if the game has been abandoned
+     */
+    public boolean start() {
+        this.outcome = ABORTED;
+        return sendBoard();
+    }
+
+    /**
+     * Finds the legal moves of the side to move (see getLegalMoves) and checks
+     * whether the game has ended
+     *
+     * @return True if the game is over, with the outcome set
+     */
+    public boolean isOver() {
+        int side = this.position.getSideToMove();
+        this.legalCount = MoveGenerator.generateLegal(this.position, this.legal, 0);
+        if (this.legalCount == 0) {
+            if (this.position.inCheck()) {
+                this.outcome = side == Piece.WHITE ? BLACK_WINS : WHITE_WINS;
+            } else {
+                this.outcome = DRAW;
+            }
+            return true;
+        }
+        if (this.position.getHalfmoveClock() >= 100) {
+            this.outcome = DRAW;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return The legal moves found by the last call to isOver. Only the first
+     *         getLegalMoveCount entries are used
+     */
+    public int[] getLegalMoves() {
+        return this.legal;
+    }
+
+    public int getLegalMoveCount() {
+        return this.legalCount;
+    }
+
+    private boolean sendBoard() {
+        if (!this.callbacks.setBoardSize(this.gameID, this.position.getBoardSize())) {
+            return false;
+        }
+        int squares = this.position.getBoardSize() * this.position.getBoardSize();
+        for (int square = 0; square < squares; square++) {
+            int code = this.position.getSquare(square);
+            if (code != 0) {
+                if (!this.callbacks.setSquare(this.gameID, square, Piece.pieceOf(code), Piece.colorOf(code))) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Makes a move and tells the UI about every square it changed
+     *
+     * @return False if the game has been abandoned
+     */
+    public boolean makeMove(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        int us = this.position.getSideToMove();
+        int captureSquare = this.position.captureSquare(move);
+        int rookSquares = flag == Move.FLAG_CASTLE ? this.position.castleRookSquares(move) : 0;
+        this.position.makeMove(move);
+
+        boolean running = this.callbacks.displayMove(this.gameID, from, to);
+        if (flag == Move.FLAG_CASTLE) {
+            running &= this.callbacks.displayMove(this.gameID, rookSquares & 0xFFFF, rookSquares >>> 16);
+        } else if (flag == Move.FLAG_EN_PASSANT) {
+            running &= this.callbacks.setSquare(this.gameID, captureSquare, Piece.NONE, 0);
+        }
+        if (Move.promotion(move) != Piece.NONE) {
+            running &= this.callbacks.setSquare(this.gameID, to, Move.promotion(move), us);
+        }
+        return running;
+    }
+
+    private int humanMove(Position position, int[] legal, int count) {
+        // Keep asking until the human makes a legal move
+        while (true) {
+            long packed = this.callbacks.getHumanMove(this.gameID, position.getSideToMove());
+            int src = (int) (packed >>> 32);
+            int dest = (int) packed;
+            // Promotions are generated queen first, so this picks a queen
+            for (int i = 0; i < count; i++) {
+                if (Move.from(legal[i]) == src && Move.to(legal[i]) == dest) {
+                    return legal[i];
+                }
+            }
+        }
+    }
+
+}
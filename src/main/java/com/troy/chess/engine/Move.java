@@ -0,0 +1,66 @@
+package com.troy.chess.engine;
+
+/**
+ * Moves are packed into a single int so move lists can live in plain int
+ * arrays:
+ *
+ * - bits 0-6 source square
+ *
+ * - bits 7-13 destination square
+ *
+ * - bits 14-17 promotion piece or 0
+ *
+ * - bits 18-19 one of the FLAG_ constants
+ */
+public final class Move {
+
+    public static final int NONE = 0;
+
+    public static final int FLAG_NORMAL = 0;
+    public static final int FLAG_DOUBLE_PUSH = 1;
+    public static final int FLAG_CASTLE = 2;
+    public static final int FLAG_EN_PASSANT = 3;
+
+    private Move() {
+    }
+
+    public static int make(int from, int to, int promotion, int flag) {
+        return from | (to << 7) | (promotion << 14) | (flag << 18);
+    }
+
+    public static int from(int move) {
+        return move & 0x7F;
+    }
+
+    public static int to(int move) {
+        return (move >>> 7) & 0x7F;
+    }
+
+    public static int promotion(int move) {
+        return (move >>> 14) & 0xF;
+    }
+
+    public static int flag(int move) {
+        return (move >>> 18) & 0x3;
+    }
+
+    public static String toString(int move, int boardSize) {
+        StringBuilder sb = new StringBuilder();
+        appendSquare(sb, from(move), boardSize);
+        appendSquare(sb, to(move), boardSize);
+        if (promotion(move) != Piece.NONE) {
+            sb.append(Piece.toFenChar(Piece.code(promotion(move), Piece.BLACK)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Appends a square in algebraic notation. Ranks are numbered from 1 so a 10x10
+     * board runs from a1 to j10
+     */
+    public static void appendSquare(StringBuilder sb, int square, int boardSize) {
+        sb.append((char) ('a' + square % boardSize));
+        sb.append(square / boardSize + 1);
+    }
+
+}
@@ -0,0 +1,225 @@
+package com.troy.chess.engine;
+
+/**
+ * Bitboard move generation for {@link Position}. Moves are written into a
+ * caller supplied int array so generating moves never allocates.
+ */
+public final class MoveGenerator {
+
+    /**
+     * More than enough room for the moves of any reachable position on a 10x10
+     * board
+     */
+    public static final int MAX_MOVES = 512;
+
+    private static final int[] PROMOTIONS = { Piece.QUEEN, Piece.ROOK, Piece.BISHOP, Piece.KNIGHT };
+
+    private MoveGenerator() {
+    }
+
+    /**
+     * Writes every legal move for the side to move into moves starting at offset
+     *
+     * @return The number of moves written
+     */
+    public static int generateLegal(Position position, int[] moves, int offset) {
+        int count = generatePseudoLegal(position, moves, offset);
+        int us = position.sideToMove;
+        int legal = 0;
+        for (int i = 0; i < count; i++) {
+            int move = moves[offset + i];
+            position.makeMove(move);
+            int king = position.kingSquare[us];
+            boolean ok = king == -1 || !position.isAttacked(king, us ^ 1);
+            position.unmakeMove();
+            if (ok) {
+                moves[offset + legal++] = move;
+            }
+        }
+        return legal;
+    }
+
+    /**
+     * Finds the legal move with the given squares
+     *
+     * @param promotion The piece to promote to if the move is a promotion. Ignored
+     *                  otherwise
+     * @param buffer    Scratch space of at least MAX_MOVES entries
+     * @return The move or Move.NONE if no such move is legal
+     */
+    public static int findLegal(Position position, int srcSquare, int destSquare, int promotion, int[] buffer) {
+        int count = generateLegal(position, buffer, 0);
+        for (int i = 0; i < count; i++) {
+            int move = buffer[i];
+            if (Move.from(move) == srcSquare && Move.to(move) == destSquare
+                    && (Move.promotion(move) == Piece.NONE || Move.promotion(move) == promotion)) {
+                return move;
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Writes every move for the side to move into moves starting at offset,
+     * including ones that leave the mover's king in check
+     *
+     * @return The number of moves written
+     */
+    public static int generatePseudoLegal(Position position, int[] moves, int offset) {
+        Geometry g = position.geometry;
+        int us = position.sideToMove;
+        int them = us ^ 1;
+        long ownLo = position.colorLo[us];
+        long ownHi = position.colorHi[us];
+        long occLo = ownLo | position.colorLo[them];
+        long occHi = ownHi | position.colorHi[them];
+        int n = offset;
+
+        for (int piece = Piece.KING; piece < Piece.COUNT; piece++) {
+            int code = Piece.code(piece, us);
+            long lo = position.piecesLo[code];
+            long hi = position.piecesHi[code];
+            while ((lo | hi) != 0) {
+                int from;
+                if (lo != 0) {
+                    from = Long.numberOfTrailingZeros(lo);
+                    lo &= lo - 1;
+                } else {
+                    from = 64 + Long.numberOfTrailingZeros(hi);
+                    hi &= hi - 1;
+                }
+
+                if (piece == Piece.PAWN) {
+                    n = pawnMoves(position, from, moves, n);
+                    continue;
+                }
+
+                long targetLo = g.leapLo[piece][from];
+                long targetHi = g.leapHi[piece][from];
+                boolean orthogonal = piece == Piece.ROOK || piece == Piece.QUEEN || piece == Piece.DRAGON;
+                boolean diagonal = piece == Piece.BISHOP || piece == Piece.QUEEN;
+                int firstDir = orthogonal ? 0 : 4;
+                int lastDir = diagonal ? 8 : orthogonal ? 4 : 0;
+                for (int dir = firstDir; dir < lastDir; dir++) {
+                    long rayLo = g.rayLo[dir][from];
+                    long rayHi = g.rayHi[dir][from];
+                    long blockLo = rayLo & occLo;
+                    long blockHi = rayHi & occHi;
+                    if ((blockLo | blockHi) != 0) {
+                        // Cut the ray off past the first piece in the way
+                        int blocker = g.positive[dir] ? Geometry.lowestSquare(blockLo, blockHi)
+                                : Geometry.highestSquare(blockLo, blockHi);
+                        rayLo ^= g.rayLo[dir][blocker];
+                        rayHi ^= g.rayHi[dir][blocker];
+                    }
+                    targetLo |= rayLo;
+                    targetHi |= rayHi;
+                }
+                n = addTargets(from, targetLo & ~ownLo, targetHi & ~ownHi, moves, n);
+
+                if (piece == Piece.KING) {
+                    n = castlingMoves(position, from, moves, n);
+                }
+            }
+        }
+        return n - offset;
+    }
+
+    private static int addTargets(int from, long lo, long hi, int[] moves, int n) {
+        while (lo != 0) {
+            moves[n++] = Move.make(from, Long.numberOfTrailingZeros(lo), Piece.NONE, Move.FLAG_NORMAL);
+            lo &= lo - 1;
+        }
+        while (hi != 0) {
+            moves[n++] = Move.make(from, 64 + Long.numberOfTrailingZeros(hi), Piece.NONE, Move.FLAG_NORMAL);
+            hi &= hi - 1;
+        }
+        return n;
+    }
+
+    private static int pawnMoves(Position position, int from, int[] moves, int n) {
+        int size = position.size;
+        int us = position.sideToMove;
+        int forward = us == Piece.WHITE ? size : -size;
+        int rank = from / size;
+        int startRank = us == Piece.WHITE ? 1 : size - 2;
+        int lastRank = us == Piece.WHITE ? size - 1 : 0;
+
+        int one = from + forward;
+        if (one >= 0 && one < position.board.length && position.board[one] == 0) {
+            n = pawnMove(from, one, lastRank, size, Move.FLAG_NORMAL, moves, n);
+            int two = one + forward;
+            if (rank == startRank && position.board[two] == 0) {
+                moves[n++] = Move.make(from, two, Piece.NONE, Move.FLAG_DOUBLE_PUSH);
+            }
+        }
+
+        Geometry g = position.geometry;
+        long lo = g.pawnLo[us][from];
+        long hi = g.pawnHi[us][from];
+        while ((lo | hi) != 0) {
+            int to;
+            if (lo != 0) {
+                to = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                to = 64 + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            int target = position.board[to];
+            if (target != 0 && Piece.colorOf(target) != us) {
+                n = pawnMove(from, to, lastRank, size, Move.FLAG_NORMAL, moves, n);
+            } else if (to == position.epSquare) {
+                moves[n++] = Move.make(from, to, Piece.NONE, Move.FLAG_EN_PASSANT);
+            }
+        }
+        return n;
+    }
+
+    private static int pawnMove(int from, int to, int lastRank, int size, int flag, int[] moves, int n) {
+        if (to / size == lastRank) {
+            for (int promotion : PROMOTIONS) {
+                moves[n++] = Move.make(from, to, promotion, flag);
+            }
+        } else {
+            moves[n++] = Move.make(from, to, Piece.NONE, flag);
+        }
+        return n;
+    }
+
+    private static int castlingMoves(Position position, int king, int[] moves, int n) {
+        int us = position.sideToMove;
+        int kingSide = us == Piece.WHITE ? Position.CASTLE_WHITE_KING : Position.CASTLE_BLACK_KING;
+        int queenSide = us == Piece.WHITE ? Position.CASTLE_WHITE_QUEEN : Position.CASTLE_BLACK_QUEEN;
+        int rankStart = king - king % position.size;
+        if ((position.castling & kingSide) != 0) {
+            n = castle(position, king, rankStart + position.size - 1, 1, moves, n);
+        }
+        if ((position.castling & queenSide) != 0) {
+            n = castle(position, king, rankStart, -1, moves, n);
+        }
+        return n;
+    }
+
+    private static int castle(Position position, int king, int rook, int step, int[] moves, int n) {
+        int to = king + 2 * step;
+        if ((to - rook) * step >= 0) {
+            // Not enough room between the king and rook
+            return n;
+        }
+        for (int sq = king + step; sq != rook; sq += step) {
+            if (position.board[sq] != 0) {
+                return n;
+            }
+        }
+        int them = position.sideToMove ^ 1;
+        for (int sq = king; sq != to + step; sq += step) {
+            if (position.isAttacked(sq, them)) {
+                return n;
+            }
+        }
+        moves[n++] = Move.make(king, to, Piece.NONE, Move.FLAG_CASTLE);
+        return n;
+    }
+
+}
@@ -0,0 +1,91 @@
+package com.troy.chess.engine;
+
+/**
+ * Standard algebraic notation (SAN) as used by PGN, extended to the 10x10
+ * board. Squares are written with Move#appendSquare so ranks run up to 10, and
+ * the ContrastingChess pieces use their upper case FEN letters: U (bear), E
+ * (elephant), M (moose), D (dragon) and W (weasel).
+ */
+public final class Notation {
+
+    private Notation() {
+    }
+
+    /**
+     * Writes a legal move the way PGN expects, e.g. Nf3, exd5, e8=Q+, O-O or
+     * Mxj10#
+     *
+     * @param position The position before the move. Left unchanged
+     * @param buffer   Scratch space of at least 2 * MoveGenerator.MAX_MOVES
+     *                 entries
+     */
+    public static String toSan(Position position, int move, int[] buffer) {
+        StringBuilder sb = new StringBuilder(8);
+        int size = position.getBoardSize();
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int piece = Piece.pieceOf(position.getSquare(from));
+        boolean capture = position.getSquare(to) != 0 || Move.flag(move) == Move.FLAG_EN_PASSANT;
+
+        if (Move.flag(move) == Move.FLAG_CASTLE) {
+            sb.append(to > from ? "O-O" : "O-O-O");
+        } else if (piece == Piece.PAWN) {
+            if (capture) {
+                sb.append((char) ('a' + from % size)).append('x');
+            }
+            Move.appendSquare(sb, to, size);
+            if (Move.promotion(move) != Piece.NONE) {
+                sb.append('=').append(Piece.toFenChar(Piece.code(Move.promotion(move), Piece.WHITE)));
+            }
+        } else {
+            sb.append(Piece.toFenChar(Piece.code(piece, Piece.WHITE)));
+            appendDisambiguation(sb, position, move, piece, buffer);
+            if (capture) {
+                sb.append('x');
+            }
+            Move.appendSquare(sb, to, size);
+        }
+
+        position.makeMove(move);
+        if (position.inCheck()) {
+            boolean mate = MoveGenerator.generateLegal(position, buffer, MoveGenerator.MAX_MOVES) == 0;
+            sb.append(mate ? '#' : '+');
+        }
+        position.unmakeMove();
+        return sb.toString();
+    }
+
+    /**
+     * Adds the file, rank or both of the moving piece when another piece of the
+     * same kind could also move to the destination
+     */
+    private static void appendDisambiguation(StringBuilder sb, Position position, int move, int piece,
+            int[] buffer) {
+        int size = position.getBoardSize();
+        int from = Move.from(move);
+        int to = Move.to(move);
+        boolean ambiguous = false;
+        boolean sameFile = false;
+        boolean sameRank = false;
+        int count = MoveGenerator.generateLegal(position, buffer, 0);
+        for (int i = 0; i < count; i++) {
+            int other = Move.from(buffer[i]);
+            if (other != from && Move.to(buffer[i]) == to && Piece.pieceOf(position.getSquare(other)) == piece) {
+                ambiguous = true;
+                sameFile |= other % size == from % size;
+                sameRank |= other / size == from / size;
+            }
+        }
+        if (!ambiguous) {
+            return;
+        }
+        if (!sameFile) {
+            sb.append((char) ('a' + from % size));
+        } else if (!sameRank) {
+            sb.append(from / size + 1);
+        } else {
+            Move.appendSquare(sb, from, size);
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package com.troy.chess.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.troy.chess.Natives.GameType;
+
+/**
+ * A read only, memory mapped book of opening moves. Nothing but the header is
+ * read onto the heap: lookups binary search the mapping, so a book costs page
+ * cache rather than heap and is shared by every game that uses it.
+ *
+ * The file is an 8 byte magic, an int board size and an int entry count,
+ * followed by 12 byte entries sorted by hash:
+ *
+ * - long Zobrist hash of the position (see Position#getHash)
+ *
+ * - short move, packed by GameArchive.packMove
+ *
+ * - unsigned short weight
+ *
+ * All values are little endian. Since the hash includes the board size each
+ * variant gets its own book, see {@link #fileName}.
+ */
+public class OpeningBook implements Closeable {
+
+    private static final long MAGIC = 0x314b4f4f42434343L; // "CCCBOOK1"
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 12;
+
+    public static final int MAX_WEIGHT = 0xFFFF;
+
+    /**
+     * The directory books are loaded from by {@link #forGameType}
+     */
+    public static final Path DEFAULT_DIRECTORY = Paths.get(System.getProperty("contrasting_chess.book_dir", "books"));
+
+    private static final OpeningBook[] LOADED = new OpeningBook[GameType.values().length];
+    private static final boolean[] MISSING = new boolean[GameType.values().length];
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int boardSize;
+    private final int entryCount;
+
+    public static OpeningBook open(Path file) throws IOException {
+        return new OpeningBook(file);
+    }
+
+    private OpeningBook(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        long size = this.channel.size();
+        if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+            this.channel.close();
+            throw new IOException(file + " is not an opening book");
+        }
+        this.map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        this.map.order(ByteOrder.LITTLE_ENDIAN);
+        this.boardSize = this.map.getInt(8);
+        this.entryCount = this.map.getInt(12);
+        if (this.map.getLong(0) != MAGIC || HEADER_SIZE + (long) this.entryCount * ENTRY_SIZE != size) {
+            this.channel.close();
+            throw new IOException(file + " is not an opening book");
+        }
+    }
+
+    /**
+     * @return chess.book or contrasting_chess.book
+     */
+    public static String fileName(GameType type) {
+        return type.name().replaceAll("([a-z])([A-Z])", "$1_$2").toLowerCase() + ".book";
+    }
+
+    /**
+     * Gets the shared book for a variant from {@link #DEFAULT_DIRECTORY}, opening it
+     * the first time it is asked for
+     *
+     * @return The book or null if there is none
+     */
+    public static synchronized OpeningBook forGameType(GameType type) {
+        int i = type.ordinal();
+        if (LOADED[i] == null && !MISSING[i]) {
+            Path file = DEFAULT_DIRECTORY.resolve(fileName(type));
+            try {
+                if (Files.exists(file)) {
+                    LOADED[i] = open(file);
+                    System.out.println("Loaded opening book " + file + " with " + LOADED[i].entryCount + " moves");
+                }
+            } catch (IOException e) {
+                System.out.println("Failed to load opening book " + file + ": " + e);
+            }
+            MISSING[i] = LOADED[i] == null;
+        }
+        return LOADED[i];
+    }
+
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    private long hashAt(int entry) {
+        return this.map.getLong(HEADER_SIZE + entry * ENTRY_SIZE);
+    }
+
+    private short moveAt(int entry) {
+        return this.map.getShort(HEADER_SIZE + entry * ENTRY_SIZE + 8);
+    }
+
+    private int weightAt(int entry) {
+        return this.map.getShort(HEADER_SIZE + entry * ENTRY_SIZE + 10) & 0xFFFF;
+    }
+
+    /**
+     * @return The first entry with the given hash, or entryCount if there is none
+     */
+    private int find(long hash) {
+        int low = 0;
+        int high = this.entryCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(hashAt(mid), hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low < this.entryCount && hashAt(low) == hash ? low : this.entryCount;
+    }
+
+    /**
+     * Picks a book move for a position at random, in proportion to the book
+     * moves' weights
+     *
+     * @param buffer Scratch space of at least MoveGenerator.MAX_MOVES entries
+     * @return The move or Move.NONE if the position is not in the book
+     */
+    public int pickMove(Position position, int[] buffer) {
+        if (position.getBoardSize() != this.boardSize) {
+            return Move.NONE;
+        }
+        long hash = position.getHash();
+        int first = find(hash);
+        int total = 0;
+        for (int e = first; e < this.entryCount && hashAt(e) == hash; e++) {
+            total += weightAt(e);
+        }
+        if (total == 0) {
+            return Move.NONE;
+        }
+        int pick = ThreadLocalRandom.current().nextInt(total);
+        for (int e = first; e < this.entryCount && hashAt(e) == hash; e++) {
+            pick -= weightAt(e);
+            if (pick < 0) {
+                short packed = moveAt(e);
+                // A hash collision can point at a move that isn't legal here
+                return MoveGenerator.findLegal(position, GameArchive.moveSource(packed),
+                        GameArchive.moveDestination(packed), GameArchive.movePromotion(packed), buffer);
+            }
+        }
+        return Move.NONE;
+    }
+
+    /**
+     * Writes a book. The file is replaced atomically so games reading an older
+     * copy are not disturbed
+     *
+     * @param hashes  Position hashes in unsigned ascending order
+     * @param moves   Moves packed by GameArchive.packMove
+     * @param weights Weights from 1 to MAX_WEIGHT
+     */
+    public static void write(Path file, int boardSize, long[] hashes, short[] moves, int[] weights, int count)
+            throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer b = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+            b.putLong(MAGIC);
+            b.putInt(boardSize);
+            b.putInt(count);
+            for (int i = 0; i < count; i++) {
+                if (i > 0 && Long.compareUnsigned(hashes[i - 1], hashes[i]) > 0) {
+                    throw new IllegalArgumentException("Book entries are not sorted at " + i);
+                }
+                if (b.remaining() < ENTRY_SIZE) {
+                    flush(out, b);
+                }
+                b.putLong(hashes[i]);
+                b.putShort(moves[i]);
+                b.putShort((short) Math.min(weights[i], MAX_WEIGHT));
+            }
+            flush(out, b);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void flush(FileChannel out, ByteBuffer b) throws IOException {
+        b.flip();
+        while (b.hasRemaining()) {
+            out.write(b);
+        }
+        b.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
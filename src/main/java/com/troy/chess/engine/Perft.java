@@ -0,0 +1,109 @@
+package com.troy.chess.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Counts the leaf nodes of the legal move tree below a position (perft), the
+ * usual way of proving a move generator correct against known totals or
+ * another generator.
+ *
+ * divide splits the root moves across a ForkJoinPool with each move searched on
+ * its own copy of the position, and reports every root move's count so a
+ * mismatch can be followed down to the position where the generators differ.
+ * The last ply is counted straight from generateLegal without making the moves.
+ */
+public final class Perft {
+
+    private Perft() {
+    }
+
+    /**
+     * The count below each root move of one divide
+     */
+    public static class Result {
+        public final int[] moves;
+        public final long[] counts;
+        public final long nodes;
+        public final long nanos;
+
+        Result(int[] moves, long[] counts, long nodes, long nanos) {
+            this.moves = moves;
+            this.counts = counts;
+            this.nodes = nodes;
+            this.nanos = nanos;
+        }
+
+        public long getNodesPerSecond() {
+            return this.nanos == 0 ? 0 : this.nodes * 1000000000L / this.nanos;
+        }
+    }
+
+    /**
+     * Counts on the calling thread
+     *
+     * @param position Left as it was
+     */
+    public static long count(Position position, int depth) {
+        return count(position, depth, new int[Math.max(depth, 1) * MoveGenerator.MAX_MOVES], 0);
+    }
+
+    private static long count(Position position, int depth, int[] buffer, int offset) {
+        if (depth == 0) {
+            return 1;
+        }
+        int count = MoveGenerator.generateLegal(position, buffer, offset);
+        if (depth == 1) {
+            return count;
+        }
+        long nodes = 0;
+        for (int i = 0; i < count; i++) {
+            position.makeMove(buffer[offset + i]);
+            nodes += count(position, depth - 1, buffer, offset + MoveGenerator.MAX_MOVES);
+            position.unmakeMove();
+        }
+        return nodes;
+    }
+
+    /**
+     * Counts the tree below every legal move of the position in parallel
+     *
+     * @param position Left as it was
+     * @param depth    At least 1
+     */
+    public static Result divide(Position position, int depth, ForkJoinPool pool) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Divide needs a depth of at least 1, not " + depth);
+        }
+        long start = System.nanoTime();
+        int[] legal = new int[MoveGenerator.MAX_MOVES];
+        int[] moves = Arrays.copyOf(legal, MoveGenerator.generateLegal(position, legal, 0));
+        long[] counts = new long[moves.length];
+        String fen = position.toFen();
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[moves.length];
+                for (int i = 0; i < moves.length; i++) {
+                    int index = i;
+                    tasks[i] = ForkJoinTask.adapt(() -> {
+                        Position child = new Position(fen);
+                        child.makeMove(moves[index]);
+                        counts[index] = count(child, depth - 1);
+                    });
+                }
+                invokeAll(tasks);
+            }
+        });
+
+        long nodes = 0;
+        for (long count : counts) {
+            nodes += count;
+        }
+        return new Result(moves, counts, nodes, System.nanoTime() - start);
+    }
+
+}
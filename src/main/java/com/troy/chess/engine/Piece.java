@@ -0,0 +1,78 @@
+package com.troy.chess.engine;
+
+/**
+ * Piece kinds and colors used by the Java engine. The piece numbers line up
+ * with the indices of Main.IMAGE_NAMES and the piece kinds passed to
+ * set_square, so they can be handed to the UI unchanged.
+ *
+ * A square's contents are stored as a code: (piece << 1) | color, with 0
+ * meaning an empty square.
+ */
+public final class Piece {
+
+    public static final int NONE = 0;
+    public static final int KING = 1;
+    public static final int QUEEN = 2;
+    public static final int ROOK = 3;
+    public static final int BISHOP = 4;
+    public static final int KNIGHT = 5;
+    public static final int PAWN = 6;
+    public static final int BEAR = 7;
+    public static final int ELEPHANT = 8;
+    public static final int MOOSE = 9;
+    public static final int DRAGON = 10;
+    public static final int WEASEL = 11;
+
+    public static final int COUNT = 12;
+
+    public static final int WHITE = 0;
+    public static final int BLACK = 1;
+
+    // Bear would clash with bishop on 'b' so it uses 'u' (ursa) instead
+    private static final String FEN_CHARS = ".kqrbnpuemdw";
+
+    private static final int[] FROM_FEN = new int[128];
+
+    static {
+        for (int i = 0; i < FROM_FEN.length; i++) {
+            FROM_FEN[i] = -1;
+        }
+        for (int piece = 1; piece < COUNT; piece++) {
+            char c = FEN_CHARS.charAt(piece);
+            FROM_FEN[c] = code(piece, BLACK);
+            FROM_FEN[Character.toUpperCase(c)] = code(piece, WHITE);
+        }
+    }
+
+    private Piece() {
+    }
+
+    public static int code(int piece, int color) {
+        return piece == NONE ? 0 : (piece << 1) | color;
+    }
+
+    public static int pieceOf(int code) {
+        return code >>> 1;
+    }
+
+    public static int colorOf(int code) {
+        return code & 1;
+    }
+
+    /**
+     * @return The square code for a FEN piece letter (upper case is white) or -1
+     *         if the letter is not a piece
+     */
+    public static int fromFenChar(int c) {
+        if (c < 0 || c >= FROM_FEN.length) {
+            return -1;
+        }
+        return FROM_FEN[c];
+    }
+
+    public static char toFenChar(int code) {
+        char c = FEN_CHARS.charAt(pieceOf(code));
+        return colorOf(code) == WHITE ? Character.toUpperCase(c) : c;
+    }
+
+}
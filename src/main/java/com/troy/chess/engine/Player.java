@@ -0,0 +1,17 @@
+package com.troy.chess.engine;
+
+/**
+ * Picks moves for one side of a {@link JavaGame}
+ */
+public interface Player {
+
+    /**
+     * @param position The current position. May be modified as long as it is
+     *                 restored before returning
+     * @param legal    The legal moves in this position
+     * @param count    The number of moves in legal
+     * @return One of the moves in legal
+     */
+    int chooseMove(Position position, int[] legal, int count);
+
+}
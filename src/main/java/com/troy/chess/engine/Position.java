@@ -0,0 +1,479 @@
+package com.troy.chess.engine;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import com.troy.chess.Natives.GameType;
+
+/**
+ * A mutable chess position for boards of up to 128 squares, kept both as one
+ * code per square and as two-long bitboards per piece and color.
+ *
+ * Moves are applied with {@link #makeMove(int)} and reverted with
+ * {@link #unmakeMove()}. Neither allocates once the undo stack has grown to
+ * the depth being searched.
+ */
+public class Position {
+
+    public static final String CHESS_START = "rnbqkbnr/pppppppp/8/8/8/8/PPPPPPPP/RNBQKBNR w KQkq - 0 1";
+    public static final String CONTRASTING_CHESS_START = "rubeqkdmnr/wppppppppw/10/10/10/10/10/10/WPPPPPPPPW/RUBEQKDMNR w KQkq - 0 1";
+
+    public static final int CASTLE_WHITE_KING = 1;
+    public static final int CASTLE_WHITE_QUEEN = 2;
+    public static final int CASTLE_BLACK_KING = 4;
+    public static final int CASTLE_BLACK_QUEEN = 8;
+
+    Geometry geometry;
+    int size;
+
+    /**
+     * One code per square, see {@link Piece#code}
+     */
+    int[] board;
+
+    // Indexed by square code
+    final long[] piecesLo = new long[Piece.COUNT * 2];
+    final long[] piecesHi = new long[Piece.COUNT * 2];
+
+    // Indexed by color
+    final long[] colorLo = new long[2];
+    final long[] colorHi = new long[2];
+
+    final int[] kingSquare = new int[2];
+
+    int sideToMove;
+    int castling;
+    int epSquare;
+    int halfmoveClock;
+    int fullmoveNumber;
+
+    /**
+     * castling &= castleMask[square] for both squares of every move, clearing
+     * rights once a king or rook leaves its starting square
+     */
+    int[] castleMask;
+
+    /**
+     * Zobrist hash of everything above that decides which moves are legal, kept up
+     * to date by every change to the position
+     */
+    long hash;
+
+    // Undo stack, one entry per ply made
+    private int ply;
+    private int[] undoMove = new int[256];
+    private int[] undoCaptured = new int[256];
+    private int[] undoCastling = new int[256];
+    private int[] undoEpSquare = new int[256];
+    private int[] undoHalfmove = new int[256];
+    private long[] undoHash = new long[256];
+
+    public Position(GameType type) {
+        setStart(type);
+    }
+
+    public Position(String fen) {
+        setFen(fen);
+    }
+
+    public int getBoardSize() {
+        return this.size;
+    }
+
+    public int getSideToMove() {
+        return this.sideToMove;
+    }
+
+    public int getPly() {
+        return this.ply;
+    }
+
+    /**
+     * @return A Zobrist hash of the pieces, board size, side to move, castling
+     *         rights and en passant square
+     */
+    public long getHash() {
+        return this.hash;
+    }
+
+    public int getHalfmoveClock() {
+        return this.halfmoveClock;
+    }
+
+    /**
+     * @return The code of the piece on a square, 0 if it is empty
+     */
+    public int getSquare(int square) {
+        return this.board[square];
+    }
+
+    /**
+     * @return The move made at the given ply since this position was set up
+     */
+    public int getMove(int ply) {
+        return this.undoMove[ply];
+    }
+
+    /**
+     * Replaces this position with the starting position of a game type
+     */
+    public void setStart(GameType type) {
+        setFen(type == GameType.Chess ? CHESS_START : CONTRASTING_CHESS_START);
+    }
+
+    /**
+     * Replaces this position with the one described by a FEN string. Digits may
+     * span more than one character so "10" is a full empty rank on a 10x10 board
+     */
+    public void setFen(String fen) {
+        FenRecord record = new FenRecord();
+        FenReader reader = new FenReader(ByteBuffer.wrap(fen.getBytes(StandardCharsets.US_ASCII)));
+        try {
+            if (!reader.next(record)) {
+                throw new IllegalArgumentException("Empty FEN");
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        load(record);
+    }
+
+    /**
+     * Replaces this position with a decoded FEN record. Reuses this position's
+     * arrays when the board size is unchanged
+     */
+    public void load(FenRecord record) {
+        clear(record.size);
+        for (int square = 0; square < this.board.length; square++) {
+            if (record.squares[square] != 0) {
+                place(square, record.squares[square]);
+            }
+        }
+        this.sideToMove = record.sideToMove;
+        this.castling = record.castling;
+        this.epSquare = record.epSquare;
+        this.halfmoveClock = record.halfmoveClock;
+        this.fullmoveNumber = record.fullmoveNumber;
+        setupCastling();
+        this.hash ^= Zobrist.sideToMove(this.sideToMove) ^ Zobrist.castling(this.castling)
+                ^ Zobrist.enPassant(this.epSquare);
+    }
+
+    /**
+     * Empties the board and resizes it
+     */
+    public void clear(int size) {
+        if (this.board == null || this.size != size) {
+            this.board = new int[size * size];
+            this.castleMask = new int[size * size];
+        }
+        this.geometry = Geometry.of(size);
+        this.size = size;
+        for (int i = 0; i < this.board.length; i++) {
+            this.board[i] = 0;
+            this.castleMask[i] = 0xF;
+        }
+        for (int i = 0; i < this.piecesLo.length; i++) {
+            this.piecesLo[i] = 0;
+            this.piecesHi[i] = 0;
+        }
+        this.colorLo[0] = this.colorLo[1] = 0;
+        this.colorHi[0] = this.colorHi[1] = 0;
+        this.kingSquare[0] = this.kingSquare[1] = -1;
+        this.sideToMove = Piece.WHITE;
+        this.castling = 0;
+        this.epSquare = -1;
+        this.halfmoveClock = 0;
+        this.fullmoveNumber = 1;
+        this.ply = 0;
+        this.hash = Zobrist.boardSize(size);
+    }
+
+    /**
+     * Castling rights are kept only while the king and the corner rook are on the
+     * back rank. The king may start on any file, it castles by moving two squares
+     * towards the rook
+     */
+    private void setupCastling() {
+        int last = this.size - 1;
+        int[][] rights = { { CASTLE_WHITE_KING, Piece.WHITE, last }, { CASTLE_WHITE_QUEEN, Piece.WHITE, 0 },
+                { CASTLE_BLACK_KING, Piece.BLACK, this.size * last + last },
+                { CASTLE_BLACK_QUEEN, Piece.BLACK, this.size * last } };
+        for (int[] right : rights) {
+            int bit = right[0];
+            int color = right[1];
+            int rookSquare = right[2];
+            int king = this.kingSquare[color];
+            int backRank = color == Piece.WHITE ? 0 : last;
+            if (king == -1 || king / this.size != backRank || this.board[rookSquare] != Piece.code(Piece.ROOK, color)) {
+                this.castling &= ~bit;
+                continue;
+            }
+            this.castleMask[king] &= ~bit;
+            this.castleMask[rookSquare] &= ~bit;
+        }
+    }
+
+    public int parseSquare(String square) {
+        int file = square.charAt(0) - 'a';
+        int rank = Integer.parseInt(square.substring(1)) - 1;
+        return rank * this.size + file;
+    }
+
+    public String toFen() {
+        StringBuilder sb = new StringBuilder();
+        for (int rank = this.size - 1; rank >= 0; rank--) {
+            int empty = 0;
+            for (int file = 0; file < this.size; file++) {
+                int code = this.board[rank * this.size + file];
+                if (code == 0) {
+                    empty++;
+                    continue;
+                }
+                if (empty != 0) {
+                    sb.append(empty);
+                    empty = 0;
+                }
+                sb.append(Piece.toFenChar(code));
+            }
+            if (empty != 0) {
+                sb.append(empty);
+            }
+            if (rank != 0) {
+                sb.append('/');
+            }
+        }
+        sb.append(this.sideToMove == Piece.WHITE ? " w " : " b ");
+        if (this.castling == 0) {
+            sb.append('-');
+        } else {
+            if ((this.castling & CASTLE_WHITE_KING) != 0)
+                sb.append('K');
+            if ((this.castling & CASTLE_WHITE_QUEEN) != 0)
+                sb.append('Q');
+            if ((this.castling & CASTLE_BLACK_KING) != 0)
+                sb.append('k');
+            if ((this.castling & CASTLE_BLACK_QUEEN) != 0)
+                sb.append('q');
+        }
+        sb.append(' ');
+        if (this.epSquare == -1) {
+            sb.append('-');
+        } else {
+            Move.appendSquare(sb, this.epSquare, this.size);
+        }
+        sb.append(' ').append(this.halfmoveClock).append(' ').append(this.fullmoveNumber);
+        return sb.toString();
+    }
+
+    void place(int square, int code) {
+        this.board[square] = code;
+        this.hash ^= Zobrist.piece(code, square);
+        int color = Piece.colorOf(code);
+        if (square < 64) {
+            long bit = 1L << square;
+            this.piecesLo[code] |= bit;
+            this.colorLo[color] |= bit;
+        } else {
+            long bit = 1L << (square - 64);
+            this.piecesHi[code] |= bit;
+            this.colorHi[color] |= bit;
+        }
+        if (Piece.pieceOf(code) == Piece.KING) {
+            this.kingSquare[color] = square;
+        }
+    }
+
+    void remove(int square) {
+        int code = this.board[square];
+        this.board[square] = 0;
+        this.hash ^= Zobrist.piece(code, square);
+        int color = Piece.colorOf(code);
+        if (square < 64) {
+            long bit = ~(1L << square);
+            this.piecesLo[code] &= bit;
+            this.colorLo[color] &= bit;
+        } else {
+            long bit = ~(1L << (square - 64));
+            this.piecesHi[code] &= bit;
+            this.colorHi[color] &= bit;
+        }
+        if (Piece.pieceOf(code) == Piece.KING && this.kingSquare[color] == square) {
+            this.kingSquare[color] = -1;
+        }
+    }
+
+    /**
+     * @return The square of the piece captured by a move, which differs from the
+     *         destination only for en passant
+     */
+    int captureSquare(int move) {
+        int to = Move.to(move);
+        if (Move.flag(move) == Move.FLAG_EN_PASSANT) {
+            return this.sideToMove == Piece.WHITE ? to - this.size : to + this.size;
+        }
+        return to;
+    }
+
+    /**
+     * For a castling move returns the rook's starting square in the low 16 bits
+     * and its destination in the high 16 bits
+     */
+    int castleRookSquares(int move) {
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int rankStart = from - from % this.size;
+        if (to > from) {
+            return (rankStart + this.size - 1) | ((to - 1) << 16);
+        } else {
+            return rankStart | ((to + 1) << 16);
+        }
+    }
+
+    public void makeMove(int move) {
+        if (this.ply == this.undoMove.length) {
+            growUndoStack();
+        }
+        int from = Move.from(move);
+        int to = Move.to(move);
+        int flag = Move.flag(move);
+        int us = this.sideToMove;
+        int code = this.board[from];
+
+        int capturedSquare = captureSquare(move);
+        int captured = this.board[capturedSquare];
+
+        this.undoMove[this.ply] = move;
+        this.undoCaptured[this.ply] = captured;
+        this.undoCastling[this.ply] = this.castling;
+        this.undoEpSquare[this.ply] = this.epSquare;
+        this.undoHalfmove[this.ply] = this.halfmoveClock;
+        this.undoHash[this.ply] = this.hash;
+        this.ply++;
+
+        if (captured != 0) {
+            remove(capturedSquare);
+        }
+        remove(from);
+        int promotion = Move.promotion(move);
+        place(to, promotion != Piece.NONE ? Piece.code(promotion, us) : code);
+
+        if (flag == Move.FLAG_CASTLE) {
+            int rook = castleRookSquares(move);
+            int rookFrom = rook & 0xFFFF;
+            int rookTo = rook >>> 16;
+            int rookCode = this.board[rookFrom];
+            remove(rookFrom);
+            place(rookTo, rookCode);
+        }
+
+        this.hash ^= Zobrist.castling(this.castling) ^ Zobrist.enPassant(this.epSquare) ^ Zobrist.BLACK_TO_MOVE;
+        this.castling &= this.castleMask[from] & this.castleMask[to];
+        this.epSquare = flag == Move.FLAG_DOUBLE_PUSH ? (from + to) / 2 : -1;
+        this.hash ^= Zobrist.castling(this.castling) ^ Zobrist.enPassant(this.epSquare);
+        if (Piece.pieceOf(code) == Piece.PAWN || captured != 0) {
+            this.halfmoveClock = 0;
+        } else {
+            this.halfmoveClock++;
+        }
+        if (us == Piece.BLACK) {
+            this.fullmoveNumber++;
+        }
+        this.sideToMove = us ^ 1;
+    }
+
+    public void unmakeMove() {
+        this.ply--;
+        int move = this.undoMove[this.ply];
+        int captured = this.undoCaptured[this.ply];
+        this.castling = this.undoCastling[this.ply];
+        this.epSquare = this.undoEpSquare[this.ply];
+        this.halfmoveClock = this.undoHalfmove[this.ply];
+
+        this.sideToMove ^= 1;
+        int us = this.sideToMove;
+        if (us == Piece.BLACK) {
+            this.fullmoveNumber--;
+        }
+
+        int from = Move.from(move);
+        int to = Move.to(move);
+        if (Move.flag(move) == Move.FLAG_CASTLE) {
+            int rook = castleRookSquares(move);
+            int rookFrom = rook & 0xFFFF;
+            int rookTo = rook >>> 16;
+            int rookCode = this.board[rookTo];
+            remove(rookTo);
+            place(rookFrom, rookCode);
+        }
+
+        int code = this.board[to];
+        remove(to);
+        place(from, Move.promotion(move) != Piece.NONE ? Piece.code(Piece.PAWN, us) : code);
+        if (captured != 0) {
+            place(captureSquare(move), captured);
+        }
+        this.hash = this.undoHash[this.ply];
+    }
+
+    private void growUndoStack() {
+        int length = this.undoMove.length * 2;
+        this.undoMove = Arrays.copyOf(this.undoMove, length);
+        this.undoCaptured = Arrays.copyOf(this.undoCaptured, length);
+        this.undoCastling = Arrays.copyOf(this.undoCastling, length);
+        this.undoEpSquare = Arrays.copyOf(this.undoEpSquare, length);
+        this.undoHalfmove = Arrays.copyOf(this.undoHalfmove, length);
+        this.undoHash = Arrays.copyOf(this.undoHash, length);
+    }
+
+    /**
+     * @return True if any piece of color by attacks square
+     */
+    public boolean isAttacked(int square, int by) {
+        Geometry g = this.geometry;
+        for (int piece = Piece.KING; piece < Piece.COUNT; piece++) {
+            int code = Piece.code(piece, by);
+            if (((g.leapLo[piece][square] & this.piecesLo[code]) | (g.leapHi[piece][square] & this.piecesHi[code])) != 0) {
+                return true;
+            }
+        }
+        int pawn = Piece.code(Piece.PAWN, by);
+        // A pawn of color by attacks square if a pawn of the other color on square
+        // would attack it back
+        if (((g.pawnLo[by ^ 1][square] & this.piecesLo[pawn]) | (g.pawnHi[by ^ 1][square] & this.piecesHi[pawn])) != 0) {
+            return true;
+        }
+
+        long occLo = this.colorLo[0] | this.colorLo[1];
+        long occHi = this.colorHi[0] | this.colorHi[1];
+        for (int dir = 0; dir < 8; dir++) {
+            long lo = g.rayLo[dir][square] & occLo;
+            long hi = g.rayHi[dir][square] & occHi;
+            if ((lo | hi) == 0) {
+                continue;
+            }
+            int blocker = g.positive[dir] ? Geometry.lowestSquare(lo, hi) : Geometry.highestSquare(lo, hi);
+            int code = this.board[blocker];
+            if (Piece.colorOf(code) != by) {
+                continue;
+            }
+            int piece = Piece.pieceOf(code);
+            if (piece == Piece.QUEEN) {
+                return true;
+            }
+            if (dir < 4 ? (piece == Piece.ROOK || piece == Piece.DRAGON) : piece == Piece.BISHOP) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean inCheck() {
+        int king = this.kingSquare[this.sideToMove];
+        return king != -1 && isAttacked(king, this.sideToMove ^ 1);
+    }
+
+}
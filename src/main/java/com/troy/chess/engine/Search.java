@@ -0,0 +1,556 @@
+package com.troy.chess.engine;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Iterative deepening alpha-beta search that uses every core through Lazy SMP.
+ *
+ * Each thread searches the same position with its own copy of the board and
+ * only the transposition table is shared, so the threads pick up each other's
+ * results as cutoffs. Helpers on odd indices start one ply deeper so the
+ * threads drift apart rather than repeating each other's work. The answer
+ * always comes from the main thread's last finished iteration, and a Listener
+ * can be told about each one as it finishes.
+ */
+public class Search {
+
+    public static final int MATE = 30000;
+    private static final int INFINITY = 32000;
+
+    static final int MAX_PLY = 64;
+
+    /**
+     * Scores within this many plies of MATE are mates. Far more than MAX_PLY since
+     * a tablebase can see a mate hundreds of plies past the end of the search
+     */
+    static final int MATE_BAND = 1000;
+
+    /**
+     * Milliseconds per move unless overridden with -Dcontrasting_chess.search_ms
+     */
+    public static final long DEFAULT_MILLIS = Long.getLong("contrasting_chess.search_ms", 1000);
+
+    /**
+     * Threads per search unless overridden with -Dcontrasting_chess.search_threads
+     */
+    public static final int DEFAULT_THREADS = Integer.getInteger("contrasting_chess.search_threads",
+            Runtime.getRuntime().availableProcessors());
+
+    private static final ExecutorService helpers;
+
+    private static TranspositionTable sharedTable;
+
+    static {
+        AtomicInteger threadCount = new AtomicInteger(0);
+        helpers = Executors.newCachedThreadPool((runnable) -> {
+            Thread thread = new Thread(runnable, "Search Helper " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return The table used by every search that doesn't bring its own, sized by
+     *         -Dcontrasting_chess.hash_mb (64 by default)
+     */
+    public static synchronized TranspositionTable getSharedTable() {
+        if (sharedTable == null) {
+            sharedTable = new TranspositionTable(Integer.getInteger("contrasting_chess.hash_mb", 64));
+        }
+        return sharedTable;
+    }
+
+    /**
+     * @return True if a score is a forced mate for one side
+     */
+    public static boolean isMate(int score) {
+        return Math.abs(score) > MATE - MATE_BAND;
+    }
+
+    /**
+     * @return How many plies away the mate of a mate score is
+     */
+    public static int matePlies(int score) {
+        return MATE - Math.abs(score);
+    }
+
+    /**
+     * What one search found and how hard it looked
+     */
+    public static class Result {
+        public final int move;
+        // From the side to move's point of view
+        public final int score;
+        public final int depth;
+        public final long nodes;
+        public final long nanos;
+        /**
+         * The moves both sides are expected to play from the position, starting
+         * with move. Follows the transposition table so it may stop short of depth
+         */
+        public final int[] pv;
+
+        Result(int move, int score, int depth, long nodes, long nanos, int[] pv) {
+            this.move = move;
+            this.score = score;
+            this.depth = depth;
+            this.nodes = nodes;
+            this.nanos = nanos;
+            this.pv = pv;
+        }
+
+        public long getNodesPerSecond() {
+            return this.nanos == 0 ? 0 : this.nodes * 1000000000L / this.nanos;
+        }
+
+        public String describe(int boardSize) {
+            String score;
+            if (isMate(this.score)) {
+                int plies = matePlies(this.score);
+                score = (this.score > 0 ? "mate in " : "mated in ") + (plies + 1) / 2;
+            } else {
+                score = String.format("score %+.2f", this.score / 100.0);
+            }
+            return String.format("%s depth %d %s, %d nodes in %d ms (%d nodes/sec)", Move.toString(this.move, boardSize),
+                    this.depth, score, this.nodes, this.nanos / 1000000, getNodesPerSecond());
+        }
+    }
+
+    /**
+     * Told about every iteration the main thread finishes, on the searching
+     * thread. Should return quickly since the search waits for it
+     */
+    public interface Listener {
+        void iterationFinished(Result result);
+    }
+
+    /**
+     * State shared by the threads of one search
+     */
+    private static class Shared {
+        final long start;
+        final long deadline;
+        final Listener listener;
+        Worker[] workers;
+        volatile boolean stopped;
+
+        Shared(long start, long deadline, Listener listener) {
+            this.start = start;
+            this.deadline = deadline;
+            this.listener = listener;
+        }
+
+        /**
+         * @return The nodes searched so far by every thread. Read without
+         *         synchronization so only roughly right while the helpers run
+         */
+        long nodes() {
+            long nodes = 0;
+            for (Worker worker : this.workers) {
+                nodes += worker.nodes;
+            }
+            return nodes;
+        }
+    }
+
+    private final TranspositionTable table;
+    private final int threads;
+    private final Tablebases tablebases;
+
+    public Search(TranspositionTable table, int threads) {
+        this(table, threads, Tablebases.getDefault());
+    }
+
+    /**
+     * @param tablebases Endgame tables probed instead of searching the positions
+     *                   they cover
+     */
+    public Search(TranspositionTable table, int threads, Tablebases tablebases) {
+        this.table = table;
+        this.threads = Math.max(1, threads);
+        this.tablebases = tablebases;
+    }
+
+    /**
+     * Searches until the time is up. At least one full ply is always searched
+     *
+     * @param position Not modified
+     * @return The best move found, or Move.NONE if there are no legal moves
+     */
+    public Result search(Position position, long millis) {
+        return search(position, millis, null);
+    }
+
+    /**
+     * @param listener Told about each finished iteration, or null
+     */
+    public Result search(Position position, long millis, Listener listener) {
+        long start = System.nanoTime();
+        Shared shared = new Shared(start, start + millis * 1000000, listener);
+        String fen = position.toFen();
+
+        Worker main = new Worker(new Position(fen), shared, 0);
+        Worker[] workers = new Worker[this.threads];
+        Future<?>[] futures = new Future<?>[this.threads];
+        workers[0] = main;
+        for (int i = 1; i < this.threads; i++) {
+            workers[i] = new Worker(new Position(fen), shared, i);
+        }
+        shared.workers = workers;
+        for (int i = 1; i < this.threads; i++) {
+            futures[i] = helpers.submit(workers[i]::iterate);
+        }
+        main.iterate();
+        shared.stopped = true;
+
+        long nodes = 0;
+        for (int i = 0; i < this.threads; i++) {
+            if (futures[i] != null) {
+                try {
+                    futures[i].get();
+                } catch (Exception e) {
+                    throw new RuntimeException("Search helper failed", e);
+                }
+            }
+            nodes += workers[i].nodes;
+        }
+        return new Result(main.bestMove, main.bestScore, main.completedDepth, nodes, System.nanoTime() - start,
+                main.principalVariation());
+    }
+
+    /**
+     * Mate scores are stored relative to the node so they stay right when the
+     * same position is reached at another ply
+     */
+    private static int toTable(int score, int ply) {
+        if (score > MATE - MATE_BAND) {
+            return score + ply;
+        }
+        if (score < -MATE + MATE_BAND) {
+            return score - ply;
+        }
+        return score;
+    }
+
+    private static int fromTable(int score, int ply) {
+        if (score > MATE - MATE_BAND) {
+            return score - ply;
+        }
+        if (score < -MATE + MATE_BAND) {
+            return score + ply;
+        }
+        return score;
+    }
+
+    private class Worker {
+        final Position position;
+        final Shared shared;
+        final int index;
+
+        // One block of MAX_MOVES per ply
+        final int[] moves = new int[MAX_PLY * MoveGenerator.MAX_MOVES];
+        final int[] order = new int[MAX_PLY * MoveGenerator.MAX_MOVES];
+        final int[][] killers = new int[MAX_PLY][2];
+
+        long nodes;
+        int completedDepth;
+        int bestMove = Move.NONE;
+        int bestScore;
+        int rootMove;
+
+        Worker(Position position, Shared shared, int index) {
+            this.position = position;
+            this.shared = shared;
+            this.index = index;
+        }
+
+        void iterate() {
+            for (int depth = 1 + (this.index & 1); depth < MAX_PLY - 1; depth++) {
+                this.rootMove = Move.NONE;
+                int score = search(depth, -INFINITY, INFINITY, 0);
+                if (stopped()) {
+                    // The iteration was cut short so its result can't be trusted
+                    break;
+                }
+                this.completedDepth = depth;
+                this.bestMove = this.rootMove;
+                this.bestScore = score;
+                if (this.bestMove == Move.NONE) {
+                    // No legal moves so nothing deeper to find
+                    break;
+                }
+                if (this.index == 0 && this.shared.listener != null) {
+                    this.shared.listener.iterationFinished(new Result(this.bestMove, score, depth,
+                            this.shared.nodes(), System.nanoTime() - this.shared.start, principalVariation()));
+                }
+            }
+        }
+
+        /**
+         * Follows the best move of the last finished iteration and then the table's
+         * best move in each position after it, stopping at a move that isn't legal
+         * (the entry was replaced) or a position already on the line
+         */
+        int[] principalVariation() {
+            if (this.bestMove == Move.NONE) {
+                return new int[0];
+            }
+            Position p = this.position;
+            int[] pv = new int[Math.max(1, this.completedDepth)];
+            long[] seen = new long[pv.length];
+            int length = 0;
+            int move = this.bestMove;
+            while (length < pv.length && move != Move.NONE) {
+                int count = MoveGenerator.generateLegal(p, this.moves, 0);
+                boolean legal = false;
+                for (int i = 0; i < count && !legal; i++) {
+                    legal = this.moves[i] == move;
+                }
+                boolean repeated = false;
+                for (int i = 0; i < length && !repeated; i++) {
+                    repeated = seen[i] == p.hash;
+                }
+                if (!legal || repeated) {
+                    break;
+                }
+                seen[length] = p.hash;
+                pv[length++] = move;
+                p.makeMove(move);
+                long entry = Search.this.table.probe(p.hash);
+                move = entry == 0 ? Move.NONE : TranspositionTable.move(entry);
+            }
+            for (int i = 0; i < length; i++) {
+                p.unmakeMove();
+            }
+            return Arrays.copyOf(pv, length);
+        }
+
+        private void checkTime() {
+            // Only the main thread stops the search, once it has a move to play
+            if (this.index == 0 && this.completedDepth > 0 && System.nanoTime() > this.shared.deadline) {
+                this.shared.stopped = true;
+            }
+        }
+
+        private boolean stopped() {
+            return this.shared.stopped && (this.index != 0 || this.completedDepth > 0);
+        }
+
+        private boolean leftInCheck(int us) {
+            int king = this.position.kingSquare[us];
+            return king != -1 && this.position.isAttacked(king, us ^ 1);
+        }
+
+        private int search(int depth, int alpha, int beta, int ply) {
+            Position p = this.position;
+            if (ply > 0 && p.halfmoveClock >= 100) {
+                return 0;
+            }
+            if (ply > 0) {
+                int code = Search.this.tablebases.probe(p);
+                if (code != -1) {
+                    this.nodes++;
+                    return Tablebase.score(code, ply);
+                }
+            }
+            if (depth <= 0 || ply >= MAX_PLY - 1) {
+                return quiesce(alpha, beta, ply);
+            }
+            if ((++this.nodes & 1023) == 0) {
+                checkTime();
+            }
+            if (stopped()) {
+                return 0;
+            }
+
+            long hash = p.hash;
+            long entry = Search.this.table.probe(hash);
+            int tableMove = Move.NONE;
+            if (entry != 0) {
+                tableMove = TranspositionTable.move(entry);
+                if (ply > 0 && TranspositionTable.depth(entry) >= depth) {
+                    int score = fromTable(TranspositionTable.score(entry), ply);
+                    int bound = TranspositionTable.bound(entry);
+                    if (bound == TranspositionTable.EXACT || (bound == TranspositionTable.LOWER && score >= beta)
+                            || (bound == TranspositionTable.UPPER && score <= alpha)) {
+                        return score;
+                    }
+                }
+            }
+
+            int us = p.sideToMove;
+            boolean inCheck = p.inCheck();
+            if (inCheck) {
+                depth++;
+            }
+
+            int offset = ply * MoveGenerator.MAX_MOVES;
+            int count = MoveGenerator.generatePseudoLegal(p, this.moves, offset);
+            scoreMoves(offset, count, tableMove, ply);
+
+            int originalAlpha = alpha;
+            int best = -INFINITY;
+            int bestMove = Move.NONE;
+            int legal = 0;
+            for (int i = 0; i < count; i++) {
+                int move = nextMove(offset, i, count);
+                p.makeMove(move);
+                if (leftInCheck(us)) {
+                    p.unmakeMove();
+                    continue;
+                }
+                legal++;
+                int score;
+                if (legal == 1) {
+                    score = -search(depth - 1, -beta, -alpha, ply + 1);
+                } else {
+                    // Prove the move is no better than the best so far with a null window
+                    score = -search(depth - 1, -alpha - 1, -alpha, ply + 1);
+                    if (score > alpha && score < beta) {
+                        score = -search(depth - 1, -beta, -alpha, ply + 1);
+                    }
+                }
+                p.unmakeMove();
+                if (stopped()) {
+                    return 0;
+                }
+
+                if (score > best) {
+                    best = score;
+                    bestMove = move;
+                    if (ply == 0) {
+                        this.rootMove = move;
+                    }
+                    if (score > alpha) {
+                        alpha = score;
+                        if (score >= beta) {
+                            if (!isTactical(move)) {
+                                this.killers[ply][1] = this.killers[ply][0];
+                                this.killers[ply][0] = move;
+                            }
+                            break;
+                        }
+                    }
+                }
+            }
+
+            if (legal == 0) {
+                return inCheck ? -MATE + ply : 0;
+            }
+            int bound = best >= beta ? TranspositionTable.LOWER
+                    : best > originalAlpha ? TranspositionTable.EXACT : TranspositionTable.UPPER;
+            Search.this.table.store(hash, bestMove, toTable(best, ply), depth, bound);
+            return best;
+        }
+
+        /**
+         * Searches only captures and promotions so the evaluation is never taken in
+         * the middle of an exchange
+         */
+        private int quiesce(int alpha, int beta, int ply) {
+            if ((++this.nodes & 1023) == 0) {
+                checkTime();
+            }
+            if (stopped()) {
+                return 0;
+            }
+            Position p = this.position;
+            int standPat = Evaluation.evaluate(p);
+            if (ply >= MAX_PLY - 1 || standPat >= beta) {
+                return standPat;
+            }
+            if (standPat > alpha) {
+                alpha = standPat;
+            }
+
+            int us = p.sideToMove;
+            int offset = ply * MoveGenerator.MAX_MOVES;
+            int count = MoveGenerator.generatePseudoLegal(p, this.moves, offset);
+            // Keep only the tactical moves
+            int tactical = 0;
+            for (int i = 0; i < count; i++) {
+                int move = this.moves[offset + i];
+                if (isTactical(move)) {
+                    this.moves[offset + tactical++] = move;
+                }
+            }
+            scoreMoves(offset, tactical, Move.NONE, ply);
+            for (int i = 0; i < tactical; i++) {
+                int move = nextMove(offset, i, tactical);
+                p.makeMove(move);
+                if (leftInCheck(us)) {
+                    p.unmakeMove();
+                    continue;
+                }
+                int score = -quiesce(-beta, -alpha, ply + 1);
+                p.unmakeMove();
+                if (stopped()) {
+                    return 0;
+                }
+                if (score >= beta) {
+                    return score;
+                }
+                if (score > alpha) {
+                    alpha = score;
+                }
+            }
+            return alpha;
+        }
+
+        private boolean isTactical(int move) {
+            return this.position.board[Move.to(move)] != 0 || Move.flag(move) == Move.FLAG_EN_PASSANT
+                    || Move.promotion(move) != Piece.NONE;
+        }
+
+        /**
+         * Orders the table move first, then captures of the most valuable piece by
+         * the least valuable one, promotions, killers and finally quiet moves
+         */
+        private void scoreMoves(int offset, int count, int tableMove, int ply) {
+            int[] board = this.position.board;
+            for (int i = offset; i < offset + count; i++) {
+                int move = this.moves[i];
+                int score = 0;
+                if (move == tableMove) {
+                    score = 1000000;
+                } else if (board[Move.to(move)] != 0 || Move.flag(move) == Move.FLAG_EN_PASSANT) {
+                    int victim = Move.flag(move) == Move.FLAG_EN_PASSANT ? Piece.PAWN
+                            : Piece.pieceOf(board[Move.to(move)]);
+                    int attacker = Piece.pieceOf(board[Move.from(move)]);
+                    score = 100000 + Evaluation.VALUES[victim] * 10 - Evaluation.VALUES[attacker] / 10;
+                } else if (Move.promotion(move) != Piece.NONE) {
+                    score = 90000 + Evaluation.VALUES[Move.promotion(move)];
+                } else if (move == this.killers[ply][0]) {
+                    score = 80000;
+                } else if (move == this.killers[ply][1]) {
+                    score = 79000;
+                }
+                this.order[i] = score;
+            }
+        }
+
+        /**
+         * Swaps the best scoring of the remaining moves into position i and returns it
+         */
+        private int nextMove(int offset, int i, int count) {
+            int best = offset + i;
+            for (int j = best + 1; j < offset + count; j++) {
+                if (this.order[j] > this.order[best]) {
+                    best = j;
+                }
+            }
+            int move = this.moves[best];
+            this.moves[best] = this.moves[offset + i];
+            this.moves[offset + i] = move;
+            int score = this.order[best];
+            this.order[best] = this.order[offset + i];
+            this.order[offset + i] = score;
+            return move;
+        }
+    }
+
+}
@@ -0,0 +1,328 @@
+package com.troy.chess.engine;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A memory mapped endgame table for one pawnless set of pieces, built by
+ * {@link TablebaseGenerator}.
+ *
+ * Every placement of the pieces with either side to move has a fixed index, so
+ * probing is a single read from the mapping. Each entry is a code packed into
+ * bitsPerEntry bits:
+ *
+ * - 0 draw (or a position that can't happen)
+ *
+ * - otherwise distance to mate in plies + 1. An odd code means the side to move
+ * is getting mated, an even code that it is giving mate
+ *
+ * The file is an 8 byte magic, int board size, int piece count, int bits per
+ * entry, int largest code, 8 bytes of square codes (white's pieces then
+ * black's, kings first and the rest by piece number) and then the entries
+ * packed into little endian longs.
+ *
+ * Tables hold no castling rights or en passant squares, and since no piece but
+ * the pawn moves differently for white and black a table also answers for the
+ * same pieces with the colors swapped.
+ */
+public class Tablebase implements Closeable {
+
+    private static final long MAGIC = 0x3145534142544343L; // "CCTBASE1"
+    private static final int HEADER_SIZE = 32;
+    static final int MAX_PIECES = 8;
+
+    public static final String EXTENSION = ".ctb";
+
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int boardSize;
+    private final int[] codes;
+    private final int bitsPerEntry;
+    private final int maxCode;
+    private final long key;
+    private final long flippedKey;
+
+    public static Tablebase open(Path file) throws IOException {
+        return new Tablebase(file);
+    }
+
+    private Tablebase(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            long size = this.channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            this.map = this.channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            this.map.order(ByteOrder.LITTLE_ENDIAN);
+            this.boardSize = this.map.getInt(8);
+            int pieces = this.map.getInt(12);
+            this.bitsPerEntry = this.map.getInt(16);
+            this.maxCode = this.map.getInt(20);
+            if (this.map.getLong(0) != MAGIC || pieces < 2 || pieces > MAX_PIECES || this.bitsPerEntry < 1
+                    || this.bitsPerEntry > 16 || size != HEADER_SIZE + dataSize(entries(this.boardSize, pieces),
+                            this.bitsPerEntry)) {
+                throw new IOException(file + " is not a tablebase");
+            }
+            if (distance(this.maxCode) + Search.MAX_PLY >= Search.MATE_BAND) {
+                // Probed at the deepest ply its mates would fall out of the mate scores
+                throw new IOException(file + " has mates too long to score");
+            }
+            this.codes = new int[pieces];
+            for (int i = 0; i < pieces; i++) {
+                this.codes[i] = this.map.get(24 + i);
+            }
+        } catch (IOException e) {
+            this.channel.close();
+            throw e;
+        }
+        this.key = materialKey(this.codes, false);
+        this.flippedKey = materialKey(this.codes, true);
+    }
+
+    static long entries(int boardSize, int pieces) {
+        long entries = 2;
+        for (int i = 0; i < pieces; i++) {
+            entries *= boardSize * boardSize;
+        }
+        return entries;
+    }
+
+    private static long dataSize(long entries, int bitsPerEntry) {
+        return (entries * bitsPerEntry + 63) / 64 * 8;
+    }
+
+    /**
+     * Packs the multiset of square codes into a long, the same way for a table's
+     * pieces and for a position holding them
+     *
+     * @param flip Swap the colors of every piece first
+     */
+    static long materialKey(int[] codes, boolean flip) {
+        int[] sorted = new int[codes.length];
+        for (int i = 0; i < codes.length; i++) {
+            sorted[i] = flip ? codes[i] ^ 1 : codes[i];
+        }
+        Arrays.sort(sorted);
+        long key = 0;
+        for (int code : sorted) {
+            key = key << 5 | code;
+        }
+        return key;
+    }
+
+    static long materialKey(Position position) {
+        long key = 0;
+        for (int code = 2; code < Piece.COUNT * 2; code++) {
+            int count = Long.bitCount(position.piecesLo[code]) + Long.bitCount(position.piecesHi[code]);
+            for (int i = 0; i < count; i++) {
+                key = key << 5 | code;
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return A name such as KRvK for the pieces, white's first
+     */
+    public static String name(int[] codes) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < codes.length; i++) {
+            if (i > 0 && Piece.colorOf(codes[i]) == Piece.BLACK && Piece.colorOf(codes[i - 1]) == Piece.WHITE) {
+                sb.append('v');
+            }
+            sb.append(Character.toUpperCase(Piece.toFenChar(codes[i])));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return The file a table is kept in, such as KRvK-10.ctb. The board size is
+     *         part of it so both variants' tables can share a directory
+     */
+    public static String fileName(int boardSize, int[] codes) {
+        return name(codes) + "-" + boardSize + EXTENSION;
+    }
+
+    public String getName() {
+        return name(this.codes);
+    }
+
+    public int getBoardSize() {
+        return this.boardSize;
+    }
+
+    public int getPieceCount() {
+        return this.codes.length;
+    }
+
+    /**
+     * @return The square codes of the pieces in the order they are indexed
+     */
+    public int[] getCodes() {
+        return this.codes.clone();
+    }
+
+    /**
+     * @return The longest distance to mate in the table, in plies
+     */
+    public int getLongestMate() {
+        return Math.max(0, this.maxCode - 1);
+    }
+
+    long getKey() {
+        return this.key;
+    }
+
+    long getFlippedKey() {
+        return this.flippedKey;
+    }
+
+    /**
+     * Looks up a position holding exactly this table's pieces, in either color
+     *
+     * @return The entry code, see the class comment
+     */
+    public int probe(Position position) {
+        int flip = materialKey(position) == this.key ? 0 : 1;
+        int squares = this.boardSize * this.boardSize;
+        long index = position.sideToMove ^ flip;
+        long lo = 0;
+        long hi = 0;
+        for (int i = 0; i < this.codes.length; i++) {
+            if (i == 0 || this.codes[i] != this.codes[i - 1]) {
+                int code = this.codes[i] ^ flip;
+                lo = position.piecesLo[code];
+                hi = position.piecesHi[code];
+            }
+            // Pieces of the same kind take their squares in ascending order
+            int square;
+            if (lo != 0) {
+                square = Long.numberOfTrailingZeros(lo);
+                lo &= lo - 1;
+            } else {
+                square = 64 + Long.numberOfTrailingZeros(hi);
+                hi &= hi - 1;
+            }
+            index = index * squares + square;
+        }
+        return get(index);
+    }
+
+    /**
+     * @return The code of the entry at an index
+     */
+    int get(long index) {
+        long bit = index * this.bitsPerEntry;
+        int word = (int) (bit >>> 6);
+        int shift = (int) (bit & 63);
+        long value = this.map.getLong(HEADER_SIZE + word * 8) >>> shift;
+        if (shift + this.bitsPerEntry > 64) {
+            value |= this.map.getLong(HEADER_SIZE + (word + 1) * 8) << (64 - shift);
+        }
+        return (int) (value & ((1 << this.bitsPerEntry) - 1));
+    }
+
+    /**
+     * @return True if the side to move is mated in this many plies or fewer
+     */
+    public static boolean isLoss(int code) {
+        return (code & 1) == 1;
+    }
+
+    public static boolean isWin(int code) {
+        return code != 0 && (code & 1) == 0;
+    }
+
+    /**
+     * @return Plies until mate for a won or lost code
+     */
+    public static int distance(int code) {
+        return code - 1;
+    }
+
+    /**
+     * Converts an entry code into a Search score for a node at the given ply
+     */
+    static int score(int code, int ply) {
+        if (code == 0) {
+            return 0;
+        }
+        int mateAt = ply + distance(code);
+        return isWin(code) ? Search.MATE - mateAt : -Search.MATE + mateAt;
+    }
+
+    /**
+     * Writes a table, replacing any older copy atomically
+     *
+     * @param values One code per index, see the class comment
+     */
+    static void write(Path file, int boardSize, int[] codes, short[] values) throws IOException {
+        int maxCode = 0;
+        for (short value : values) {
+            maxCode = Math.max(maxCode, value);
+        }
+        int bits = Math.max(1, 32 - Integer.numberOfLeadingZeros(maxCode));
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer b = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+            b.putLong(MAGIC);
+            b.putInt(boardSize);
+            b.putInt(codes.length);
+            b.putInt(bits);
+            b.putInt(maxCode);
+            for (int i = 0; i < MAX_PIECES; i++) {
+                b.put((byte) (i < codes.length ? codes[i] : 0));
+            }
+
+            long word = 0;
+            int used = 0;
+            for (short value : values) {
+                word |= (long) value << used;
+                used += bits;
+                if (used >= 64) {
+                    putWord(out, b, word);
+                    used -= 64;
+                    // The bits of this value that didn't fit start the next word
+                    word = used == 0 ? 0 : (long) value >>> (bits - used);
+                }
+            }
+            if (used > 0) {
+                putWord(out, b, word);
+            }
+            b.flip();
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void putWord(FileChannel out, ByteBuffer b, long word) throws IOException {
+        if (b.remaining() < 8) {
+            b.flip();
+            while (b.hasRemaining()) {
+                out.write(b);
+            }
+            b.clear();
+        }
+        b.putLong(word);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+}
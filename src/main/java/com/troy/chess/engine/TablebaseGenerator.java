@@ -0,0 +1,444 @@
+package com.troy.chess.engine;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+import com.troy.chess.Natives.GameType;
+
+/**
+ * Builds {@link Tablebase} files by retrograde analysis, using every core.
+ *
+ * Every index of the table is first checked forwards once: illegal placements
+ * and mates are marked, captures are looked up in the smaller tables they lead
+ * to and the quiet moves are counted. After that the work runs backwards one
+ * distance at a time. Positions lost in d plies make all their predecessors won
+ * in d + 1, and positions won in d count down their predecessors' quiet moves;
+ * a predecessor with none left is lost. Since no piece but the pawn moves
+ * differently forwards and backwards, the predecessors of a position are just
+ * the quiet moves of the side that isn't to move.
+ *
+ * Tables for positions reachable by a capture are generated first if they are
+ * not already in the output directory.
+ *
+ * Usage: TablebaseGenerator [--variant chess|contrasting_chess] [--threads N]
+ * [--out DIR] [TABLE...]
+ *
+ * Tables are named like KRvK (see Tablebase.name). Without any, every table of a
+ * king and one other piece against a bare king is built. Files also carry the
+ * board size (see Tablebase.fileName), so one directory can hold both variants.
+ */
+public class TablebaseGenerator {
+
+    private static final short ILLEGAL = Short.MAX_VALUE;
+    private static final short DRAW = Short.MIN_VALUE;
+
+    private static final int CHUNK = 1 << 14;
+
+    private static final VarHandle REMAINING = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final int size;
+    private final int squares;
+    private final Path directory;
+    private final ForkJoinPool pool;
+    private final Tablebases done = new Tablebases();
+
+    // The table being generated
+    private int[] codes;
+    private int entries;
+    private int perSide;
+    private int[] placeValues;
+
+    /**
+     * The final code of each index, 0 while unknown (a draw once generation ends)
+     * or ILLEGAL
+     */
+    private short[] value;
+
+    /**
+     * Quiet moves whose result is not known yet, as an unsigned byte
+     */
+    private byte[] remaining;
+
+    /**
+     * A code the index becomes at that distance unless it is decided sooner, DRAW
+     * if a capture draws, or minus the longest loss through a capture while
+     * quiet moves remain
+     */
+    private short[] pending;
+
+    private final AtomicInteger lastScheduled = new AtomicInteger();
+
+    public static void main(String[] args) throws Exception {
+        GameType variant = GameType.ContrastingChess;
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path out = Tablebases.DEFAULT_DIRECTORY;
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+            case "--variant":
+                variant = args[++i].equals("chess") ? GameType.Chess : GameType.ContrastingChess;
+                break;
+            case "--threads":
+                threads = Integer.parseInt(args[++i]);
+                break;
+            case "--out":
+                out = Paths.get(args[++i]);
+                break;
+            default:
+                if (args[i].startsWith("--")) {
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+                }
+                names.add(args[i]);
+            }
+        }
+        if (names.isEmpty()) {
+            String pieces = variant == GameType.Chess ? "QRBN" : "QRBNUEMDW";
+            for (char c : pieces.toCharArray()) {
+                names.add("K" + c + "vK");
+            }
+        }
+
+        TablebaseGenerator generator = new TablebaseGenerator(variant.getBoardSize(), out, threads);
+        try {
+            for (String name : names) {
+                generator.generate(parse(name));
+            }
+        } finally {
+            generator.pool.shutdown();
+        }
+    }
+
+    public TablebaseGenerator(int size, Path directory, int threads) throws IOException {
+        this.size = size;
+        this.squares = size * size;
+        this.directory = directory;
+        this.pool = new ForkJoinPool(threads);
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Tablebase.EXTENSION)) {
+            for (Path file : files) {
+                Tablebase table = Tablebase.open(file);
+                if (table.getBoardSize() == size) {
+                    this.done.add(table);
+                } else {
+                    table.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param name Pieces such as KRvK or KDvKW, white's before the v
+     * @return Square codes in table order
+     */
+    public static int[] parse(String name) {
+        String[] sides = name.toUpperCase().split("V");
+        if (sides.length != 2) {
+            throw new IllegalArgumentException("Expected a table name like KRvK, got " + name);
+        }
+        List<Integer> codes = new ArrayList<>();
+        for (int color = 0; color < 2; color++) {
+            int[] pieces = new int[sides[color].length()];
+            for (int i = 0; i < pieces.length; i++) {
+                int code = Piece.fromFenChar(sides[color].charAt(i));
+                if (code == -1) {
+                    throw new IllegalArgumentException("Unknown piece " + sides[color].charAt(i) + " in " + name);
+                }
+                pieces[i] = Piece.pieceOf(code);
+            }
+            Arrays.sort(pieces);
+            if (pieces.length == 0 || pieces[0] != Piece.KING || (pieces.length > 1 && pieces[1] == Piece.KING)) {
+                throw new IllegalArgumentException("Each side needs exactly one king in " + name);
+            }
+            for (int piece : pieces) {
+                if (piece == Piece.PAWN) {
+                    throw new IllegalArgumentException("Tables with pawns are not supported: " + name);
+                }
+                codes.add(Piece.code(piece, color));
+            }
+        }
+        int[] result = new int[codes.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = codes.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Generates a table and, first, any smaller table it captures down to
+     */
+    public void generate(int[] codes) throws IOException {
+        if (this.done.contains(this.size, codes)) {
+            return;
+        }
+        for (int i = 0; i < codes.length; i++) {
+            if (Piece.pieceOf(codes[i]) != Piece.KING) {
+                int[] smaller = new int[codes.length - 1];
+                System.arraycopy(codes, 0, smaller, 0, i);
+                System.arraycopy(codes, i + 1, smaller, i, codes.length - i - 1);
+                generate(smaller);
+            }
+        }
+
+        long entries = Tablebase.entries(this.size, codes.length);
+        if (codes.length > Tablebase.MAX_PIECES || entries > Integer.MAX_VALUE - CHUNK) {
+            throw new IllegalArgumentException(Tablebase.name(codes) + " is too large to generate");
+        }
+        long start = System.nanoTime();
+        this.codes = codes;
+        this.entries = (int) entries;
+        this.perSide = this.entries / 2;
+        this.placeValues = new int[codes.length];
+        int placeValue = 1;
+        for (int i = codes.length - 1; i >= 0; i--) {
+            this.placeValues[i] = placeValue;
+            placeValue *= this.squares;
+        }
+        this.value = new short[this.entries];
+        this.remaining = new byte[this.entries];
+        this.pending = new short[this.entries];
+        this.lastScheduled.set(0);
+
+        forEachChunk(this::initialize);
+        int distance = 0;
+        while (true) {
+            int d = distance;
+            LongAdder frontier = new LongAdder();
+            if (d > 0) {
+                forEachChunk(chunk -> promote(chunk, d));
+            }
+            forEachChunk(chunk -> retract(chunk, d, frontier));
+            if (frontier.sum() == 0 && d >= this.lastScheduled.get()) {
+                break;
+            }
+            distance++;
+        }
+
+        Path file = this.directory.resolve(Tablebase.fileName(this.size, codes));
+        if (Files.exists(file)) {
+            // Only a renamed file can get here, since done holds every table of this size
+            throw new IOException(file + " already holds a table for another board size");
+        }
+        long[] counts = new long[3];
+        for (int i = 0; i < this.entries; i++) {
+            short v = this.value[i];
+            if (v == ILLEGAL) {
+                this.value[i] = 0;
+            } else {
+                counts[v == 0 ? 0 : Tablebase.isWin(v) ? 1 : 2]++;
+            }
+        }
+        Tablebase.write(file, this.size, codes, this.value);
+        this.value = null;
+        this.remaining = null;
+        this.pending = null;
+        Tablebase table = Tablebase.open(file);
+        this.done.add(table);
+        System.out.println(String.format("%s: %d won, %d lost, %d drawn, longest mate %d plies, %d ms",
+                table.getName(), counts[1], counts[2], counts[0], table.getLongestMate(),
+                (System.nanoTime() - start) / 1000000));
+    }
+
+    private void forEachChunk(IntConsumer task) {
+        int chunks = (this.entries + CHUNK - 1) / CHUNK;
+        this.pool.submit(() -> IntStream.range(0, chunks).parallel().forEach(task)).join();
+    }
+
+    /**
+     * A board for one thread, set to table indices by moving only the pieces
+     */
+    private class Worker {
+        final Position position = new Position(GameType.Chess);
+        final int[] pieceSquares;
+        final int[] slotOf;
+        final int[] moves = new int[MoveGenerator.MAX_MOVES];
+
+        Worker() {
+            this.position.clear(TablebaseGenerator.this.size);
+            this.pieceSquares = new int[TablebaseGenerator.this.codes.length];
+            this.slotOf = new int[TablebaseGenerator.this.squares];
+            Arrays.fill(this.pieceSquares, -1);
+        }
+
+        /**
+         * @return False if two pieces share a square
+         */
+        boolean setUp(int index) {
+            Position p = this.position;
+            for (int i = 0; i < this.pieceSquares.length; i++) {
+                if (this.pieceSquares[i] != -1) {
+                    p.remove(this.pieceSquares[i]);
+                    this.pieceSquares[i] = -1;
+                }
+            }
+            setSide(index / TablebaseGenerator.this.perSide);
+            int rest = index % TablebaseGenerator.this.perSide;
+            for (int i = this.pieceSquares.length - 1; i >= 0; i--) {
+                int square = rest % TablebaseGenerator.this.squares;
+                rest /= TablebaseGenerator.this.squares;
+                if (p.board[square] != 0) {
+                    return false;
+                }
+                p.place(square, TablebaseGenerator.this.codes[i]);
+                this.pieceSquares[i] = square;
+                this.slotOf[square] = i;
+            }
+            return true;
+        }
+
+        void setSide(int side) {
+            if (this.position.sideToMove != side) {
+                this.position.sideToMove = side;
+                this.position.hash ^= Zobrist.BLACK_TO_MOVE;
+            }
+        }
+    }
+
+    private final ThreadLocal<Worker> workers = ThreadLocal.withInitial(Worker::new);
+
+    private Worker worker() {
+        Worker w = this.workers.get();
+        if (w.pieceSquares.length != this.codes.length) {
+            w = new Worker();
+            this.workers.set(w);
+        }
+        return w;
+    }
+
+    private void initialize(int chunk) {
+        Worker w = worker();
+        Position p = w.position;
+        int end = Math.min(this.entries, (chunk + 1) * CHUNK);
+        for (int index = chunk * CHUNK; index < end; index++) {
+            if (!w.setUp(index) || p.isAttacked(p.kingSquare[p.sideToMove ^ 1], p.sideToMove)) {
+                this.value[index] = ILLEGAL;
+                continue;
+            }
+            int count = MoveGenerator.generateLegal(p, w.moves, 0);
+            if (count == 0) {
+                if (p.inCheck()) {
+                    this.value[index] = 1;
+                } else {
+                    this.pending[index] = DRAW;
+                }
+                continue;
+            }
+
+            int quiet = 0;
+            int captureWin = 0;
+            int captureLoss = 0;
+            boolean captureDraw = false;
+            for (int i = 0; i < count; i++) {
+                int move = w.moves[i];
+                if (p.board[Move.to(move)] == 0) {
+                    quiet++;
+                    continue;
+                }
+                p.makeMove(move);
+                int child = this.done.probe(p);
+                p.unmakeMove();
+                if (child == -1) {
+                    throw new IllegalStateException("No table for a capture from " + p.toFen());
+                }
+                // Whatever the child is for the opponent, one more ply makes it the
+                // opposite for us
+                if (child == 0) {
+                    captureDraw = true;
+                } else if (Tablebase.isLoss(child)) {
+                    captureWin = captureWin == 0 ? child + 1 : Math.min(captureWin, child + 1);
+                } else {
+                    captureLoss = Math.max(captureLoss, child + 1);
+                }
+            }
+            if (quiet > 0xFF) {
+                throw new IllegalStateException("Too many moves in " + p.toFen());
+            }
+            this.remaining[index] = (byte) quiet;
+            if (captureWin != 0) {
+                schedule(index, captureWin);
+            } else if (captureDraw) {
+                this.pending[index] = DRAW;
+            } else if (quiet == 0) {
+                schedule(index, captureLoss);
+            } else {
+                this.pending[index] = (short) -captureLoss;
+            }
+        }
+    }
+
+    private void schedule(int index, int code) {
+        this.pending[index] = (short) code;
+        this.lastScheduled.accumulateAndGet(code - 1, Math::max);
+    }
+
+    /**
+     * Decides the positions whose pending result falls due at this distance
+     */
+    private void promote(int chunk, int distance) {
+        int code = distance + 1;
+        int end = Math.min(this.entries, (chunk + 1) * CHUNK);
+        for (int index = chunk * CHUNK; index < end; index++) {
+            if (this.value[index] == 0 && this.pending[index] == code) {
+                this.value[index] = (short) code;
+            }
+        }
+    }
+
+    /**
+     * Passes the positions decided at this distance back to their predecessors
+     */
+    private void retract(int chunk, int distance, LongAdder frontier) {
+        int code = distance + 1;
+        boolean lost = Tablebase.isLoss(code);
+        Worker w = worker();
+        Position p = w.position;
+        int end = Math.min(this.entries, (chunk + 1) * CHUNK);
+        for (int index = chunk * CHUNK; index < end; index++) {
+            if (this.value[index] != code) {
+                continue;
+            }
+            frontier.increment();
+            w.setUp(index);
+            int them = p.sideToMove ^ 1;
+            w.setSide(them);
+            int base = index % this.perSide + them * this.perSide;
+            int count = MoveGenerator.generatePseudoLegal(p, w.moves, 0);
+            for (int i = 0; i < count; i++) {
+                int move = w.moves[i];
+                int from = Move.from(move);
+                int to = Move.to(move);
+                if (p.board[to] != 0) {
+                    continue;
+                }
+                int slot = w.slotOf[from];
+                int previous = base + (to - from) * this.placeValues[slot];
+                if (this.value[previous] != 0) {
+                    continue;
+                }
+                if (lost) {
+                    this.value[previous] = (short) (code + 1);
+                } else if (((byte) REMAINING.getAndAdd(this.remaining, previous, (byte) -1) & 0xFF) == 1) {
+                    // That was the last way out, so the predecessor is lost unless a
+                    // capture saves it
+                    short pend = this.pending[previous];
+                    if (pend <= 0 && pend != DRAW) {
+                        schedule(previous, Math.max(code + 1, -pend));
+                    }
+                }
+            }
+        }
+    }
+
+}
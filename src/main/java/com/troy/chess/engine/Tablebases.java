@@ -0,0 +1,109 @@
+package com.troy.chess.engine;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Every {@link Tablebase} in a directory, found by the pieces on the board so
+ * Search can probe without knowing which tables exist.
+ */
+public class Tablebases {
+
+    /**
+     * Where the tables used during play are loaded from, overridden with
+     * -Dcontrasting_chess.tablebase_dir
+     */
+    public static final Path DEFAULT_DIRECTORY = Paths
+            .get(System.getProperty("contrasting_chess.tablebase_dir", "tablebases"));
+
+    private static Tablebases defaultTables;
+
+    // Keyed by board size and Tablebase.materialKey for both colorings of each table
+    private final Map<Long, Tablebase> tables = new HashMap<>();
+    private final int[] maxPieces = new int[12];
+
+    /**
+     * @return The tables in DEFAULT_DIRECTORY, loaded the first time this is called
+     */
+    public static synchronized Tablebases getDefault() {
+        if (defaultTables == null) {
+            defaultTables = new Tablebases();
+            if (Files.isDirectory(DEFAULT_DIRECTORY)) {
+                try {
+                    defaultTables.load(DEFAULT_DIRECTORY);
+                } catch (IOException e) {
+                    System.out.println("Failed to load tablebases from " + DEFAULT_DIRECTORY + ": " + e);
+                }
+            }
+        }
+        return defaultTables;
+    }
+
+    /**
+     * Opens every table file in a directory
+     */
+    public void load(Path directory) throws IOException {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + Tablebase.EXTENSION)) {
+            for (Path file : files) {
+                add(Tablebase.open(file));
+                count++;
+            }
+        }
+        if (count > 0) {
+            System.out.println("Loaded " + count + " tablebases from " + directory);
+        }
+    }
+
+    /**
+     * Must not be called while other threads are probing
+     */
+    public void add(Tablebase table) {
+        int size = table.getBoardSize();
+        this.tables.put(key(table.getKey(), size), table);
+        this.tables.put(key(table.getFlippedKey(), size), table);
+        this.maxPieces[size] = Math.max(this.maxPieces[size], table.getPieceCount());
+    }
+
+    private static long key(long material, int boardSize) {
+        return material << 4 | boardSize;
+    }
+
+    /**
+     * @return True if there is a table for these pieces, which must include both
+     *         kings
+     */
+    public boolean contains(int boardSize, int[] codes) {
+        return codes.length == 2 || this.tables.containsKey(key(Tablebase.materialKey(codes, false), boardSize));
+    }
+
+    /**
+     * @return The entry code for the position (see Tablebase), or -1 if it is not
+     *         covered by any table
+     */
+    public int probe(Position position) {
+        int pieces = Long.bitCount(position.colorLo[0] | position.colorLo[1])
+                + Long.bitCount(position.colorHi[0] | position.colorHi[1]);
+        if (position.castling != 0 || position.kingSquare[0] == -1 || position.kingSquare[1] == -1) {
+            return -1;
+        }
+        if (pieces == 2) {
+            // Bare kings
+            return 0;
+        }
+        if (pieces > this.maxPieces[position.size]) {
+            return -1;
+        }
+        Tablebase table = this.tables.get(key(Tablebase.materialKey(position), position.size));
+        if (table == null) {
+            return -1;
+        }
+        return table.probe(position);
+    }
+
+}
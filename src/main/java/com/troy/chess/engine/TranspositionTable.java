@@ -0,0 +1,91 @@
+package com.troy.chess.engine;
+
+/**
+ * A fixed size table of search results shared by every search thread.
+ *
+ * Each entry is two longs: the position hash XORed with the data, then the
+ * data itself. Threads read and write entries without locking. If two writes
+ * interleave, the key check on the next probe fails and it counts as a miss,
+ * so a torn entry is never used.
+ *
+ * Data layout: bits 0-19 best move, 20-35 score, 36-43 depth, 44-45 bound and
+ * bit 46 set for every stored entry.
+ */
+public class TranspositionTable {
+
+    public static final int EXACT = 0;
+
+    /**
+     * The score is at least the stored score
+     */
+    public static final int LOWER = 1;
+
+    /**
+     * The score is at most the stored score
+     */
+    public static final int UPPER = 2;
+
+    private static final long PRESENT = 1L << 46;
+
+    private final long[] entries;
+    private final int mask;
+
+    /**
+     * @param megabytes Rounded down to a power of two number of entries
+     */
+    public TranspositionTable(int megabytes) {
+        int count = Integer.highestOneBit(Math.max(1, megabytes) * (1024 * 1024 / 16));
+        this.entries = new long[count * 2];
+        this.mask = count - 1;
+    }
+
+    /**
+     * @return The data stored for a position, or 0 if there is none
+     */
+    public long probe(long hash) {
+        int index = ((int) hash & this.mask) * 2;
+        long data = this.entries[index + 1];
+        if ((this.entries[index] ^ data) != hash) {
+            return 0;
+        }
+        return data;
+    }
+
+    /**
+     * Stores a result, replacing the existing entry unless it is for the same
+     * position from a deeper search
+     */
+    public void store(long hash, int move, int score, int depth, int bound) {
+        int index = ((int) hash & this.mask) * 2;
+        long old = this.entries[index + 1];
+        if ((this.entries[index] ^ old) == hash && depth(old) > depth) {
+            return;
+        }
+        long data = PRESENT | (long) bound << 44 | (long) depth << 36 | (long) (score & 0xFFFF) << 20 | move;
+        this.entries[index] = hash ^ data;
+        this.entries[index + 1] = data;
+    }
+
+    public void clear() {
+        for (int i = 0; i < this.entries.length; i++) {
+            this.entries[i] = 0;
+        }
+    }
+
+    public static int move(long data) {
+        return (int) (data & 0xFFFFF);
+    }
+
+    public static int score(long data) {
+        return (short) (data >>> 20);
+    }
+
+    public static int depth(long data) {
+        return (int) (data >>> 36) & 0xFF;
+    }
+
+    public static int bound(long data) {
+        return (int) (data >>> 44) & 0x3;
+    }
+
+}
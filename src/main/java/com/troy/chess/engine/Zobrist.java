@@ -0,0 +1,75 @@
+package com.troy.chess.engine;
+
+import java.util.SplittableRandom;
+
+/**
+ * Random keys for Zobrist hashing. A position's hash is the XOR of the keys of
+ * everything in it, so making a move only has to XOR out what changed.
+ *
+ * There is one key per square code and square, per board size, per castling
+ * rights combination and per en passant square, plus one for black to move.
+ * Keys come from a fixed seed so hashes are the same on every run.
+ */
+public final class Zobrist {
+
+    private static final int MAX_SQUARES = 128;
+
+    private static final long[] PIECES = new long[Piece.COUNT * 2 * MAX_SQUARES];
+    private static final long[] SIZES = new long[12];
+    private static final long[] CASTLING = new long[16];
+    private static final long[] EN_PASSANT = new long[MAX_SQUARES];
+
+    public static final long BLACK_TO_MOVE;
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x436f6e7472617374L);
+        for (int i = 0; i < PIECES.length; i++) {
+            PIECES[i] = random.nextLong();
+        }
+        for (int i = 0; i < SIZES.length; i++) {
+            SIZES[i] = random.nextLong();
+        }
+        // No rights hashes to nothing so positions without castling only differ by
+        // their pieces
+        for (int i = 1; i < CASTLING.length; i++) {
+            CASTLING[i] = random.nextLong();
+        }
+        for (int i = 0; i < EN_PASSANT.length; i++) {
+            EN_PASSANT[i] = random.nextLong();
+        }
+        BLACK_TO_MOVE = random.nextLong();
+    }
+
+    /**
+     * @param code A square code, see Piece#code. 0 hashes to nothing
+     */
+    public static long piece(int code, int square) {
+        return code == 0 ? 0 : PIECES[code * MAX_SQUARES + square];
+    }
+
+    /**
+     * Keeps boards of different sizes with the same square indices apart
+     */
+    public static long boardSize(int size) {
+        return SIZES[size];
+    }
+
+    /**
+     * @param rights The Position.CASTLE_ bits that are set
+     */
+    public static long castling(int rights) {
+        return CASTLING[rights];
+    }
+
+    /**
+     * @param square The en passant target square or -1 for none
+     */
+    public static long enPassant(int square) {
+        return square == -1 ? 0 : EN_PASSANT[square];
+    }
+
+    public static long sideToMove(int side) {
+        return side == Piece.BLACK ? BLACK_TO_MOVE : 0;
+    }
+
+}